@@ -0,0 +1,390 @@
+package dei.unipd.analyze;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Cache from a (field, raw value) pair to the sequence of tokens produced by an {@link Analyzer} for it.
+ * RDF literals and entities repeat the same values (country names, units, ...) thousands of times inside a dataset:
+ * with this cache the value is analyzed only the first time and then the cached tokens are replayed through a
+ * pre-analyzed {@link TokenStream}.
+ * <p>
+ * The cache is enabled field by field, it is bounded both in number of values and in number of cached tokens
+ * (least recently used values are evicted first) and it can live for a single dataset or for the whole indexing run
+ * (see {@link Scope}).
+ * The analyzer given to the cache must be the same used by the {@code IndexWriter}.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public class AnalysisCache {
+
+    /**
+     * The lifetime of the cached values
+     */
+    public enum Scope {
+        /**
+         * The cache is cleared after every dataset, it must not be shared among indexing threads
+         */
+        DATASET,
+        /**
+         * The cache is kept for the whole indexing run and it can be shared among indexing threads
+         */
+        GLOBAL
+    }
+
+    /**
+     * Default maximum number of cached values
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 50_000;
+
+    /**
+     * Default maximum number of cached tokens (summed over all the cached values)
+     */
+    public static final long DEFAULT_MAX_TOKENS = 1_000_000;
+
+    /**
+     * Default maximum length of a value to be cached: longer values rarely repeat and would only waste memory
+     */
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 256;
+
+    /**
+     * The analyzer used on cache misses
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The lifetime of the cached values
+     */
+    private final Scope scope;
+
+    /**
+     * Maximum number of cached values
+     */
+    private final int maxEntries;
+
+    /**
+     * Maximum number of cached tokens
+     */
+    private final long maxTokens;
+
+    /**
+     * Maximum length of a value to be cached
+     */
+    private final int maxValueLength;
+
+    /**
+     * The fields for which the cache is enabled
+     */
+    private final Set<String> fields = new HashSet<>();
+
+    /**
+     * The cached values, in access order
+     */
+    private final LinkedHashMap<Key, CachedTokens> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedTokens;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new analysis cache with the default bounds
+     *
+     * @param analyzer the analyzer used on cache misses
+     * @param scope    the lifetime of the cached values
+     * @param fields   the fields for which the cache is enabled
+     */
+    public AnalysisCache(final Analyzer analyzer, final Scope scope, final String... fields) {
+        this(analyzer, scope, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TOKENS, DEFAULT_MAX_VALUE_LENGTH, fields);
+    }
+
+    /**
+     * Creates a new analysis cache
+     *
+     * @param analyzer       the analyzer used on cache misses
+     * @param scope          the lifetime of the cached values
+     * @param maxEntries     maximum number of cached values
+     * @param maxTokens      maximum number of cached tokens
+     * @param maxValueLength maximum length of a value to be cached
+     * @param fields         the fields for which the cache is enabled
+     * @throws NullPointerException     if the analyzer or the scope are {@code null}.
+     * @throws IllegalArgumentException if any of the bounds is less than or equal to zero.
+     */
+    public AnalysisCache(final Analyzer analyzer, final Scope scope, final int maxEntries, final long maxTokens,
+                         final int maxValueLength, final String... fields) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (scope == null) {
+            throw new NullPointerException("Scope cannot be null.");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of cached values cannot be less than or equal to zero.");
+        }
+
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("Maximum number of cached tokens cannot be less than or equal to zero.");
+        }
+
+        if (maxValueLength <= 0) {
+            throw new IllegalArgumentException("Maximum length of a cached value cannot be less than or equal to zero.");
+        }
+
+        this.analyzer = analyzer;
+        this.scope = scope;
+        this.maxEntries = maxEntries;
+        this.maxTokens = maxTokens;
+        this.maxValueLength = maxValueLength;
+        this.fields.addAll(Arrays.asList(fields));
+    }
+
+    /**
+     * Enables the cache for the given field
+     *
+     * @param field the name of the field
+     */
+    public synchronized void enableField(String field) {
+        fields.add(field);
+    }
+
+    /**
+     * Disables the cache for the given field
+     *
+     * @param field the name of the field
+     */
+    public synchronized void disableField(String field) {
+        fields.remove(field);
+    }
+
+    /**
+     * @param field the name of the field
+     * @return true if the cache is enabled for the given field
+     */
+    public synchronized boolean isEnabled(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * Returns a pre-analyzed token stream for the given value. On a cache miss the value is analyzed and its
+     * tokens are cached.
+     *
+     * @param field the name of the field
+     * @param value the raw value of the field
+     * @return the token stream that replays the tokens of the value, or {@code null} if the cache is not enabled for
+     * the field or the value is too long to be cached (the value must then be analyzed as usual)
+     */
+    public TokenStream tokenStream(String field, String value) {
+
+        if (value == null || value.length() > maxValueLength || !isEnabled(field)) {
+            return null;
+        }
+
+        final Key key = new Key(field, value);
+        CachedTokens tokens;
+
+        synchronized (this) {
+            tokens = entries.get(key);
+            if (tokens != null)
+                hits++;
+            else
+                misses++;
+        }
+
+        if (tokens == null) {
+            //the analysis is done outside the lock: analyzers are thread-safe
+            tokens = analyze(field, value);
+
+            synchronized (this) {
+                if (entries.put(key, tokens) == null) {
+                    cachedTokens += tokens.size();
+                    evict();
+                }
+            }
+        }
+
+        return new CachedTokenStream(tokens);
+    }
+
+    /**
+     * Notifies the cache that the current dataset has been completely processed, so that a cache with
+     * {@link Scope#DATASET} scope can release its values
+     */
+    public void endDataset() {
+        if (scope == Scope.DATASET) {
+            clear();
+        }
+    }
+
+    /**
+     * Removes all the cached values (statistics are kept)
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedTokens = 0;
+    }
+
+    /**
+     * Removes the least recently used values until the cache is within its bounds
+     */
+    private void evict() {
+        Iterator<CachedTokens> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || cachedTokens > maxTokens) && it.hasNext()) {
+            cachedTokens -= it.next().size();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Runs the analyzer on a value and records the produced tokens
+     *
+     * @param field the name of the field
+     * @param value the raw value of the field
+     * @return the recorded tokens
+     */
+    private CachedTokens analyze(String field, String value) {
+
+        final List<String> terms = new ArrayList<>();
+        final List<int[]> attributes = new ArrayList<>();
+
+        try (TokenStream stream = analyzer.tokenStream(field, value)) {
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            final PositionLengthAttribute posLenAtt = stream.addAttribute(PositionLengthAttribute.class);
+            final OffsetAttribute offsetAtt = stream.addAttribute(OffsetAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAtt.toString());
+                attributes.add(new int[]{posIncAtt.getPositionIncrement(), posLenAtt.getPositionLength(),
+                        offsetAtt.startOffset(), offsetAtt.endOffset()});
+            }
+            stream.end();
+
+            return new CachedTokens(terms.toArray(new String[0]), attributes.toArray(new int[0][]),
+                    posIncAtt.getPositionIncrement(), offsetAtt.endOffset());
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Unable to analyze value of field %s: %s.", field,
+                    e.getMessage()), e);
+        }
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCachedTokens() {
+        return cachedTokens;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of lookups answered by the cache, 0 if no lookup was done
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AnalysisCache[%s, fields=%s, values=%d/%d, tokens=%d/%d, hits=%d, misses=%d, evictions=%d, hit ratio=%.2f%%]",
+                scope, fields, entries.size(), maxEntries, cachedTokens, maxTokens, hits, misses, evictions,
+                getHitRatio() * 100);
+    }
+
+    /**
+     * Key of a cached value
+     */
+    private record Key(String field, String value) {
+    }
+
+    /**
+     * The tokens produced by the analyzer for a value
+     *
+     * @param terms            the terms of the tokens
+     * @param attributes       position increment, position length, start and end offset of every token
+     * @param finalPosIncrement the position increment set by the analyzer at the end of the stream
+     * @param finalOffset      the final offset set by the analyzer at the end of the stream
+     */
+    private record CachedTokens(String[] terms, int[][] attributes, int finalPosIncrement, int finalOffset) {
+
+        int size() {
+            return terms.length;
+        }
+    }
+
+    /**
+     * Token stream that replays the cached tokens of a value
+     */
+    private static final class CachedTokenStream extends TokenStream {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        private final CachedTokens tokens;
+        private int next;
+
+        CachedTokenStream(CachedTokens tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (next >= tokens.size()) {
+                return false;
+            }
+            clearAttributes();
+            final int[] attributes = tokens.attributes()[next];
+            termAtt.setEmpty().append(tokens.terms()[next]);
+            posIncAtt.setPositionIncrement(attributes[0]);
+            posLenAtt.setPositionLength(attributes[1]);
+            offsetAtt.setOffset(attributes[2], attributes[3]);
+            next++;
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            posIncAtt.setPositionIncrement(tokens.finalPosIncrement());
+            offsetAtt.setOffset(tokens.finalOffset(), tokens.finalOffset());
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+        }
+    }
+}
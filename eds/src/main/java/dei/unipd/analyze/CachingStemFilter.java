@@ -0,0 +1,201 @@
+package dei.unipd.analyze;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Token filter that wraps a stemmer (any stemming {@link TokenFilter}, e.g. {@code PorterStemFilter},
+ * {@code KStemFilter} or {@code LovinsStemFilter}) with a {@link StemCache}.
+ * The wrapped stemmer is only run on the terms that are not already in the cache, by feeding them one at a time
+ * to a private single-term stream. Keyword tokens are never stemmed, as in the Lucene stemmers.
+ * <p>
+ * Usage in an analyzer chain:
+ * <pre>
+ *     tokens = new CachingStemFilter(tokens, PorterStemFilter::new, cache);
+ * </pre>
+ * or, to stem the output of an existing analyzer, {@link #wrap(Analyzer, Function, StemCache)}.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public final class CachingStemFilter extends TokenFilter {
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAttr = addAttribute(KeywordAttribute.class);
+
+    /**
+     * The cache of the stems (possibly shared with other filters)
+     */
+    private final StemCache cache;
+
+    /**
+     * The single-term stream that feeds the wrapped stemmer
+     */
+    private final SingleTermStream source;
+
+    /**
+     * The wrapped stemmer, built on top of {@link #source}
+     */
+    private final TokenStream stemmer;
+
+    /**
+     * The term attribute of the wrapped stemmer
+     */
+    private final CharTermAttribute stemmerTermAtt;
+
+    /**
+     * Creates a new caching stem filter
+     *
+     * @param in      the input token stream to process.
+     * @param stemmer the factory of the stemmer to wrap, it receives the stream to stem.
+     * @param cache   the cache of the stems.
+     * @throws NullPointerException if the stemmer factory or the cache are {@code null}.
+     */
+    public CachingStemFilter(TokenStream in, Function<TokenStream, ? extends TokenFilter> stemmer, StemCache cache) {
+        super(in);
+
+        if (stemmer == null) {
+            throw new NullPointerException("Stemmer cannot be null.");
+        }
+
+        if (cache == null) {
+            throw new NullPointerException("Stem cache cannot be null.");
+        }
+
+        this.cache = cache;
+        this.source = new SingleTermStream();
+        this.stemmer = stemmer.apply(source);
+        this.stemmerTermAtt = this.stemmer.addAttribute(CharTermAttribute.class);
+    }
+
+    /**
+     * Wraps an analyzer so that the tokens of every field are stemmed by a caching stem filter at the end of its
+     * chain. The wrapped analyzer has to be used both at indexing and at search time.
+     *
+     * @param analyzer the analyzer to wrap
+     * @param stemmer  the factory of the stemmer to wrap, it receives the stream to stem.
+     * @param cache    the cache of the stems, shared by all the fields.
+     * @return the stemming analyzer
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public static Analyzer wrap(final Analyzer analyzer, final Function<TokenStream, ? extends TokenFilter> stemmer,
+                                final StemCache cache) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (stemmer == null) {
+            throw new NullPointerException("Stemmer cannot be null.");
+        }
+
+        if (cache == null) {
+            throw new NullPointerException("Stem cache cannot be null.");
+        }
+
+        //the wrapped analyzer can build different chains for different fields
+        return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getSource(),
+                        new CachingStemFilter(components.getTokenStream(), stemmer, cache));
+            }
+        };
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        if (keywordAttr.isKeyword()) {
+            return true;
+        }
+
+        final String term = termAtt.toString();
+        String stem = cache.get(term);
+
+        if (stem == null) {
+            stem = stem(term);
+            cache.put(term, stem);
+        }
+
+        if (!stem.equals(term)) {
+            termAtt.setEmpty().append(stem);
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the wrapped stemmer on a single term
+     *
+     * @param term the term to stem
+     * @return the stem of the term (the term itself if the stemmer drops it)
+     * @throws IOException if the wrapped stemmer fails
+     */
+    private String stem(String term) throws IOException {
+        source.setTerm(term);
+        stemmer.reset();
+        String stem = stemmer.incrementToken() ? stemmerTermAtt.toString() : term;
+        stemmer.end();
+        return stem;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        stemmer.close();
+    }
+
+    /**
+     * Token stream that produces a single term, used to feed the wrapped stemmer
+     */
+    private static final class SingleTermStream extends TokenStream {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        private String term;
+        private boolean consumed;
+
+        void setTerm(String term) {
+            this.term = term;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (consumed) {
+                return false;
+            }
+            clearAttributes();
+            termAtt.setEmpty().append(term);
+            //some stemmers (e.g. LovinsStemFilter) rely on the offsets to know the term length
+            offsetAtt.setOffset(0, term.length());
+            consumed = true;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            consumed = false;
+        }
+    }
+}
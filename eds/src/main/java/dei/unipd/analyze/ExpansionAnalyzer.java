@@ -0,0 +1,328 @@
+package dei.unipd.analyze;
+
+import dei.unipd.parse.ParsedDataset;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.*;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Query analyzer that expands the terms of the queries with their synonyms.
+ * <p>
+ * A {@link SynonymGraphFilter} is appended to the analysis chain of every field of the wrapped analyzer, so a query
+ * term and its synonyms, also made of many words, are parsed into a single query: the single words synonyms become a
+ * {@code SynonymQuery}, scored as one term, and the multi words ones alternative paths of the query graph. The whole
+ * expanded query is searched once, instead of one search for every expanded query.
+ * <p>
+ * The synonyms are a {@link SynonymMap}, i.e. an FST compiled once and {@linkplain #save(SynonymMap, Path) saved}, and
+ * can be read from a file in the Solr format ({@link #fromFile(Path, Analyzer)}) or built from the local names of the
+ * classes and properties of the index ({@link #fromIndex(IndexReader, Analyzer, int)}).
+ * <p>
+ * The analyzer is meant for the queries only: the index is not expanded.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public class ExpansionAnalyzer extends AnalyzerWrapper {
+
+    /**
+     * Name of the saved synonym maps in the header of the file
+     */
+    private static final String CODEC_NAME = "SynonymMap";
+
+    /**
+     * Version of the saved synonym maps
+     */
+    private static final int VERSION = 0;
+
+    /**
+     * Maximum number of parts of a local name expanded by {@link #fromIndex(IndexReader, Analyzer, int)}
+     */
+    private static final int MAX_PARTS = 4;
+
+    /**
+     * Minimum length of a compound expanded by {@link #fromIndex(IndexReader, Analyzer, int)}
+     */
+    private static final int MIN_COMPOUND_LENGTH = 6;
+
+    /**
+     * The analyzer whose terms are expanded
+     */
+    private final Analyzer delegate;
+
+    /**
+     * The synonyms
+     */
+    private final SynonymMap synonyms;
+
+    /**
+     * Creates a new expansion analyzer
+     *
+     * @param delegate the analyzer whose terms are expanded, the same used to index the fields
+     * @param synonyms the synonyms, analyzed with the same analyzer
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public ExpansionAnalyzer(final Analyzer delegate, final SynonymMap synonyms) {
+        super(Objects.requireNonNull(delegate, "Analyzer cannot be null.").getReuseStrategy());
+
+        if (synonyms == null) {
+            throw new NullPointerException("Synonym map cannot be null.");
+        }
+
+        this.delegate = delegate;
+        this.synonyms = synonyms;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(String fieldName) {
+        return delegate;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+        //an empty map has no FST and does not expand anything
+        if (synonyms.fst == null) {
+            return components;
+        }
+        return new TokenStreamComponents(components.getSource(),
+                new SynonymGraphFilter(components.getTokenStream(), synonyms, true));
+    }
+
+    /**
+     * @return the synonyms
+     */
+    public SynonymMap getSynonyms() {
+        return synonyms;
+    }
+
+    /**
+     * Reads the synonyms from a file in the Solr format: one rule per line, either a list of equivalent words
+     * ({@code zip, postcode, postal code}) or an explicit mapping ({@code usa => united states}); lines starting
+     * with {@code #} are comments
+     *
+     * @param file     the file of the synonyms, UTF-8 encoded
+     * @param analyzer the analyzer of the rules, the same wrapped by the expansion analyzer
+     * @return the synonym map
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    public static SynonymMap fromFile(final Path file, final Analyzer analyzer) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Synonyms file cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        final SolrSynonymParser parser = new SolrSynonymParser(true, true, analyzer);
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            parser.parse(in);
+        } catch (java.text.ParseException e) {
+            throw new IOException(String.format("Unable to parse the synonyms file %s at line %d: %s.",
+                    file.toAbsolutePath(), e.getErrorOffset(), e.getMessage()), e);
+        }
+        return parser.build();
+    }
+
+    /**
+     * Builds the synonyms from the local names of the classes and the properties of an index: a local name made of
+     * many words, e.g. {@code birthPlace}, is split into its words by the indexer, so a query written with the
+     * compound ({@code birthplace}) does not match it, and the other way round for the text fields. Every compound is
+     * made equivalent to its words.
+     *
+     * @param reader     the reader of the index
+     * @param analyzer   the analyzer used to index the fields, the same wrapped by the expansion analyzer
+     * @param minDocFreq the minimum number of datasets containing a local name
+     * @return the synonym map
+     * @throws IOException if the index cannot be read.
+     */
+    public static SynonymMap fromIndex(final IndexReader reader, final Analyzer analyzer, final int minDocFreq)
+            throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (minDocFreq <= 0) {
+            throw new IllegalArgumentException("The minimum document frequency cannot be less than or equal to zero.");
+        }
+
+        final long start = System.currentTimeMillis();
+        final Set<String> fields = Set.of(ParsedDataset.FIELDS.CLASSES, ParsedDataset.FIELDS.PROPERTIES);
+
+        //number of datasets containing every local name, by its words
+        final Map<List<String>, Integer> docFreqs = new HashMap<>();
+        final Set<List<String>> docNames = new HashSet<>();
+        final List<String[]> values = new ArrayList<>();
+        final StoredFieldVisitor visitor = new StoredFieldVisitor() {
+            @Override
+            public Status needsField(FieldInfo fieldInfo) {
+                return fields.contains(fieldInfo.name) ? Status.YES : Status.NO;
+            }
+
+            @Override
+            public void stringField(FieldInfo fieldInfo, String value) {
+                values.add(new String[]{fieldInfo.name, value});
+            }
+        };
+
+        for (LeafReaderContext ctx : reader.leaves()) {
+            final LeafReader leaf = ctx.reader();
+            final Bits live = leaf.getLiveDocs();
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (live != null && !live.get(doc)) {
+                    continue;
+                }
+
+                values.clear();
+                leaf.document(doc, visitor);
+
+                docNames.clear();
+                for (String[] value : values) {
+                    final List<String> words = words(analyzer, value[0], value[1]);
+                    if (words.size() > 1 && words.size() <= MAX_PARTS) {
+                        docNames.add(words);
+                    }
+                }
+                for (List<String> words : docNames) {
+                    docFreqs.merge(words, 1, Integer::sum);
+                }
+            }
+        }
+
+        final SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        final CharsRefBuilder scratch = new CharsRefBuilder();
+        int rules = 0;
+        for (Map.Entry<List<String>, Integer> e : docFreqs.entrySet()) {
+            final List<String> words = e.getKey();
+            final String compound = String.join("", words);
+            if (e.getValue() < minDocFreq || compound.length() < MIN_COMPOUND_LENGTH
+                    || !compound.chars().allMatch(Character::isLetter)) {
+                continue;
+            }
+
+            final CharsRef phrase = SynonymMap.Builder.join(words.toArray(new String[0]), scratch);
+            builder.add(new CharsRef(compound), phrase, true);
+            builder.add(phrase, new CharsRef(compound), true);
+            rules++;
+        }
+
+        final SynonymMap map = builder.build();
+        System.out.printf("Synonyms built from the index in %d ms: %d local names, %d rules%n",
+                System.currentTimeMillis() - start, docFreqs.size(), rules);
+        return map;
+    }
+
+    /**
+     * Analyzes a text as a field, the stacked tokens (e.g. the original local names) are discarded
+     *
+     * @return the words of the text
+     */
+    private static List<String> words(Analyzer analyzer, String field, String text) throws IOException {
+        final List<String> words = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            final CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                if (posInc.getPositionIncrement() > 0 || words.isEmpty()) {
+                    words.add(term.toString());
+                }
+            }
+            ts.end();
+        }
+        return words;
+    }
+
+    /**
+     * Saves a synonym map, so that it is not compiled again
+     *
+     * @param synonyms the synonym map
+     * @param file     the file
+     * @throws IOException if the file cannot be written.
+     */
+    public static void save(final SynonymMap synonyms, final Path file) throws IOException {
+
+        if (synonyms == null) {
+            throw new NullPointerException("Synonym map cannot be null.");
+        }
+
+        if (file == null) {
+            throw new NullPointerException("Synonyms file cannot be null.");
+        }
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            final OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+            CodecUtil.writeHeader(out, CODEC_NAME, VERSION);
+            out.writeVInt(synonyms.maxHorizontalContext);
+
+            //the words are written in the order of their identifiers, which are the outputs of the FST
+            final BytesRef word = new BytesRef();
+            out.writeVInt(synonyms.words.size());
+            for (int i = 0; i < synonyms.words.size(); i++) {
+                synonyms.words.get(i, word);
+                out.writeVInt(word.length);
+                out.writeBytes(word.bytes, word.offset, word.length);
+            }
+
+            out.writeByte((byte) (synonyms.fst != null ? 1 : 0));
+            if (synonyms.fst != null) {
+                synonyms.fst.save(out, out);
+            }
+        }
+    }
+
+    /**
+     * Loads a synonym map saved with {@link #save(SynonymMap, Path)}
+     *
+     * @param file the file
+     * @return the synonym map
+     * @throws IOException if the file cannot be read.
+     */
+    public static SynonymMap load(final Path file) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Synonyms file cannot be null.");
+        }
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+            final InputStreamDataInput in = new InputStreamDataInput(is);
+            CodecUtil.checkHeader(in, CODEC_NAME, VERSION, VERSION);
+            final int maxHorizontalContext = in.readVInt();
+
+            final BytesRefHash words = new BytesRefHash();
+            final int n = in.readVInt();
+            for (int i = 0; i < n; i++) {
+                final byte[] bytes = new byte[in.readVInt()];
+                in.readBytes(bytes, 0, bytes.length);
+                words.add(new BytesRef(bytes));
+            }
+
+            final FST<BytesRef> fst = in.readByte() != 0 ? new FST<>(in, in, ByteSequenceOutputs.getSingleton()) : null;
+            return new SynonymMap(fst, words, maxHorizontalContext);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package dei.unipd.analyze;
+
+import dei.unipd.parse.ParsedDataset;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.*;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Analyzer for the local names of RDF entities, classes and properties, based on the {@link LocalNameTokenizer}
+ * followed by lower casing and an optional stop list.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public class LocalNameAnalyzer extends Analyzer {
+
+    /**
+     * The fields that contain RDF local names
+     */
+    public static final String[] LOCAL_NAME_FIELDS = {ParsedDataset.FIELDS.ENTITIES, ParsedDataset.FIELDS.CLASSES,
+            ParsedDataset.FIELDS.PROPERTIES};
+
+    /**
+     * Whether to index the original local names together with their parts
+     */
+    private final boolean preserveOriginal;
+
+    /**
+     * The stop list, can be {@code null}
+     */
+    private final CharArraySet stopList;
+
+    /**
+     * Creates a new analyzer without stop list that does not preserve the original local names
+     */
+    public LocalNameAnalyzer() {
+        this(false, null);
+    }
+
+    /**
+     * Creates a new analyzer
+     *
+     * @param preserveOriginal whether to index the original local names together with their parts
+     * @param stopList         the stop list, can be {@code null}
+     */
+    public LocalNameAnalyzer(final boolean preserveOriginal, final CharArraySet stopList) {
+        super();
+        this.preserveOriginal = preserveOriginal;
+        this.stopList = stopList;
+    }
+
+    /**
+     * Wraps an analyzer so that the fields containing RDF local names ({@link #LOCAL_NAME_FIELDS}) are processed with
+     * a {@code LocalNameAnalyzer}, while all the other fields are processed with the given analyzer.
+     * The same wrapper has to be used at indexing and at search time.
+     *
+     * @param defaultAnalyzer  the analyzer for the other fields
+     * @param preserveOriginal whether to index the original local names together with their parts
+     * @param stopList         the stop list for the local name fields, can be {@code null}
+     * @return the per field analyzer
+     * @throws NullPointerException if the default analyzer is {@code null}.
+     */
+    public static Analyzer wrap(final Analyzer defaultAnalyzer, final boolean preserveOriginal,
+                                final CharArraySet stopList) {
+
+        if (defaultAnalyzer == null) {
+            throw new NullPointerException("Default analyzer cannot be null.");
+        }
+
+        final Analyzer localNameAnalyzer = new LocalNameAnalyzer(preserveOriginal, stopList);
+
+        final Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+        for (String field : LOCAL_NAME_FIELDS) {
+            fieldAnalyzers.put(field, localNameAnalyzer);
+        }
+
+        return new PerFieldAnalyzerWrapper(defaultAnalyzer, fieldAnalyzers);
+    }
+
+    /**
+     * Creates the analyzer of the index with the stop list in {@link Constants#stopListPath}, stemming the terms
+     * only if {@link Constants#stemming} is set
+     *
+     * @return the analyzer of the index
+     * @throws IllegalStateException if the stop list cannot be loaded.
+     * @see #forIndex(Path, StemCache)
+     */
+    public static Analyzer forIndex() {
+        return forIndex(Paths.get(Constants.stopListPath), Constants.stemming ? new StemCache() : null);
+    }
+
+    /**
+     * Creates the analyzer of the index: a {@link StandardAnalyzer} with the given stop list, and a
+     * {@code LocalNameAnalyzer} with the same stop list for the fields containing RDF local names. Every indexer and
+     * searcher has to be created with this analyzer, so that the queries are analyzed as the indexed datasets.
+     *
+     * @param stopList the path of the stop list
+     * @return the analyzer of the index
+     * @throws NullPointerException  if the path of the stop list is {@code null}.
+     * @throws IllegalStateException if the stop list cannot be loaded.
+     */
+    public static Analyzer forIndex(final Path stopList) {
+
+        if (stopList == null) {
+            throw new NullPointerException("Stop list path cannot be null.");
+        }
+
+        final CharArraySet cas = AnalyzerUtil.loadStopList(stopList.toString());
+        return wrap(new StandardAnalyzer(cas), false, cas);
+    }
+
+    /**
+     * Creates the analyzer of the index of {@link #forIndex(Path)}, optionally followed by a Porter stemmer in front
+     * of a {@link StemCache}. Stemming changes the indexed terms, so the index has to be rebuilt when it is turned
+     * on or off.
+     *
+     * @param stopList  the path of the stop list
+     * @param stemCache the cache of the stems, {@code null} not to stem the terms
+     * @return the analyzer of the index
+     * @throws NullPointerException  if the path of the stop list is {@code null}.
+     * @throws IllegalStateException if the stop list cannot be loaded.
+     */
+    public static Analyzer forIndex(final Path stopList, final StemCache stemCache) {
+        final Analyzer analyzer = forIndex(stopList);
+        return stemCache == null ? analyzer : CachingStemFilter.wrap(analyzer, PorterStemFilter::new, stemCache);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        final Tokenizer source = new LocalNameTokenizer(preserveOriginal, LocalNameTokenizer.DEFAULT_MAX_TOKEN_LENGTH);
+
+        TokenStream tokens = new LowerCaseFilter(source);
+
+        if (stopList != null) {
+            tokens = new StopFilter(tokens, stopList);
+        }
+
+        return new TokenStreamComponents(source, tokens);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
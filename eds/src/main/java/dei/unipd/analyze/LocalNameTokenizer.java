@@ -0,0 +1,367 @@
+package dei.unipd.analyze;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * Tokenizer for the local names of RDF entities, classes and properties (e.g. {@code hasPostalCode},
+ * {@code dbpedia_Person_1}).
+ * <p>
+ * The input is split on whitespace and punctuation (underscores, dashes, dots, slashes, ...) and every chunk is
+ * further split on camelCase boundaries and on letter/digit boundaries:
+ * <ul>
+ * <li>{@code hasPostalCode} &rarr; {@code has}, {@code Postal}, {@code Code}</li>
+ * <li>{@code dbpedia_Person_1} &rarr; {@code dbpedia}, {@code Person}, {@code 1}</li>
+ * <li>{@code HTMLParser2} &rarr; {@code HTML}, {@code Parser}, {@code 2}</li>
+ * </ul>
+ * If {@code preserveOriginal} is set, the whole whitespace separated chunk is also emitted, at the position of its
+ * first part and spanning all its parts (as done by {@code WordDelimiterGraphFilter}).
+ * <p>
+ * ASCII characters are classified through a lookup table, the full Unicode character classes are only used for
+ * non-ASCII code points. The tokenizer does not lowercase its tokens.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public final class LocalNameTokenizer extends Tokenizer {
+
+    /**
+     * Default maximum length of a token, longer tokens are discarded
+     */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 255;
+
+    //character classes
+    private static final byte SPACE = 0;
+    private static final byte DELIMITER = 1;
+    private static final byte LOWER = 2;
+    private static final byte UPPER = 3;
+    private static final byte DIGIT = 4;
+
+    /**
+     * Class of every ASCII character
+     */
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if (c >= 'a' && c <= 'z')
+                ASCII[c] = LOWER;
+            else if (c >= 'A' && c <= 'Z')
+                ASCII[c] = UPPER;
+            else if (c >= '0' && c <= '9')
+                ASCII[c] = DIGIT;
+            else if (c == ' ' || (c >= '\t' && c <= '\r') || (c >= 0x1C && c <= 0x1F))
+                ASCII[c] = SPACE;
+            else
+                ASCII[c] = DELIMITER;
+        }
+    }
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+
+    /**
+     * Whether to emit the original chunk together with its parts
+     */
+    private final boolean preserveOriginal;
+
+    /**
+     * Maximum length of a token
+     */
+    private final int maxTokenLength;
+
+    /**
+     * The whole input of the tokenizer
+     */
+    private char[] buffer = new char[64];
+
+    /**
+     * Number of valid characters in the buffer
+     */
+    private int length;
+
+    /**
+     * Position in the buffer where the next chunk has to be searched
+     */
+    private int offset;
+
+    /**
+     * Start and end offsets of the parts of the current chunk
+     */
+    private int[] partStarts = new int[8];
+    private int[] partEnds = new int[8];
+
+    /**
+     * Number of parts of the current chunk and index of the next part to emit
+     */
+    private int parts;
+    private int nextPart;
+
+    /**
+     * Position increment to apply to the next emitted token (accounts for discarded too long tokens)
+     */
+    private int skippedPositions;
+
+    /**
+     * Whether the original of the current chunk was too long to be emitted
+     */
+    private boolean originalDiscarded;
+
+    /**
+     * Creates a new tokenizer that does not preserve the original chunks
+     */
+    public LocalNameTokenizer() {
+        this(false, DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    /**
+     * Creates a new tokenizer
+     *
+     * @param preserveOriginal whether to emit the original chunk together with its parts
+     * @param maxTokenLength   maximum length of a token, longer tokens are discarded
+     * @throws IllegalArgumentException if the maximum token length is less than or equal to zero.
+     */
+    public LocalNameTokenizer(final boolean preserveOriginal, final int maxTokenLength) {
+
+        if (maxTokenLength <= 0) {
+            throw new IllegalArgumentException("Maximum token length cannot be less than or equal to zero.");
+        }
+
+        this.preserveOriginal = preserveOriginal;
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        clearAttributes();
+
+        while (true) {
+
+            //emit the pending parts of the current chunk
+            while (nextPart < parts) {
+                final int start = partStarts[nextPart];
+                final int end = partEnds[nextPart];
+                //when the original is emitted the first part shares its position
+                final int posInc = (preserveOriginal && parts > 1 && nextPart == 0 && !originalDiscarded) ? 0 : 1;
+                nextPart++;
+
+                if (end - start > maxTokenLength) {
+                    skippedPositions += posInc;
+                    continue;
+                }
+
+                emit(start, end, posInc, 1);
+                return true;
+            }
+
+            //find the next chunk
+            if (!nextChunk()) {
+                return false;
+            }
+
+            final int chunkStart = partStarts[0];
+            final int chunkEnd = partEnds[parts - 1];
+
+            //emit the original chunk first, unless it is made of a single part equal to itself
+            if (preserveOriginal && parts > 1 && chunkEnd - chunkStart <= maxTokenLength) {
+                emit(chunkStart, chunkEnd, 1, parts);
+                return true;
+            }
+
+            //the original is too long: the first part takes its position
+            originalDiscarded = preserveOriginal && parts > 1;
+        }
+    }
+
+    /**
+     * Sets the attributes of the token
+     */
+    private void emit(int start, int end, int posInc, int posLength) {
+        termAtt.copyBuffer(buffer, start, end - start);
+        offsetAtt.setOffset(correctOffset(start), correctOffset(end));
+        posIncAtt.setPositionIncrement(posInc + skippedPositions);
+        posLenAtt.setPositionLength(posLength);
+        skippedPositions = 0;
+    }
+
+    /**
+     * Finds the next whitespace separated chunk and splits it in parts
+     *
+     * @return false if there are no other chunks
+     */
+    private boolean nextChunk() {
+
+        parts = 0;
+        nextPart = 0;
+        originalDiscarded = false;
+
+        while (parts == 0) {
+
+            //skip whitespaces
+            while (offset < length && classOf(offset) == SPACE) {
+                offset += charCount(offset);
+            }
+
+            if (offset >= length) {
+                return false;
+            }
+
+            int partStart = -1;
+            byte previous = SPACE;
+
+            //scan the chunk up to the next whitespace
+            while (offset < length) {
+                final char c = buffer[offset];
+                final byte current;
+                final int count;
+
+                //ASCII fast path
+                if (c < 128) {
+                    current = ASCII[c];
+                    count = 1;
+                } else {
+                    current = classOf(offset);
+                    count = charCount(offset);
+                }
+
+                //most characters just extend the current part
+                if (current != previous || current == UPPER) {
+                    if (current == SPACE) {
+                        break;
+                    }
+
+                    if (current == DELIMITER) {
+                        if (partStart >= 0) {
+                            addPart(partStart, offset);
+                            partStart = -1;
+                        }
+                    } else if (partStart < 0) {
+                        partStart = offset;
+                    } else if (isBoundary(previous, current, offset)) {
+                        addPart(partStart, offset);
+                        partStart = offset;
+                    }
+
+                    previous = current;
+                }
+
+                offset += count;
+            }
+
+            if (partStart >= 0) {
+                addPart(partStart, offset);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param previous the class of the previous character of the part
+     * @param current  the class of the current character
+     * @param i        the position of the current character
+     * @return true if a new part starts at the current character
+     */
+    private boolean isBoundary(byte previous, byte current, int i) {
+        if (previous == current) {
+            //HTMLParser: the last upper case letter before a lower case one starts a new part
+            if (current == UPPER) {
+                final int next = i + charCount(i);
+                return next < length && classOf(next) == LOWER;
+            }
+            return false;
+        }
+        //Postal -> upper followed by lower is the same part
+        if (previous == UPPER && current == LOWER) {
+            return false;
+        }
+        //lower -> upper, letter <-> digit
+        return true;
+    }
+
+    /**
+     * Adds a part to the current chunk
+     */
+    private void addPart(int start, int end) {
+        if (parts == partStarts.length) {
+            partStarts = ArrayUtil.grow(partStarts, parts + 1);
+            partEnds = ArrayUtil.grow(partEnds, parts + 1);
+        }
+        partStarts[parts] = start;
+        partEnds[parts] = end;
+        parts++;
+    }
+
+    /**
+     * @param i the position of the character in the buffer
+     * @return the class of the character (or code point) at the given position
+     */
+    private byte classOf(int i) {
+        final char c = buffer[i];
+
+        //ASCII fast path
+        if (c < 128) {
+            return ASCII[c];
+        }
+
+        final int cp = Character.codePointAt(buffer, i, length);
+        if (Character.isWhitespace(cp) || Character.isSpaceChar(cp))
+            return SPACE;
+        if (Character.isUpperCase(cp) || Character.isTitleCase(cp))
+            return UPPER;
+        if (Character.isDigit(cp))
+            return DIGIT;
+        if (Character.isLetter(cp) || Character.getType(cp) == Character.NON_SPACING_MARK
+                || Character.getType(cp) == Character.COMBINING_SPACING_MARK)
+            return LOWER;
+        return DELIMITER;
+    }
+
+    /**
+     * @param i the position of the character in the buffer
+     * @return the number of chars of the code point at the given position
+     */
+    private int charCount(int i) {
+        final char c = buffer[i];
+        return (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(buffer[i + 1])) ? 2 : 1;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+
+        //local names are short: the whole input is read at once
+        length = 0;
+        int read;
+        while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = ArrayUtil.grow(buffer, length + 1);
+            }
+        }
+
+        offset = 0;
+        parts = 0;
+        nextPart = 0;
+        skippedPositions = 0;
+        originalDiscarded = false;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        final int finalOffset = correctOffset(length);
+        offsetAtt.setOffset(finalOffset, finalOffset);
+        posIncAtt.setPositionIncrement(skippedPositions);
+    }
+}
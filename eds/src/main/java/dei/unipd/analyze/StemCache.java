@@ -0,0 +1,167 @@
+package dei.unipd.analyze;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded and thread-safe cache from a term to its stem.
+ * RDF datasets repeat the same class and property local names a huge number of times,
+ * so a small cache in front of the stemmer turns most of the stemming work into lookups.
+ * The same cache instance can be shared by all the analyzers (and threads) of an indexing run.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.0
+ * @since 1.0
+ */
+public class StemCache {
+
+    /**
+     * The eviction policies supported by the cache
+     */
+    public enum Eviction {
+        /**
+         * Evicts the least recently used term
+         */
+        LRU,
+        /**
+         * Evicts the oldest inserted term
+         */
+        FIFO
+    }
+
+    /**
+     * Default maximum number of terms kept in the cache
+     */
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    /**
+     * Maximum number of terms kept in the cache
+     */
+    private final int capacity;
+
+    /**
+     * Eviction policy of the cache
+     */
+    private final Eviction eviction;
+
+    /**
+     * The cached term to stem entries
+     */
+    private final LinkedHashMap<String, String> stems;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new LRU stem cache with the default capacity
+     */
+    public StemCache() {
+        this(DEFAULT_CAPACITY, Eviction.LRU);
+    }
+
+    /**
+     * Creates a new stem cache
+     *
+     * @param capacity maximum number of terms kept in the cache
+     * @param eviction eviction policy used when the cache is full
+     * @throws NullPointerException     if the eviction policy is {@code null}.
+     * @throws IllegalArgumentException if the capacity is less than or equal to zero.
+     */
+    public StemCache(final int capacity, final Eviction eviction) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Stem cache capacity cannot be less than or equal to zero.");
+        }
+
+        if (eviction == null) {
+            throw new NullPointerException("Eviction policy cannot be null.");
+        }
+
+        this.capacity = capacity;
+        this.eviction = eviction;
+
+        //access order is what turns the linked hash map into an LRU map
+        this.stems = new LinkedHashMap<>(16, 0.75f, eviction == Eviction.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > StemCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param term the term to look up
+     * @return the cached stem of the term or {@code null} if the term is not in the cache
+     */
+    public synchronized String get(String term) {
+        String stem = stems.get(term);
+        if (stem == null)
+            misses++;
+        else
+            hits++;
+        return stem;
+    }
+
+    /**
+     * Adds a term with its stem to the cache, possibly evicting another term
+     *
+     * @param term the term
+     * @param stem the stem of the term
+     */
+    public synchronized void put(String term, String stem) {
+        stems.put(term, stem);
+    }
+
+    /**
+     * Removes all the cached terms and resets the statistics
+     */
+    public synchronized void clear() {
+        stems.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public synchronized int size() {
+        return stems.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of lookups answered by the cache, 0 if no lookup was done
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("StemCache[%s, size=%d/%d, hits=%d, misses=%d, evictions=%d, hit ratio=%.2f%%]",
+                eviction, stems.size(), capacity, hits, misses, evictions, getHitRatio() * 100);
+    }
+}
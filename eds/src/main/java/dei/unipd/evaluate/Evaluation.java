@@ -0,0 +1,130 @@
+package dei.unipd.evaluate;
+
+import java.util.*;
+
+/**
+ * The per topic and mean values of some measures for a run
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class Evaluation {
+
+    /**
+     * The measures
+     */
+    private final Measure[] measures;
+
+    /**
+     * The evaluated topics, in the order of the run
+     */
+    private final String[] topicIDs;
+
+    /**
+     * The values of the measures: {@code values[m][t]} is the value of measure {@code m} for topic {@code t}
+     */
+    private final double[][] values;
+
+    /**
+     * Creates a new evaluation
+     *
+     * @param measures the measures
+     * @param topicIDs the evaluated topics
+     * @param values   the values of the measures, by measure and then by topic
+     */
+    Evaluation(Measure[] measures, String[] topicIDs, double[][] values) {
+        this.measures = measures;
+        this.topicIDs = topicIDs;
+        this.values = values;
+    }
+
+    /**
+     * @return the measures
+     */
+    public Measure[] getMeasures() {
+        return measures.clone();
+    }
+
+    /**
+     * @return the evaluated topics
+     */
+    public String[] getTopicIDs() {
+        return topicIDs.clone();
+    }
+
+    /**
+     * @param measure the measure
+     * @return the mean of the measure over the evaluated topics
+     * @throws IllegalArgumentException if the measure was not evaluated.
+     */
+    public double mean(Measure measure) {
+        final double[] v = values[indexOf(measure)];
+        double sum = 0;
+        for (double x : v) {
+            sum += x;
+        }
+        return v.length == 0 ? 0 : sum / v.length;
+    }
+
+    /**
+     * @param measure the measure
+     * @param topicID the topic
+     * @return the value of the measure for the topic, {@code NaN} if the topic was not evaluated
+     * @throws IllegalArgumentException if the measure was not evaluated.
+     */
+    public double get(Measure measure, String topicID) {
+        final double[] v = values[indexOf(measure)];
+        for (int t = 0; t < topicIDs.length; t++) {
+            if (topicIDs[t].equals(topicID)) {
+                return v[t];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @param measure the measure
+     * @return the values of the measure for the evaluated topics, in the order of {@link #getTopicIDs()}
+     * @throws IllegalArgumentException if the measure was not evaluated.
+     */
+    public double[] perTopic(Measure measure) {
+        return values[indexOf(measure)].clone();
+    }
+
+    private int indexOf(Measure measure) {
+        for (int m = 0; m < measures.length; m++) {
+            if (measures[m].equals(measure)) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Measure %s was not evaluated.", measure));
+    }
+
+    /**
+     * Returns the evaluation in the format of {@code trec_eval -q}: one line per measure and topic, followed by the
+     * means over all the topics
+     *
+     * @return the evaluation as text
+     */
+    public String toTrecEval() {
+        final StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < topicIDs.length; t++) {
+            for (int m = 0; m < measures.length; m++) {
+                sb.append(String.format(Locale.ENGLISH, "%-22s\t%s\t%.4f%n", measures[m], topicIDs[t], values[m][t]));
+            }
+        }
+        sb.append(this);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-22s\tall\t%d%n", "num_q", topicIDs.length));
+        for (Measure m : measures) {
+            sb.append(String.format(Locale.ENGLISH, "%-22s\tall\t%.4f%n", m, mean(m)));
+        }
+        return sb.toString();
+    }
+}
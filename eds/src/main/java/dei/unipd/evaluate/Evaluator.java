@@ -0,0 +1,179 @@
+package dei.unipd.evaluate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Evaluates rankings in memory against a set of relevance judgements, without writing and reading run files.
+ * <p>
+ * As in {@code trec_eval}, only the topics that are both in the rankings and in the qrels are evaluated, and the
+ * datasets of a ranking are evaluated in the given order.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class Evaluator {
+
+    /**
+     * The relevance judgements
+     */
+    private final Qrels qrels;
+
+    /**
+     * The measures to evaluate
+     */
+    private final Measure[] measures;
+
+    /**
+     * Creates a new evaluator
+     *
+     * @param qrels    the relevance judgements
+     * @param measures the measures to evaluate
+     * @throws NullPointerException     if the qrels are {@code null}.
+     * @throws IllegalArgumentException if no measure is given.
+     */
+    public Evaluator(final Qrels qrels, final Measure... measures) {
+
+        if (qrels == null) {
+            throw new NullPointerException("Qrels cannot be null.");
+        }
+
+        if (measures == null || measures.length == 0) {
+            throw new IllegalArgumentException("At least one measure has to be evaluated.");
+        }
+
+        this.qrels = qrels;
+        this.measures = measures.clone();
+    }
+
+    /**
+     * Evaluates the rankings of some topics
+     *
+     * @param rankings the dataset identifiers retrieved for every topic, from the first to the last retrieved
+     * @return the evaluation
+     */
+    public Evaluation evaluate(final Map<String, String[]> rankings) {
+
+        final List<String> topicIDs = new ArrayList<>(rankings.size());
+        final List<String[]> judged = new ArrayList<>(rankings.size());
+        for (Map.Entry<String, String[]> e : rankings.entrySet()) {
+            if (qrels.get(e.getKey()) != null) {
+                topicIDs.add(e.getKey());
+                judged.add(e.getValue());
+            }
+        }
+
+        final double[][] values = new double[measures.length][topicIDs.size()];
+        for (int t = 0; t < topicIDs.size(); t++) {
+            final Judgements j = qrels.get(topicIDs.get(t));
+            for (int m = 0; m < measures.length; m++) {
+                values[m][t] = measures[m].evaluate(j, judged.get(t));
+            }
+        }
+
+        return new Evaluation(measures.clone(), topicIDs.toArray(new String[0]), values);
+    }
+
+    /**
+     * Evaluates the ranking of a single topic
+     *
+     * @param topicID the topic
+     * @param ranking the dataset identifiers, from the first to the last retrieved
+     * @param measure the measure
+     * @return the value of the measure, {@code NaN} if the topic was not judged
+     */
+    public double evaluate(final String topicID, final String[] ranking, final Measure measure) {
+        final Judgements j = qrels.get(topicID);
+        return j == null ? Double.NaN : measure.evaluate(j, ranking);
+    }
+
+    /**
+     * @return the relevance judgements
+     */
+    public Qrels getQrels() {
+        return qrels;
+    }
+
+    /**
+     * @return the measures to evaluate
+     */
+    public Measure[] getMeasures() {
+        return measures.clone();
+    }
+
+    /**
+     * Reads a TREC run file. The datasets of every topic are ranked as in {@code trec_eval}: by decreasing score and,
+     * in case of ties, by decreasing dataset identifier.
+     *
+     * @param runFile the run file
+     * @return the dataset identifiers retrieved for every topic, in the order of the topics in the file
+     * @throws IllegalArgumentException if the file is not a valid run file.
+     * @throws IOException              if something goes wrong while reading the file.
+     */
+    public static Map<String, String[]> readRun(final String runFile) throws IOException {
+
+        record Entry(String docID, double score) {
+        }
+
+        final Map<String, List<Entry>> topics = new LinkedHashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(runFile), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length == 1 && tokens[0].isEmpty()) {
+                    continue;
+                }
+
+                if (tokens.length != 6) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s: expected 6 columns; %d found instead.",
+                            lineNumber, runFile, tokens.length));
+                }
+
+                topics.computeIfAbsent(tokens[0], t -> new ArrayList<>())
+                        .add(new Entry(tokens[2], Double.parseDouble(tokens[4])));
+            }
+        }
+
+        final Map<String, String[]> rankings = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Entry>> e : topics.entrySet()) {
+            final List<Entry> entries = e.getValue();
+            entries.sort(Comparator.comparingDouble(Entry::score).thenComparing(Entry::docID).reversed());
+            rankings.put(e.getKey(), entries.stream().map(Entry::docID).toArray(String[]::new));
+        }
+
+        return rankings;
+    }
+
+    /**
+     * Evaluates a run file and prints the evaluation in the format of {@code trec_eval}
+     *
+     * @param args the qrels file, the run file and the measures (by default nDCG and MAP at 5 and 10).
+     * @throws Exception if something goes wrong while evaluating.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2) {
+            System.out.println("Usage: Evaluator <qrels file> <run file> [measure ...]");
+            return;
+        }
+
+        final Measure[] measures;
+        if (args.length > 2) {
+            measures = Arrays.stream(args, 2, args.length).map(Measure::parse).toArray(Measure[]::new);
+        } else {
+            measures = new Measure[]{Measure.ndcg(5), Measure.ndcg(10), Measure.map(5), Measure.map(10)};
+        }
+
+        final Evaluator evaluator = new Evaluator(Qrels.read(args[0]), measures);
+        System.out.print(evaluator.evaluate(readRun(args[1])));
+    }
+}
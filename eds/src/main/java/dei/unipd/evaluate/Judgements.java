@@ -0,0 +1,159 @@
+package dei.unipd.evaluate;
+
+import java.util.Arrays;
+
+/**
+ * The relevance judgements of a topic: an open addressing hash table from the dataset identifiers to their relevance,
+ * with the relevance stored as primitive values.
+ * <p>
+ * Unjudged datasets are not relevant, as in {@code trec_eval}.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class Judgements {
+
+    /**
+     * The judged datasets, {@code null} for the empty slots
+     */
+    private String[] keys;
+
+    /**
+     * The relevance of the judged datasets
+     */
+    private int[] values;
+
+    /**
+     * Number of judged datasets
+     */
+    private int size;
+
+    /**
+     * Number of relevant datasets
+     */
+    private int relevant;
+
+    /**
+     * The gains of the relevant datasets in decreasing order, computed when the judgements are complete
+     */
+    private int[] idealGains;
+
+    /**
+     * Creates empty judgements
+     */
+    Judgements() {
+        keys = new String[16];
+        values = new int[16];
+    }
+
+    /**
+     * Adds a judgement, replacing the previous judgement of the same dataset
+     *
+     * @param docID     the dataset identifier
+     * @param relevance the relevance of the dataset
+     */
+    void put(String docID, int relevance) {
+
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+
+        final int slot = slot(keys, docID);
+        if (keys[slot] == null) {
+            keys[slot] = docID;
+            size++;
+        } else if (values[slot] > 0) {
+            relevant--;
+        }
+
+        values[slot] = relevance;
+        if (relevance > 0) {
+            relevant++;
+        }
+
+        idealGains = null;
+    }
+
+    /**
+     * @param docID the dataset identifier
+     * @return the relevance of the dataset, 0 if the dataset was not judged
+     */
+    public int relevance(String docID) {
+        if (docID == null) {
+            return 0;
+        }
+        final int slot = slot(keys, docID);
+        return keys[slot] == null ? 0 : values[slot];
+    }
+
+    /**
+     * @return the number of judged datasets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of relevant datasets
+     */
+    public int relevantCount() {
+        return relevant;
+    }
+
+    /**
+     * @return the gains of the relevant datasets in decreasing order, i.e. the gains of the ideal ranking
+     */
+    public int[] idealGains() {
+
+        if (idealGains == null) {
+            final int[] gains = new int[relevant];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null && values[i] > 0) {
+                    gains[n++] = values[i];
+                }
+            }
+            Arrays.sort(gains);
+            //reverse in place
+            for (int i = 0, j = gains.length - 1; i < j; i++, j--) {
+                final int g = gains[i];
+                gains[i] = gains[j];
+                gains[j] = g;
+            }
+            idealGains = gains;
+        }
+
+        return idealGains;
+    }
+
+    /**
+     * Grows the hash table
+     */
+    private void rehash(int capacity) {
+        final String[] newKeys = new String[capacity];
+        final int[] newValues = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                final int slot = slot(newKeys, keys[i]);
+                newKeys[slot] = keys[i];
+                newValues[slot] = values[i];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it has to be inserted (linear probing)
+     */
+    private static int slot(String[] keys, String key) {
+        final int mask = keys.length - 1;
+        final int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
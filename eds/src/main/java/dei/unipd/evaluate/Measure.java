@@ -0,0 +1,198 @@
+package dei.unipd.evaluate;
+
+/**
+ * An evaluation measure, computed as in {@code trec_eval}:
+ * <ul>
+ * <li>{@code ndcg_cut_k}: nDCG at cutoff k, with the relevance as gain and {@code log2(rank + 1)} as discount</li>
+ * <li>{@code map_cut_k} and {@code map}: average precision at cutoff k, normalized by the number of relevant
+ * datasets</li>
+ * <li>{@code P_k}: precision at cutoff k</li>
+ * </ul>
+ * A dataset is relevant if its relevance is greater than zero.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class Measure {
+
+    /**
+     * The measure types
+     */
+    public enum Type {
+        NDCG, AP, PRECISION
+    }
+
+    /**
+     * The type of the measure
+     */
+    private final Type type;
+
+    /**
+     * The cutoff of the ranking
+     */
+    private final int cutoff;
+
+    /**
+     * The name of the measure
+     */
+    private final String name;
+
+    private Measure(Type type, int cutoff, String name) {
+        if (cutoff <= 0) {
+            throw new IllegalArgumentException("Cutoff cannot be less than or equal to zero.");
+        }
+        this.type = type;
+        this.cutoff = cutoff;
+        this.name = name;
+    }
+
+    /**
+     * @param k the cutoff
+     * @return nDCG at cutoff k
+     */
+    public static Measure ndcg(int k) {
+        return new Measure(Type.NDCG, k, "ndcg_cut_" + k);
+    }
+
+    /**
+     * @param k the cutoff
+     * @return average precision at cutoff k
+     */
+    public static Measure map(int k) {
+        return new Measure(Type.AP, k, "map_cut_" + k);
+    }
+
+    /**
+     * @return average precision over the whole ranking
+     */
+    public static Measure map() {
+        return new Measure(Type.AP, Integer.MAX_VALUE, "map");
+    }
+
+    /**
+     * @param k the cutoff
+     * @return precision at cutoff k
+     */
+    public static Measure precision(int k) {
+        return new Measure(Type.PRECISION, k, "P_" + k);
+    }
+
+    /**
+     * Parses a measure name: {@code ndcg_cut_k}, {@code map_cut_k}, {@code map} or {@code P_k}
+     *
+     * @param name the name of the measure
+     * @return the measure
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public static Measure parse(String name) {
+        try {
+            if (name.equals("map"))
+                return map();
+            if (name.startsWith("ndcg_cut_"))
+                return ndcg(Integer.parseInt(name.substring(9)));
+            if (name.startsWith("map_cut_"))
+                return map(Integer.parseInt(name.substring(8)));
+            if (name.startsWith("P_"))
+                return precision(Integer.parseInt(name.substring(2)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid cutoff in measure %s.", name), e);
+        }
+        throw new IllegalArgumentException(String.format("Unknown measure %s.", name));
+    }
+
+    /**
+     * Evaluates a ranking
+     *
+     * @param judgements the judgements of the topic
+     * @param ranking    the dataset identifiers, from the first to the last retrieved
+     * @return the value of the measure
+     */
+    public double evaluate(Judgements judgements, String[] ranking) {
+
+        final int n = Math.min(cutoff, ranking.length);
+
+        switch (type) {
+            case NDCG -> {
+                double dcg = 0;
+                for (int i = 0; i < n; i++) {
+                    final int gain = judgements.relevance(ranking[i]);
+                    if (gain > 0) {
+                        dcg += gain / log2(i + 2);
+                    }
+                }
+
+                final int[] ideal = judgements.idealGains();
+                double idcg = 0;
+                for (int i = 0, m = Math.min(cutoff, ideal.length); i < m; i++) {
+                    idcg += ideal[i] / log2(i + 2);
+                }
+
+                return idcg == 0 ? 0 : dcg / idcg;
+            }
+            case AP -> {
+                if (judgements.relevantCount() == 0) {
+                    return 0;
+                }
+                double sum = 0;
+                int found = 0;
+                for (int i = 0; i < n; i++) {
+                    if (judgements.relevance(ranking[i]) > 0) {
+                        found++;
+                        sum += (double) found / (i + 1);
+                    }
+                }
+                return sum / judgements.relevantCount();
+            }
+            default -> {
+                int found = 0;
+                for (int i = 0; i < n; i++) {
+                    if (judgements.relevance(ranking[i]) > 0) {
+                        found++;
+                    }
+                }
+                return (double) found / cutoff;
+            }
+        }
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * @return the type of the measure
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the cutoff of the measure, {@code Integer.MAX_VALUE} if the whole ranking is evaluated
+     */
+    public int getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * @return the name of the measure, as in {@code trec_eval}
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Measure m && m.type == type && m.cutoff == cutoff;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + cutoff;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,104 @@
+package dei.unipd.evaluate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The relevance judgements of a test collection, read from a TREC qrels file. Every line of the file contains the
+ * topic identifier, the iteration (ignored), the dataset identifier and the relevance, separated by whitespaces:
+ * <pre>
+ * 1 0 12345 2
+ * </pre>
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class Qrels {
+
+    /**
+     * The judgements of every topic
+     */
+    private final Map<String, Judgements> topics;
+
+    /**
+     * Creates the qrels from the judgements of the topics
+     */
+    private Qrels(Map<String, Judgements> topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * Reads a TREC qrels file
+     *
+     * @param qrelsFile the qrels file
+     * @return the qrels
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if the file is not a valid qrels file.
+     * @throws IOException              if something goes wrong while reading the file.
+     */
+    public static Qrels read(final String qrelsFile) throws IOException {
+
+        if (qrelsFile == null) {
+            throw new NullPointerException("Qrels file cannot be null.");
+        }
+
+        final Map<String, Judgements> topics = new LinkedHashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(qrelsFile), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+
+                final String[] tokens = line.trim().split("\\s+");
+                if (tokens.length == 1 && tokens[0].isEmpty()) {
+                    continue;
+                }
+
+                if (tokens.length != 4) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s: expected 4 columns; %d found instead.",
+                            lineNumber, qrelsFile, tokens.length));
+                }
+
+                final int relevance;
+                try {
+                    relevance = Integer.parseInt(tokens[3]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s: invalid relevance %s.",
+                            lineNumber, qrelsFile, tokens[3]), e);
+                }
+
+                topics.computeIfAbsent(tokens[0], t -> new Judgements()).put(tokens[2], relevance);
+            }
+        }
+
+        return new Qrels(topics);
+    }
+
+    /**
+     * @param topicID the topic identifier
+     * @return the judgements of the topic, {@code null} if the topic was not judged
+     */
+    public Judgements get(String topicID) {
+        return topics.get(topicID);
+    }
+
+    /**
+     * @return the identifiers of the judged topics, in the order of the qrels file
+     */
+    public Set<String> topicIDs() {
+        return Collections.unmodifiableSet(topics.keySet());
+    }
+
+    /**
+     * @return the number of judged topics
+     */
+    public int size() {
+        return topics.size();
+    }
+}
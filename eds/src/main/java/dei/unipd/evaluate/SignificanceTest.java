@@ -0,0 +1,243 @@
+package dei.unipd.evaluate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Paired significance tests between two runs, over the topics evaluated in both runs. Both tests are two-sided.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class SignificanceTest {
+
+    /**
+     * Default number of trials of the randomization test
+     */
+    public static final int DEFAULT_TRIALS = 100_000;
+
+    private SignificanceTest() {
+    }
+
+    /**
+     * Paired Student's t-test
+     *
+     * @param a       the evaluation of the first run
+     * @param b       the evaluation of the second run
+     * @param measure the measure to compare
+     * @return the p-value
+     */
+    public static double pairedTTest(final Evaluation a, final Evaluation b, final Measure measure) {
+        final double[][] paired = pair(a, b, measure);
+        return pairedTTest(paired[0], paired[1]);
+    }
+
+    /**
+     * Paired Student's t-test
+     *
+     * @param a the values of the first run, by topic
+     * @param b the values of the second run, for the same topics
+     * @return the p-value, 1 if the runs cannot be told apart
+     */
+    public static double pairedTTest(final double[] a, final double[] b) {
+
+        checkPaired(a, b);
+
+        final int n = a.length;
+        if (n < 2) {
+            return 1;
+        }
+
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += a[i] - b[i];
+        }
+        mean /= n;
+
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            final double d = a[i] - b[i] - mean;
+            variance += d * d;
+        }
+        variance /= n - 1;
+
+        if (variance == 0) {
+            return mean == 0 ? 1 : 0;
+        }
+
+        final double t = mean / Math.sqrt(variance / n);
+        final double df = n - 1;
+
+        //two-sided p-value of the Student's t distribution
+        return regularizedIncompleteBeta(df / (df + t * t), df / 2, 0.5);
+    }
+
+    /**
+     * Paired randomization (permutation) test, with the default number of trials and a fixed seed
+     *
+     * @param a       the evaluation of the first run
+     * @param b       the evaluation of the second run
+     * @param measure the measure to compare
+     * @return the p-value
+     */
+    public static double randomizationTest(final Evaluation a, final Evaluation b, final Measure measure) {
+        final double[][] paired = pair(a, b, measure);
+        return randomizationTest(paired[0], paired[1], DEFAULT_TRIALS, 42);
+    }
+
+    /**
+     * Paired randomization (permutation) test: the values of the two runs are randomly swapped topic by topic and the
+     * p-value is the fraction of trials whose absolute mean difference is at least the observed one
+     *
+     * @param a      the values of the first run, by topic
+     * @param b      the values of the second run, for the same topics
+     * @param trials the number of trials
+     * @param seed   the seed of the random generator
+     * @return the p-value
+     */
+    public static double randomizationTest(final double[] a, final double[] b, final int trials, final long seed) {
+
+        checkPaired(a, b);
+
+        if (trials <= 0) {
+            throw new IllegalArgumentException("Number of trials cannot be less than or equal to zero.");
+        }
+
+        final int n = a.length;
+        if (n == 0) {
+            return 1;
+        }
+
+        final double[] d = new double[n];
+        double observed = 0;
+        for (int i = 0; i < n; i++) {
+            d[i] = a[i] - b[i];
+            observed += d[i];
+        }
+        observed = Math.abs(observed);
+
+        //tolerance for the rounding errors of the sums
+        final double threshold = observed - 1e-12 * n;
+
+        final SplittableRandom random = new SplittableRandom(seed);
+        int count = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += random.nextBoolean() ? d[i] : -d[i];
+            }
+            if (Math.abs(sum) >= threshold) {
+                count++;
+            }
+        }
+
+        return (double) count / trials;
+    }
+
+    /**
+     * @return the values of the measure for the topics evaluated in both runs
+     */
+    private static double[][] pair(Evaluation a, Evaluation b, Measure measure) {
+
+        final String[] topics = a.getTopicIDs();
+        final double[] valuesA = a.perTopic(measure);
+
+        final List<double[]> pairs = new ArrayList<>(topics.length);
+        for (int t = 0; t < topics.length; t++) {
+            final double valueB = b.get(measure, topics[t]);
+            if (!Double.isNaN(valueB)) {
+                pairs.add(new double[]{valuesA[t], valueB});
+            }
+        }
+
+        final double[][] paired = new double[2][pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            paired[0][i] = pairs.get(i)[0];
+            paired[1][i] = pairs.get(i)[1];
+        }
+        return paired;
+    }
+
+    private static void checkPaired(double[] a, double[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException(String.format("Expected paired values; %d and %d values found instead.",
+                    a.length, b.length));
+        }
+    }
+
+    /**
+     * Regularized incomplete beta function I_x(a, b), evaluated with its continued fraction
+     */
+    private static double regularizedIncompleteBeta(double x, double a, double b) {
+
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+
+        //the continued fraction converges quickly for x < (a + 1) / (a + b + 2)
+        if (x > (a + 1) / (a + b + 2)) {
+            return 1 - regularizedIncompleteBeta(1 - x, b, a);
+        }
+
+        final double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+                + a * Math.log(x) + b * Math.log(1 - x)) / a;
+
+        //modified Lentz's method
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = Math.abs(d) < tiny ? 1 / tiny : 1 / d;
+        double f = d;
+
+        for (int m = 1; m <= 300; m++) {
+            //even step
+            double num = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+            d = 1 + num * d;
+            d = Math.abs(d) < tiny ? 1 / tiny : 1 / d;
+            c = 1 + num / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            f *= c * d;
+
+            //odd step
+            num = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+            d = 1 + num * d;
+            d = Math.abs(d) < tiny ? 1 / tiny : 1 / d;
+            c = 1 + num / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            final double delta = c * d;
+            f *= delta;
+
+            if (Math.abs(delta - 1) < 1e-14) {
+                break;
+            }
+        }
+
+        return front * f;
+    }
+
+    /**
+     * Logarithm of the gamma function (Lanczos approximation)
+     */
+    private static double logGamma(double x) {
+        final double[] g = {676.5203681218851, -1259.1392167224028, 771.32342877765313, -176.61502916214059,
+                12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+
+        if (x < 0.5) {
+            //reflection formula
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+        }
+
+        x -= 1;
+        double sum = 0.99999999999980993;
+        for (int i = 0; i < g.length; i++) {
+            sum += g[i] / (x + i + 1);
+        }
+        final double t = x + g.length - 0.5;
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+}
@@ -1,10 +1,16 @@
 package dei.unipd.index;
 
+import dei.unipd.analyze.AnalysisCache;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.IndexOptions;
 
-import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Represents a {@link Field} for containing the content of a meta or content information
@@ -28,8 +34,30 @@ public class DatasetField extends Field {
         DATASET_TYPE.setStoreTermVectors(true);
         DATASET_TYPE.setStoreTermVectorPositions(true);
         DATASET_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        DATASET_TYPE.freeze();
     }
 
+    /**
+     * The type of the fields used for the snippets: the postings also record the offsets of the terms, so the
+     * snippets are built without analyzing the stored values again
+     */
+    private static final FieldType SNIPPET_TYPE = new FieldType(DATASET_TYPE);
+
+    static {
+        SNIPPET_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        SNIPPET_TYPE.freeze();
+    }
+
+    /**
+     * The fields used for the snippets
+     */
+    private static final Set<String> SNIPPET_FIELDS = new HashSet<>(Arrays.asList(Constants.snippetFields));
+
+    /**
+     * The analysis cache of the value, {@code null} if the value is analyzed as usual
+     */
+    private final AnalysisCache cache;
+
     /**
      * Create a new Dataset Field
      *
@@ -37,7 +65,40 @@ public class DatasetField extends Field {
      * @param value the content of the field
      */
     public DatasetField(final String field, final String value) {
-        super(field, value, DATASET_TYPE);
+        this(field, value, null);
+    }
+
+    /**
+     * Create a new Dataset Field whose value is analyzed through an {@link AnalysisCache}: if the cache is enabled
+     * for the field, the indexer consumes the cached tokens of the value instead of running the analyzer again.
+     * Only the value is kept until the document is indexed: the cache is looked up when the indexer asks for the
+     * tokens of the field. The value is stored as usual.
+     *
+     * @param field the name of the field
+     * @param value the content of the field
+     * @param cache the analysis cache, can be {@code null}
+     */
+    public DatasetField(final String field, final String value, final AnalysisCache cache) {
+        super(field, value, type(field));
+        this.cache = cache;
+    }
+
+    @Override
+    public TokenStream tokenStream(Analyzer analyzer, TokenStream reuse) {
+        if (cache != null) {
+            final TokenStream tokens = cache.tokenStream(name(), stringValue());
+            if (tokens != null)
+                return tokens;
+        }
+        return super.tokenStream(analyzer, reuse);
+    }
+
+    /**
+     * @param field the name of the field
+     * @return the type of the field: the snippet fields (see {@link Constants#snippetFields}) also index the offsets
+     */
+    private static FieldType type(String field) {
+        return SNIPPET_FIELDS.contains(field) ? SNIPPET_TYPE : DATASET_TYPE;
     }
 
 }
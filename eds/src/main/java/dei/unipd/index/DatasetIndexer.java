@@ -25,15 +25,16 @@ import dei.unipd.parse.ParsedDataset;
 import dei.unipd.parse.StreamRDFParser;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import dei.unipd.utils.Constants;
 import org.apache.lucene.search.*;
 
@@ -45,7 +46,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 
-import dei.unipd.analyze.AnalyzerUtil;
+import dei.unipd.analyze.AnalysisCache;
+import dei.unipd.analyze.LocalNameAnalyzer;
 
 import javax.print.Doc;
 
@@ -114,6 +116,26 @@ public class DatasetIndexer {
      */
     private long bytesCount;
 
+    /**
+     * Cache of the analyzed field values, {@code null} if disabled
+     */
+    private AnalysisCache analysisCache = null;
+
+    /**
+     * The storage profile of the index
+     */
+    private IndexProfile profile = IndexProfile.DEFAULT;
+
+    /**
+     * The merge control of the index writer, {@code null} for the default merges
+     */
+    private MergeControl mergeControl = null;
+
+    /**
+     * The type of the directory of the index
+     */
+    private DirectoryFactory.Type directoryType = DirectoryFactory.getDefaultType();
+
     /**
      * Creates a new indexer
      *
@@ -232,6 +254,61 @@ public class DatasetIndexer {
 
     }
 
+    /**
+     * Sets the cache of the analyzed field values used for the RDF content of the datasets.
+     * The cache must use the same analyzer given to this indexer.
+     *
+     * @param analysisCache the analysis cache, {@code null} to disable it
+     */
+    public void setAnalysisCache(final AnalysisCache analysisCache) {
+        this.analysisCache = analysisCache;
+    }
+
+    /**
+     * Sets the storage profile of the index: stored fields compression, per-field postings formats, compound file
+     * policy and flush triggers. The profile is recorded in the user data of the commits. It has to be set before
+     * indexing.
+     *
+     * @param profile the storage profile
+     * @throws NullPointerException if the profile is {@code null}.
+     */
+    public void setProfile(final IndexProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("Index profile cannot be null.");
+        }
+        profile.apply(iwc);
+        this.profile = profile;
+    }
+
+    /**
+     * Sets the merge control of the index writer, e.g. to defer or throttle the merges of a bulk load and force merge
+     * the index at the end. It has to be set before indexing.
+     *
+     * @param mergeControl the merge control
+     * @throws NullPointerException if the merge control is {@code null}.
+     */
+    public void setMergeControl(final MergeControl mergeControl) {
+        if (mergeControl == null) {
+            throw new NullPointerException("Merge control cannot be null.");
+        }
+        mergeControl.apply(iwc);
+        this.mergeControl = mergeControl;
+    }
+
+    /**
+     * Sets the type of the directory of the index, e.g. {@link DirectoryFactory.Type#MEMORY} to build the index
+     * in memory without writing the disk. The default is {@link DirectoryFactory#getDefaultType()}.
+     *
+     * @param directoryType the type of directory
+     * @throws NullPointerException if the type is {@code null}.
+     */
+    public void setDirectoryType(final DirectoryFactory.Type directoryType) {
+        if (directoryType == null) {
+            throw new NullPointerException("Directory type cannot be null.");
+        }
+        this.directoryType = directoryType;
+    }
+
     /**
      * This method index a single field read in the json file by considering the different types
      * of fields that must be indexed in the document
@@ -248,6 +325,8 @@ public class DatasetIndexer {
             if (Objects.equals(name, "dataset_id")) {
                 String id = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.ID, id));
+                //columnar copy of the id, used by the searcher to resolve the hits without loading the stored fields
+                document.add(new SortedDocValuesField(ParsedDataset.FIELDS.ID, new BytesRef(id)));
             } else if (Objects.equals(name, "title")) {
                 String title = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.TITLE, title));
@@ -257,12 +336,17 @@ public class DatasetIndexer {
             } else if (Objects.equals(name, "author")) {
                 String author = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.AUTHOR, author));
+                //columnar copy of the author, counted by the facets of the searcher
+                if (!author.isBlank())
+                    document.add(new SortedSetDocValuesField(ParsedDataset.FIELDS.AUTHOR, new BytesRef(author.strip())));
             } else if (Objects.equals(name, "tags")) {
                 //the tag are splitted and indexed
                 String tags = reader.nextString();
                 String[] tagsArray = tags.split(";");
                 for (String tag : tagsArray) {
                     document.add(new DatasetField(ParsedDataset.FIELDS.TAGS, tag));
+                    if (!tag.isBlank())
+                        document.add(new SortedSetDocValuesField(ParsedDataset.FIELDS.TAGS, new BytesRef(tag.strip())));
                 }
             } else {
                 return false;
@@ -352,17 +436,17 @@ public class DatasetIndexer {
 
                             //check for possible null values in the triple
                             if(triple.getSubject().getValue() != null)
-                                document.add(new DatasetField(triple.getSubject().getKey(), triple.getSubject().getValue()));
+                                document.add(new DatasetField(triple.getSubject().getKey(), triple.getSubject().getValue(), analysisCache));
                             else
                                 document.add(new DatasetField(triple.getSubject().getKey(), ""));
 
                             if(triple.getPredicate() == null)
                                 document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, ""));
                             else
-                                document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, triple.getPredicate()));
+                                document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, triple.getPredicate(), analysisCache));
 
                             if(triple.getObject().getValue() != null)
-                                document.add(new DatasetField(triple.getObject().getKey(), triple.getObject().getValue()));
+                                document.add(new DatasetField(triple.getObject().getKey(), triple.getObject().getValue(), analysisCache));
                             else
                                 document.add(new DatasetField(triple.getObject().getKey(), ""));
 
@@ -417,7 +501,7 @@ public class DatasetIndexer {
                             reader.beginArray();
                             while ((jsonToken = reader.peek()) != JsonToken.END_ARRAY) {
                                 if (jsonToken == JsonToken.STRING) {
-                                    document.add(new DatasetField(ParsedDataset.FIELDS.CLASSES, reader.nextString()));
+                                    document.add(new DatasetField(ParsedDataset.FIELDS.CLASSES, reader.nextString(), analysisCache));
                                 }
                             }
                             reader.endArray();
@@ -426,7 +510,7 @@ public class DatasetIndexer {
                             reader.beginArray();
                             while ((jsonToken = reader.peek()) != JsonToken.END_ARRAY) {
                                 if (jsonToken == JsonToken.STRING) {
-                                    document.add(new DatasetField(ParsedDataset.FIELDS.ENTITIES, reader.nextString()));
+                                    document.add(new DatasetField(ParsedDataset.FIELDS.ENTITIES, reader.nextString(), analysisCache));
                                 }
                             }
                             reader.endArray();
@@ -435,7 +519,7 @@ public class DatasetIndexer {
                             reader.beginArray();
                             while ((jsonToken = reader.peek()) != JsonToken.END_ARRAY) {
                                 if (jsonToken == JsonToken.STRING) {
-                                    document.add(new DatasetField(ParsedDataset.FIELDS.LITERALS, reader.nextString()));
+                                    document.add(new DatasetField(ParsedDataset.FIELDS.LITERALS, reader.nextString(), analysisCache));
                                 }
                             }
                             reader.endArray();
@@ -444,7 +528,7 @@ public class DatasetIndexer {
                             reader.beginArray();
                             while ((jsonToken = reader.peek()) != JsonToken.END_ARRAY) {
                                 if (jsonToken == JsonToken.STRING) {
-                                    document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, reader.nextString()));
+                                    document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, reader.nextString(), analysisCache));
                                 }
                             }
                             reader.endArray();
@@ -458,6 +542,10 @@ public class DatasetIndexer {
             }
         }
 
+        //the indexable status is a doc value too, counted by the facets of the searcher
+        document.add(new NumericDocValuesField(ParsedDataset.FIELDS.INDEXABLE,
+                ParsedDataset.indexableStatus(indexableFiles, files.length-1)));
+
         updateJSONFIle(dataset_json_path, indexableFiles, files.length-1);
 
         return errors;
@@ -490,12 +578,7 @@ public class DatasetIndexer {
 
         //get the JsonObject to udpate
         JsonObject object = json.getAsJsonObject();
-        if (indexableFiles == 0)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.EMPTY);
-        else if (indexableFiles > 0 && indexableFiles < totalFiles)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.PARTIAL);
-        else if (indexableFiles == totalFiles)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.FULL);
+        object.addProperty("indexable-jena", ParsedDataset.indexableStatus(indexableFiles, totalFiles));
 
         //write the json for updating the dataset.json file
         FileWriter file;
@@ -518,7 +601,8 @@ public class DatasetIndexer {
 
         //intialize the IndexWriter Object
         try {
-            writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
+            writer = new IndexWriter(DirectoryFactory.open(directoryType, indexDir), iwc);
+            profile.record(writer);
         } catch (IOException e) {
             throw new IllegalArgumentException(String.format("Unable to create the index writer in directory %s: %s.", indexDir.toAbsolutePath().toString(), e.getMessage()), e);
         }
@@ -543,11 +627,17 @@ public class DatasetIndexer {
                 Document document = new Document();     //Lucene Document
                 File[] files = directory.listFiles();
 
-                //prepare the Lucene document for the dataset
-                errors = createDatasetDocument(directory, files, document, logFile, errors);
-
-                //we can index the dataset
-                writer.addDocument(document); //index the document
+                try {
+                    //prepare the Lucene document for the dataset
+                    errors = createDatasetDocument(directory, files, document, logFile, errors);
+
+                    //we can index the dataset
+                    writer.addDocument(document); //index the document
+                } finally {
+                    //the values of the dataset are released even if the dataset could not be indexed
+                    if (analysisCache != null)
+                        analysisCache.endDataset();
+                }
 
                 datasetsCount++;
 
@@ -565,6 +655,10 @@ public class DatasetIndexer {
             }
         }
 
+        //run the deferred or final merges before the last commit
+        if (mergeControl != null)
+            mergeControl.finish(writer);
+
         //indexer commit and resource release
         writer.close();
 
@@ -578,6 +672,9 @@ public class DatasetIndexer {
         System.out.printf("%d document(s) (%d files, %d Mbytes) indexed in %d seconds.%n", datasetsCount, filesCount,
                 bytesCount / MBYTE, (System.currentTimeMillis() - start) / 1000);
 
+        if (analysisCache != null)
+            System.out.println(analysisCache);
+
         System.out.printf("#### Indexing complete ####%n");
     }
 
@@ -594,7 +691,7 @@ public class DatasetIndexer {
         Query searchQuery = new TermQuery(new Term(ParsedDataset.FIELDS.ID , documentID));
         IndexReader indexReader;
         try {
-            indexReader = DirectoryReader.open(FSDirectory.open(indexDir));
+            indexReader = DirectoryReader.open(DirectoryFactory.open(directoryType, indexDir));
         } catch (IOException e) {
             throw new IllegalArgumentException(String.format("Unable to create the index reader for directory %s: %s.",
                     indexDir.toAbsolutePath(), e.getMessage()), e);
@@ -691,7 +788,8 @@ public class DatasetIndexer {
 
         //intialize the IndexWriter Object
         try {
-            writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
+            writer = new IndexWriter(DirectoryFactory.open(directoryType, indexDir), iwc);
+            profile.record(writer);
         } catch (IOException e) {
             throw new IllegalArgumentException(String.format("Unable to create the index writer in directory %s: %s.", indexDir.toAbsolutePath().toString(), e.getMessage()), e);
         }
@@ -747,13 +845,13 @@ public class DatasetIndexer {
         final int expectedDatasets = 4;
         final String charsetName = "ISO-8859-1";
 
-        CharArraySet cas = AnalyzerUtil.loadStopList("/home/manuel/Tesi/EDS/EDS/eds/src/main/resources/stoplists/nltk-stopwords.txt");
-        final Analyzer a = new StandardAnalyzer(cas);
+        final Analyzer a = LocalNameAnalyzer.forIndex();
 
         //final Similarity sim = new LMDirichletSimilarity(1800);
 
         DatasetIndexer i = new DatasetIndexer(a, ramBuffer, indexPath, datasetDirectoryPath,
                 charsetName, expectedDatasets);
+        i.setProfile(IndexProfile.DEFAULT);
 
         i.index();
 
@@ -0,0 +1,243 @@
+package dei.unipd.index;
+
+import dei.unipd.index.thread.IndexSetup;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens the directories of the indexes used by {@link DatasetIndexer}, {@link IndexSetup} and the searchers.
+ * <p>
+ * The kind of directory is chosen with a {@link Type}:
+ * <ul>
+ *     <li>{@link Type#FS}: the choice of Lucene, a memory mapped directory on 64 bit platforms;</li>
+ *     <li>{@link Type#MMAP}: a memory mapped directory, the index files are read through the page cache without
+ *     copies;</li>
+ *     <li>{@link Type#NIOFS}: positional reads of the index files, no address space is mapped;</li>
+ *     <li>{@link Type#MEMORY}: the whole index lives in the heap and the disk is never written;</li>
+ *     <li>{@link Type#NRT_CACHING}: the small segments, i.e. the ones flushed or merged while indexing, are kept in
+ *     the heap until they are committed, the large ones are written to the disk.</li>
+ * </ul>
+ * An in-memory index is shared by everything that opens the same path in the same JVM, so an index built by an
+ * indexer can be searched without ever touching the disk; if the path already contains an index the first open copies
+ * it into memory. An in-memory index lives until it is {@linkplain #release(Path) released}.
+ * <p>
+ * The type used when none is set is read from the {@code eds.directory} system property, {@link Type#FS} if missing,
+ * and can be changed with {@link #setDefaultType(Type)}, e.g. to run a whole test on in-memory indexes.
+ * <p>
+ * The types of directory are compared by {@link dei.unipd.search.DirectoryBenchmark}.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class DirectoryFactory {
+
+    /**
+     * Maximum size, in megabytes, of a flushed or merged segment kept in memory by {@link Type#NRT_CACHING}
+     */
+    public static final double NRT_MAX_MERGE_SIZE_MB = 5;
+
+    /**
+     * Maximum size, in megabytes, of all the segments kept in memory by {@link Type#NRT_CACHING}
+     */
+    public static final double NRT_MAX_CACHED_MB = 60;
+
+    /**
+     * The kinds of directory
+     */
+    public enum Type {
+        /**
+         * The directory chosen by Lucene for the platform
+         */
+        FS,
+        /**
+         * Memory mapped directory
+         */
+        MMAP,
+        /**
+         * Directory with positional reads
+         */
+        NIOFS,
+        /**
+         * Directory in the heap
+         */
+        MEMORY,
+        /**
+         * Small segments in the heap, large segments on the disk
+         */
+        NRT_CACHING;
+
+        /**
+         * Returns the type of directory with the given name, e.g. {@code mmap} or {@code nrt-caching}
+         *
+         * @param name the name of the type, case insensitive
+         * @return the type of directory
+         * @throws NullPointerException     if the name is {@code null}.
+         * @throws IllegalArgumentException if there is no type with the given name.
+         */
+        public static Type forName(final String name) {
+
+            if (name == null) {
+                throw new NullPointerException("Directory type cannot be null.");
+            }
+
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Unknown directory type %s, expected one of %s.",
+                        name, Arrays.toString(values())), e);
+            }
+        }
+    }
+
+    /**
+     * The in-memory indexes, by path
+     */
+    private static final Map<Path, ByteBuffersDirectory> MEMORY_INDEXES = new ConcurrentHashMap<>();
+
+    /**
+     * The type used when none is set
+     */
+    private static volatile Type defaultType = Type.forName(System.getProperty("eds.directory", Type.FS.name()));
+
+    private DirectoryFactory() {
+    }
+
+    /**
+     * @return the type of directory used when none is set
+     */
+    public static Type getDefaultType() {
+        return defaultType;
+    }
+
+    /**
+     * Sets the type of directory used when none is set
+     *
+     * @param type the type of directory
+     * @throws NullPointerException if the type is {@code null}.
+     */
+    public static void setDefaultType(final Type type) {
+        if (type == null) {
+            throw new NullPointerException("Directory type cannot be null.");
+        }
+        defaultType = type;
+    }
+
+    /**
+     * Opens the directory of an index with the default type
+     *
+     * @param indexDir the path of the index
+     * @return the directory
+     * @throws IOException if the directory cannot be opened.
+     */
+    public static Directory open(final Path indexDir) throws IOException {
+        return open(defaultType, indexDir);
+    }
+
+    /**
+     * Opens the directory of an index
+     *
+     * @param type     the type of directory
+     * @param indexDir the path of the index
+     * @return the directory
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     * @throws IOException          if the directory cannot be opened.
+     */
+    public static Directory open(final Type type, final Path indexDir) throws IOException {
+
+        if (type == null) {
+            throw new NullPointerException("Directory type cannot be null.");
+        }
+
+        if (indexDir == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        return switch (type) {
+            case FS -> FSDirectory.open(indexDir);
+            case MMAP -> new MMapDirectory(indexDir);
+            case NIOFS -> new NIOFSDirectory(indexDir);
+            case MEMORY -> openMemory(indexDir);
+            case NRT_CACHING -> new NRTCachingDirectory(FSDirectory.open(indexDir), NRT_MAX_MERGE_SIZE_MB,
+                    NRT_MAX_CACHED_MB);
+        };
+    }
+
+    /**
+     * Returns the in-memory index of a path, copying the index on the disk, if any, the first time
+     */
+    private static Directory openMemory(Path indexDir) throws IOException {
+
+        final Path key = indexDir.toAbsolutePath().normalize();
+        ByteBuffersDirectory dir = MEMORY_INDEXES.get(key);
+        if (dir == null) {
+            synchronized (MEMORY_INDEXES) {
+                dir = MEMORY_INDEXES.get(key);
+                if (dir == null) {
+                    dir = new ByteBuffersDirectory();
+                    if (Files.isDirectory(key)) {
+                        load(key, dir);
+                    }
+                    MEMORY_INDEXES.put(key, dir);
+                }
+            }
+        }
+
+        //the in-memory index is shared, closing one of its users must not drop it
+        return new FilterDirectory(dir) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Copies the index on the disk into an in-memory directory
+     */
+    private static void load(Path indexDir, ByteBuffersDirectory dir) throws IOException {
+        try (FSDirectory disk = FSDirectory.open(indexDir)) {
+            if (!DirectoryReader.indexExists(disk)) {
+                return;
+            }
+
+            final long start = System.currentTimeMillis();
+            long bytes = 0;
+            for (String file : disk.listAll()) {
+                if (!file.equals(IndexWriter.WRITE_LOCK_NAME)) {
+                    dir.copyFrom(disk, file, file, IOContext.READONCE);
+                    bytes += disk.fileLength(file);
+                }
+            }
+            System.out.printf("Index %s loaded in memory: %d MB in %d ms%n", indexDir, bytes / (1024 * 1024),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Drops the in-memory index of a path, if any
+     *
+     * @param indexDir the path of the index
+     * @return true if there was an in-memory index for the path
+     * @throws IOException if the in-memory index cannot be closed.
+     */
+    public static boolean release(final Path indexDir) throws IOException {
+
+        if (indexDir == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        final ByteBuffersDirectory dir = MEMORY_INDEXES.remove(indexDir.toAbsolutePath().normalize());
+        if (dir == null) {
+            return false;
+        }
+        dir.close();
+        return true;
+    }
+}
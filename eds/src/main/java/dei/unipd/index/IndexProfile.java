@@ -0,0 +1,354 @@
+package dei.unipd.index;
+
+import dei.unipd.parse.ParsedDataset;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene90.Lucene90Codec;
+import org.apache.lucene.codecs.memory.FSTPostingsFormat;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A named storage profile of the dataset index: it picks how the index trades disk space for search latency and
+ * how much memory the indexing uses.
+ * <p>
+ * A profile sets the compression of the stored fields, the postings format of some fields, the compound file policy
+ * and when the in-memory segment is flushed. It is applied to the configuration of the index writer (see
+ * {@link #apply(IndexWriterConfig)}) and recorded in the user data of every commit (see {@link #record(IndexWriter)}),
+ * so the profile an index was built with can be read back with {@link #recorded(Directory)}.
+ * <p>
+ * All the profiles write indexes readable with the default codec: the stored fields mode is recorded in the
+ * segments and the per-field postings formats are looked up by the name recorded in the segments, so the formats
+ * of {@code lucene-codecs} only need that module on the class path of the readers.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class IndexProfile {
+
+    /**
+     * Key of the profile name in the commit user data
+     */
+    public static final String COMMIT_PROFILE = "profile";
+
+    /**
+     * Key of the stored fields mode in the commit user data
+     */
+    public static final String COMMIT_STORED_FIELDS = "profile.stored_fields";
+
+    /**
+     * Key of the compound file policy in the commit user data
+     */
+    public static final String COMMIT_COMPOUND_FILES = "profile.compound_files";
+
+    /**
+     * Key of the RAM buffer in the commit user data
+     */
+    public static final String COMMIT_RAM_BUFFER = "profile.ram_buffer_mb";
+
+    /**
+     * Key of the maximum number of buffered documents in the commit user data
+     */
+    public static final String COMMIT_MAX_BUFFERED_DOCS = "profile.max_buffered_docs";
+
+    /**
+     * Key of the per-field postings formats in the commit user data
+     */
+    public static final String COMMIT_POSTINGS = "profile.postings";
+
+    /**
+     * When the segments are written as compound files
+     */
+    public enum CompoundFiles {
+        /**
+         * Every segment is a compound file: fewest open files, one more indirection when reading
+         */
+        ALWAYS(1.0),
+        /**
+         * Only flushed segments and merged segments smaller than a tenth of the index are compound files
+         */
+        SMALL_SEGMENTS(0.1),
+        /**
+         * No segment is a compound file: every file of a segment is opened (and mapped) on its own
+         */
+        NEVER(0.0);
+
+        /**
+         * The maximum size of a merged compound segment, relative to the index
+         */
+        private final double noCFSRatio;
+
+        CompoundFiles(double noCFSRatio) {
+            this.noCFSRatio = noCFSRatio;
+        }
+    }
+
+    /**
+     * The current setup of the indexers: fast stored fields, compound files for the small segments only (the
+     * default ratio of the merge policy) and default postings. The RAM buffer given to the indexer is kept.
+     */
+    public static final IndexProfile DEFAULT = new IndexProfile("default", Lucene90Codec.Mode.BEST_SPEED,
+            Map.of(), CompoundFiles.SMALL_SEGMENTS, IndexWriterConfig.DISABLE_AUTO_FLUSH, IndexWriterConfig.DISABLE_AUTO_FLUSH);
+
+    /**
+     * Low search latency: fast stored fields, no compound files and the whole term dictionary of the dataset
+     * identifiers held in memory as an FST, so that looking up an identifier does not read the terms index and the
+     * term blocks from disk. Large RAM buffer, so fewer segments are flushed.
+     */
+    public static final IndexProfile LATENCY = new IndexProfile("latency", Lucene90Codec.Mode.BEST_SPEED,
+            Map.of(ParsedDataset.FIELDS.ID, new FSTPostingsFormat()), CompoundFiles.NEVER, 1024,
+            IndexWriterConfig.DISABLE_AUTO_FLUSH);
+
+    /**
+     * Small index: best compression of the stored fields (the literals of a dataset can take megabytes) and
+     * compound files
+     */
+    public static final IndexProfile COMPACT = new IndexProfile("compact", Lucene90Codec.Mode.BEST_COMPRESSION,
+            Map.of(), CompoundFiles.ALWAYS, 512, IndexWriterConfig.DISABLE_AUTO_FLUSH);
+
+    /**
+     * Indexing on small machines: small RAM buffer, flushed also after a fixed number of datasets, since a single
+     * dataset can fill the buffer
+     */
+    public static final IndexProfile LOW_MEMORY = new IndexProfile("low-memory", Lucene90Codec.Mode.BEST_COMPRESSION,
+            Map.of(), CompoundFiles.SMALL_SEGMENTS, 64, 500);
+
+    /**
+     * The predefined profiles, by name
+     */
+    private static final Map<String, IndexProfile> PROFILES = new LinkedHashMap<>();
+
+    static {
+        for (IndexProfile p : List.of(DEFAULT, LATENCY, COMPACT, LOW_MEMORY)) {
+            PROFILES.put(p.name, p);
+        }
+    }
+
+    /**
+     * The name of the profile
+     */
+    private final String name;
+
+    /**
+     * The compression of the stored fields
+     */
+    private final Lucene90Codec.Mode storedFields;
+
+    /**
+     * The postings formats of the fields that do not use the default one
+     */
+    private final SortedMap<String, PostingsFormat> postings;
+
+    /**
+     * The compound file policy
+     */
+    private final CompoundFiles compoundFiles;
+
+    /**
+     * The size of the RAM buffer in megabytes, {@link IndexWriterConfig#DISABLE_AUTO_FLUSH} to keep the one of the
+     * indexer
+     */
+    private final double ramBufferSizeMB;
+
+    /**
+     * The number of buffered documents that triggers a flush, {@link IndexWriterConfig#DISABLE_AUTO_FLUSH} to flush
+     * only by RAM usage
+     */
+    private final int maxBufferedDocs;
+
+    /**
+     * Creates a new profile
+     *
+     * @param name            the name of the profile
+     * @param storedFields    the compression of the stored fields
+     * @param postings        the postings formats of the fields that do not use the default one
+     * @param compoundFiles   the compound file policy
+     * @param ramBufferSizeMB the size of the RAM buffer in megabytes, {@link IndexWriterConfig#DISABLE_AUTO_FLUSH} to
+     *                        keep the one of the indexer
+     * @param maxBufferedDocs the number of buffered documents that triggers a flush,
+     *                        {@link IndexWriterConfig#DISABLE_AUTO_FLUSH} to flush only by RAM usage
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public IndexProfile(final String name, final Lucene90Codec.Mode storedFields,
+                        final Map<String, PostingsFormat> postings, final CompoundFiles compoundFiles,
+                        final double ramBufferSizeMB, final int maxBufferedDocs) {
+
+        if (name == null) {
+            throw new NullPointerException("Profile name cannot be null.");
+        }
+
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Profile name cannot be empty.");
+        }
+
+        if (storedFields == null) {
+            throw new NullPointerException("Stored fields mode cannot be null.");
+        }
+
+        if (postings == null) {
+            throw new NullPointerException("Postings formats cannot be null.");
+        }
+
+        if (compoundFiles == null) {
+            throw new NullPointerException("Compound file policy cannot be null.");
+        }
+
+        if (ramBufferSizeMB <= 0 && ramBufferSizeMB != IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("RAM buffer size cannot be less than or equal to zero.");
+        }
+
+        if (maxBufferedDocs < 2 && maxBufferedDocs != IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("The maximum number of buffered documents cannot be less than two.");
+        }
+
+        this.name = name;
+        this.storedFields = storedFields;
+        this.postings = Collections.unmodifiableSortedMap(new TreeMap<>(postings));
+        this.compoundFiles = compoundFiles;
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.maxBufferedDocs = maxBufferedDocs;
+    }
+
+    /**
+     * Returns a predefined profile
+     *
+     * @param name the name of the profile: {@code default}, {@code latency}, {@code compact} or {@code low-memory}
+     * @return the profile
+     * @throws IllegalArgumentException if there is no profile with the given name.
+     */
+    public static IndexProfile forName(final String name) {
+        final IndexProfile p = PROFILES.get(name);
+        if (p == null) {
+            throw new IllegalArgumentException(String.format("Unknown index profile %s, expected one of %s.", name,
+                    PROFILES.keySet()));
+        }
+        return p;
+    }
+
+    /**
+     * Applies the profile to the configuration of an index writer, before the writer is created. The compound file
+     * policy is applied to the merge policy of the configuration, so a merge policy set later has to keep it (as
+     * {@link MergeControl} does).
+     *
+     * @param iwc the configuration of the index writer
+     */
+    public void apply(final IndexWriterConfig iwc) {
+
+        if (iwc == null) {
+            throw new NullPointerException("Index writer configuration cannot be null.");
+        }
+
+        iwc.setCodec(codec());
+        iwc.setUseCompoundFile(compoundFiles != CompoundFiles.NEVER);
+        final MergePolicy mp = iwc.getMergePolicy();
+        mp.setNoCFSRatio(compoundFiles.noCFSRatio);
+
+        //the flush triggers are set in this order, since at least one of them has to be enabled
+        if (ramBufferSizeMB != IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+        }
+        iwc.setMaxBufferedDocs(maxBufferedDocs);
+    }
+
+    /**
+     * @return the codec of the profile
+     */
+    public Codec codec() {
+        if (postings.isEmpty()) {
+            return new Lucene90Codec(storedFields);
+        }
+        return new Lucene90Codec(storedFields) {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                final PostingsFormat pf = postings.get(field);
+                return pf != null ? pf : super.getPostingsFormatForField(field);
+            }
+        };
+    }
+
+    /**
+     * Records the profile in the user data of the next commits of an index writer
+     *
+     * @param writer the index writer, opened with a configuration the profile was applied to
+     */
+    public void record(final IndexWriter writer) {
+
+        if (writer == null) {
+            throw new NullPointerException("Index writer cannot be null.");
+        }
+
+        final Map<String, String> data = new LinkedHashMap<>();
+        data.put(COMMIT_PROFILE, name);
+        data.put(COMMIT_STORED_FIELDS, storedFields.name());
+        data.put(COMMIT_COMPOUND_FILES, compoundFiles.name());
+        //the actual flush triggers: the RAM buffer of the indexer is kept by some profiles
+        data.put(COMMIT_RAM_BUFFER, String.valueOf(writer.getConfig().getRAMBufferSizeMB()));
+        data.put(COMMIT_MAX_BUFFERED_DOCS, String.valueOf(maxBufferedDocs));
+        final StringJoiner sj = new StringJoiner(",");
+        postings.forEach((field, pf) -> sj.add(field + "=" + pf));
+        data.put(COMMIT_POSTINGS, sj.toString());
+
+        writer.setLiveCommitData(data.entrySet());
+    }
+
+    /**
+     * Reads the profile recorded in the last commit of an index
+     *
+     * @param directory the directory of the index
+     * @return the profile entries of the commit user data, empty if the index was built without a profile
+     * @throws IOException if the commit cannot be read.
+     */
+    public static Map<String, String> recorded(final Directory directory) throws IOException {
+
+        if (directory == null) {
+            throw new NullPointerException("Directory cannot be null.");
+        }
+
+        final Map<String, String> data = new LinkedHashMap<>();
+        SegmentInfos.readLatestCommit(directory).getUserData().forEach((k, v) -> {
+            if (k.equals(COMMIT_PROFILE) || k.startsWith(COMMIT_PROFILE + ".")) {
+                data.put(k, v);
+            }
+        });
+        return data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Lucene90Codec.Mode getStoredFields() {
+        return storedFields;
+    }
+
+    public SortedMap<String, PostingsFormat> getPostings() {
+        return postings;
+    }
+
+    public CompoundFiles getCompoundFiles() {
+        return compoundFiles;
+    }
+
+    public double getRAMBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    public int getMaxBufferedDocs() {
+        return maxBufferedDocs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IndexProfile[name=%s, stored fields=%s, postings=%s, compound files=%s, RAM buffer=%s MB, max buffered docs=%d]",
+                name, storedFields, postings, compoundFiles,
+                ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH ? "indexer" : ramBufferSizeMB, maxBufferedDocs);
+    }
+}
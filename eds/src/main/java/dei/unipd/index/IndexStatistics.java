@@ -0,0 +1,709 @@
+package dei.unipd.index;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.codecs.CompoundDirectory;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.SmallFloat;
+import org.apache.lucene.util.UnicodeUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * Size and term statistics of the index, per segment and per field, written as JSON.
+ * <p>
+ * For every segment the report gives the size of its files, grouped by kind (terms dictionary, postings, positions,
+ * stored fields, term vectors, norms, doc values...). For every field, in every segment and in the whole index, it
+ * gives:
+ * <ul>
+ *     <li>the bytes of the terms dictionary, of the postings lists and of the positions, offsets and payloads,
+ *     measured by reading all the terms and postings of the field and counting the bytes read from each file;</li>
+ *     <li>the bytes of the norms and of the doc values, measured in the same way;</li>
+ *     <li>the bytes of the stored fields and of the term vectors: they are compressed in blocks shared by all the
+ *     fields, so the size of the files is split among the fields in proportion to their uncompressed size;</li>
+ *     <li>the number of unique terms, the sum of the document and term frequencies, the distribution of the
+ *     document frequencies of the terms (in power of two buckets) and the average field length encoded in the
+ *     norms.</li>
+ * </ul>
+ * The report reads the whole index, so it takes about as long as a full scan of the index files.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class IndexStatistics {
+
+    /**
+     * The kinds of index files
+     */
+    enum FileKind {
+        TERMS("terms", "tim", "tip", "tmd"),
+        DOCS("docs", "doc"),
+        POSITIONS("positions", "pos"),
+        OFFSETS_PAYLOADS("offsets_payloads", "pay"),
+        STORED("stored_fields", "fdt", "fdx", "fdm"),
+        VECTORS("term_vectors", "tvd", "tvx", "tvm"),
+        NORMS("norms", "nvd", "nvm"),
+        DOC_VALUES("doc_values", "dvd", "dvm"),
+        POINTS("points", "kdd", "kdi", "kdm"),
+        OTHER("other");
+
+        /**
+         * The name of the kind in the report
+         */
+        private final String label;
+
+        /**
+         * The extensions of the files of this kind
+         */
+        private final Set<String> extensions;
+
+        FileKind(String label, String... extensions) {
+            this.label = label;
+            this.extensions = Set.of(extensions);
+        }
+
+        /**
+         * @return the kind of a file
+         */
+        static FileKind of(String fileName) {
+            final String ext = IndexFileNames.getExtension(fileName);
+            for (FileKind k : values()) {
+                if (ext != null && k.extensions.contains(ext)) {
+                    return k;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * The directory of the index
+     */
+    private final Path indexDir;
+
+    /**
+     * Bytes read from the index files since the last reset, by kind of file
+     */
+    private final long[] bytesRead = new long[FileKind.values().length];
+
+    /**
+     * Creates a new statistics report
+     *
+     * @param indexPath the directory of the index
+     * @throws NullPointerException     if the index path is {@code null}.
+     * @throws IllegalArgumentException if the index directory cannot be read.
+     */
+    public IndexStatistics(final String indexPath) {
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (indexPath.isEmpty()) {
+            throw new IllegalArgumentException("Index path cannot be empty.");
+        }
+
+        indexDir = Paths.get(indexPath);
+
+        if (!Files.isReadable(indexDir)) {
+            throw new IllegalArgumentException(String.format("Index directory %s cannot be read.", indexDir.toAbsolutePath()));
+        }
+
+        if (!Files.isDirectory(indexDir)) {
+            throw new IllegalArgumentException(String.format("%s expected to be a directory of an index.", indexDir.toAbsolutePath()));
+        }
+    }
+
+    /**
+     * Computes the statistics of the index
+     *
+     * @return the report
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public JsonObject report() throws IOException {
+
+        final long start = System.currentTimeMillis();
+
+        final JsonObject report = new JsonObject();
+        report.addProperty("index", indexDir.toAbsolutePath().toString());
+
+        try (Directory dir = FSDirectory.open(indexDir);
+             DirectoryReader reader = DirectoryReader.open(new TrackingDirectory(dir))) {
+
+            final SegmentInfos infos = SegmentInfos.readLatestCommit(dir);
+            report.addProperty("generation", infos.getGeneration());
+            report.add("commit_data", toJson(infos.getUserData()));
+            report.addProperty("segments", reader.leaves().size());
+            report.addProperty("docs", reader.numDocs());
+            report.addProperty("deleted_docs", reader.numDeletedDocs());
+
+            final long[] indexFiles = new long[FileKind.values().length];
+            indexFiles[FileKind.OTHER.ordinal()] += dir.fileLength(infos.getSegmentsFileName());
+            final Map<String, FieldStats> indexFields = new TreeMap<>();
+            final JsonArray segments = new JsonArray();
+
+            for (LeafReaderContext ctx : reader.leaves()) {
+                final SegmentReader segment = (SegmentReader) FilterLeafReader.unwrap(ctx.reader());
+                final long[] files = fileSizes(dir, segment.getSegmentInfo());
+                final Map<String, FieldStats> fields = fieldStats(segment, files);
+
+                for (int k = 0; k < files.length; k++) {
+                    indexFiles[k] += files[k];
+                }
+                fields.forEach((name, stats) -> indexFields.computeIfAbsent(name, f -> new FieldStats()).add(stats));
+
+                final JsonObject s = new JsonObject();
+                s.addProperty("name", segment.getSegmentName());
+                s.addProperty("docs", segment.numDocs());
+                s.addProperty("deleted_docs", segment.numDeletedDocs());
+                s.addProperty("compound_file", segment.getSegmentInfo().info.getUseCompoundFile());
+                s.addProperty("codec", segment.getSegmentInfo().info.getCodec().getName());
+                s.addProperty("bytes", segment.getSegmentInfo().sizeInBytes());
+                s.add("files", toJson(files));
+                s.add("fields", toJson(fields));
+                segments.add(s);
+            }
+
+            //unique terms and document frequencies of the whole index: a term can be in more segments
+            for (FieldInfo fi : FieldInfos.getMergedFieldInfos(reader)) {
+                final Terms terms = MultiTerms.getTerms(reader, fi.name);
+                if (terms != null) {
+                    final FieldStats stats = indexFields.computeIfAbsent(fi.name, f -> new FieldStats());
+                    stats.uniqueTerms = 0;
+                    Arrays.fill(stats.dfBuckets, 0);
+                    final TermsEnum te = terms.iterator();
+                    while (te.next() != null) {
+                        stats.uniqueTerms++;
+                        stats.dfBuckets[bucket(te.docFreq())]++;
+                    }
+                    stats.docCount = terms.getDocCount();
+                }
+            }
+
+            long total = 0;
+            for (long b : indexFiles) {
+                total += b;
+            }
+            report.addProperty("bytes", total);
+            report.add("files", toJson(indexFiles));
+            report.add("fields", toJson(indexFields));
+            report.add("segment_details", segments);
+        }
+
+        report.addProperty("time_ms", System.currentTimeMillis() - start);
+        return report;
+    }
+
+    /**
+     * Writes the report of the index as JSON
+     *
+     * @param out the writer of the report
+     * @throws IOException if something goes wrong while reading the index or writing the report.
+     */
+    public void write(final Writer out) throws IOException {
+        new GsonBuilder().setPrettyPrinting().create().toJson(report(), out);
+        out.flush();
+    }
+
+    /**
+     * Returns the size of the files of a segment by kind, the files of a compound segment are the ones inside the
+     * compound file
+     */
+    private static long[] fileSizes(Directory dir, SegmentCommitInfo sci) throws IOException {
+
+        final long[] sizes = new long[FileKind.values().length];
+        for (String file : sci.files()) {
+            final String ext = IndexFileNames.getExtension(file);
+            if (sci.info.getUseCompoundFile() && ("cfs".equals(ext) || "cfe".equals(ext))) {
+                continue;
+            }
+            sizes[FileKind.of(file).ordinal()] += dir.fileLength(file);
+        }
+
+        if (sci.info.getUseCompoundFile()) {
+            long inner = 0;
+            try (CompoundDirectory cfs = sci.info.getCodec().compoundFormat().getCompoundReader(dir, sci.info,
+                    IOContext.READONCE)) {
+                for (String file : cfs.listAll()) {
+                    final long length = cfs.fileLength(file);
+                    sizes[FileKind.of(file).ordinal()] += length;
+                    inner += length;
+                }
+            }
+            //headers, footers and table of contents of the compound file
+            for (String file : sci.files()) {
+                final String ext = IndexFileNames.getExtension(file);
+                if ("cfs".equals(ext) || "cfe".equals(ext)) {
+                    sizes[FileKind.OTHER.ordinal()] += dir.fileLength(file);
+                }
+            }
+            sizes[FileKind.OTHER.ordinal()] -= inner;
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Computes the statistics of the fields of a segment
+     *
+     * @param segment the segment, read through a {@link TrackingDirectory}
+     * @param files   the size of the files of the segment by kind
+     */
+    private Map<String, FieldStats> fieldStats(SegmentReader segment, long[] files) throws IOException {
+
+        final Map<String, FieldStats> fields = new TreeMap<>();
+
+        for (FieldInfo fi : segment.getFieldInfos()) {
+            final FieldStats stats = new FieldStats();
+            fields.put(fi.name, stats);
+
+            //terms and postings
+            final Terms terms = segment.terms(fi.name);
+            if (terms != null) {
+                stats.docCount = terms.getDocCount();
+                stats.sumDocFreq = terms.getSumDocFreq();
+                stats.sumTotalTermFreq = terms.getSumTotalTermFreq();
+
+                final int flags = fi.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0
+                        ? PostingsEnum.ALL : PostingsEnum.FREQS;
+                resetBytesRead();
+                final TermsEnum te = terms.iterator();
+                PostingsEnum pe = null;
+                while (te.next() != null) {
+                    stats.uniqueTerms++;
+                    stats.dfBuckets[bucket(te.docFreq())]++;
+                    //deleted documents are kept in the postings, so they are read too
+                    pe = te.postings(pe, flags);
+                    while (pe.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                        if (flags == PostingsEnum.ALL) {
+                            for (int i = pe.freq(); i > 0; i--) {
+                                pe.nextPosition();
+                                pe.startOffset();
+                                pe.getPayload();
+                            }
+                        }
+                    }
+                }
+                stats.bytes[FileKind.TERMS.ordinal()] = bytesRead[FileKind.TERMS.ordinal()];
+                stats.bytes[FileKind.DOCS.ordinal()] = bytesRead[FileKind.DOCS.ordinal()];
+                stats.bytes[FileKind.POSITIONS.ordinal()] = bytesRead[FileKind.POSITIONS.ordinal()];
+                stats.bytes[FileKind.OFFSETS_PAYLOADS.ordinal()] = bytesRead[FileKind.OFFSETS_PAYLOADS.ordinal()];
+            }
+
+            //norms, decoded as field lengths
+            if (fi.hasNorms()) {
+                resetBytesRead();
+                final NumericDocValues norms = segment.getNormValues(fi.name);
+                while (norms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    stats.normsDocs++;
+                    stats.normsLength += SmallFloat.byte4ToInt((byte) norms.longValue());
+                }
+                stats.bytes[FileKind.NORMS.ordinal()] = bytesRead[FileKind.NORMS.ordinal()];
+            }
+
+            //doc values
+            if (fi.getDocValuesType() != DocValuesType.NONE) {
+                resetBytesRead();
+                readDocValues(segment, fi);
+                stats.bytes[FileKind.DOC_VALUES.ordinal()] = bytesRead[FileKind.DOC_VALUES.ordinal()];
+            }
+        }
+
+        //stored fields and term vectors, by uncompressed size
+        final StoredFieldsSize stored = new StoredFieldsSize(fields);
+        for (int doc = 0; doc < segment.maxDoc(); doc++) {
+            segment.document(doc, stored);
+
+            final Fields vectors = segment.getTermVectors(doc);
+            if (vectors != null) {
+                for (String field : vectors) {
+                    fields.get(field).vectorsRaw += vectorsSize(vectors.terms(field));
+                }
+            }
+        }
+        share(fields, files[FileKind.STORED.ordinal()], FileKind.STORED, s -> s.storedRaw);
+        share(fields, files[FileKind.VECTORS.ordinal()], FileKind.VECTORS, s -> s.vectorsRaw);
+
+        return fields;
+    }
+
+    /**
+     * Reads all the doc values of a field
+     */
+    private static void readDocValues(LeafReader segment, FieldInfo fi) throws IOException {
+        switch (fi.getDocValuesType()) {
+            case NUMERIC -> {
+                final NumericDocValues dv = segment.getNumericDocValues(fi.name);
+                while (dv.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    dv.longValue();
+                }
+            }
+            case BINARY -> {
+                final BinaryDocValues dv = segment.getBinaryDocValues(fi.name);
+                while (dv.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    dv.binaryValue();
+                }
+            }
+            case SORTED -> {
+                final SortedDocValues dv = segment.getSortedDocValues(fi.name);
+                while (dv.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    dv.ordValue();
+                }
+                final TermsEnum te = dv.termsEnum();
+                while (te.next() != null) ;
+            }
+            case SORTED_NUMERIC -> {
+                final SortedNumericDocValues dv = segment.getSortedNumericDocValues(fi.name);
+                while (dv.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    for (int i = dv.docValueCount(); i > 0; i--) {
+                        dv.nextValue();
+                    }
+                }
+            }
+            case SORTED_SET -> {
+                final SortedSetDocValues dv = segment.getSortedSetDocValues(fi.name);
+                while (dv.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    while (dv.nextOrd() != SortedSetDocValues.NO_MORE_ORDS) ;
+                }
+                final TermsEnum te = dv.termsEnum();
+                while (te.next() != null) ;
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * @return the uncompressed size of the term vector of a field: terms, frequencies and positions
+     */
+    private static long vectorsSize(Terms terms) throws IOException {
+        long size = 0;
+        final TermsEnum te = terms.iterator();
+        while (te.next() != null) {
+            //term bytes, frequency and a byte per position
+            size += te.term().length + 1 + te.totalTermFreq();
+        }
+        return size;
+    }
+
+    /**
+     * Splits the size of files shared by all the fields in proportion to the uncompressed size of the fields
+     */
+    private static void share(Map<String, FieldStats> fields, long bytes, FileKind kind,
+                              ToLongFunction<FieldStats> raw) {
+        long total = 0;
+        for (FieldStats s : fields.values()) {
+            total += raw.applyAsLong(s);
+        }
+        if (total == 0) {
+            return;
+        }
+        for (FieldStats s : fields.values()) {
+            s.bytes[kind.ordinal()] = Math.round((double) bytes * raw.applyAsLong(s) / total);
+        }
+    }
+
+    private void resetBytesRead() {
+        Arrays.fill(bytesRead, 0);
+    }
+
+    /**
+     * @return the bucket of a document frequency: bucket {@code i} holds the frequencies in [2^i, 2^(i+1))
+     */
+    private static int bucket(int docFreq) {
+        return 31 - Integer.numberOfLeadingZeros(docFreq);
+    }
+
+    /**
+     * @return the sizes by kind of file, as a JSON object
+     */
+    private static JsonObject toJson(long[] bytes) {
+        final JsonObject o = new JsonObject();
+        for (FileKind k : FileKind.values()) {
+            o.addProperty(k.label, bytes[k.ordinal()]);
+        }
+        return o;
+    }
+
+    private static JsonObject toJson(Map<String, ?> map) {
+        final JsonObject o = new JsonObject();
+        map.forEach((k, v) -> {
+            if (v instanceof FieldStats s) {
+                o.add(k, s.toJson());
+            } else {
+                o.addProperty(k, String.valueOf(v));
+            }
+        });
+        return o;
+    }
+
+    /**
+     * Statistics of a field, in a segment or in the whole index
+     */
+    private static final class FieldStats {
+
+        /**
+         * Bytes of the field by kind of file
+         */
+        final long[] bytes = new long[FileKind.values().length];
+
+        /**
+         * Number of terms with document frequency in each power of two bucket
+         */
+        final long[] dfBuckets = new long[32];
+
+        long uniqueTerms;
+        long docCount;
+        long sumDocFreq;
+        long sumTotalTermFreq;
+        long normsDocs;
+        long normsLength;
+        long storedRaw;
+        long vectorsRaw;
+
+        /**
+         * Adds the statistics of the field in a segment
+         */
+        void add(FieldStats s) {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] += s.bytes[i];
+            }
+            //the unique terms and their frequencies are recomputed on the whole index
+            docCount += s.docCount;
+            sumDocFreq += s.sumDocFreq;
+            sumTotalTermFreq += s.sumTotalTermFreq;
+            normsDocs += s.normsDocs;
+            normsLength += s.normsLength;
+            storedRaw += s.storedRaw;
+            vectorsRaw += s.vectorsRaw;
+        }
+
+        JsonObject toJson() {
+            final JsonObject o = new JsonObject();
+            long total = 0;
+            for (long b : bytes) {
+                total += b;
+            }
+            o.addProperty("bytes", total);
+            o.addProperty("postings_bytes", bytes[FileKind.TERMS.ordinal()] + bytes[FileKind.DOCS.ordinal()]
+                    + bytes[FileKind.POSITIONS.ordinal()] + bytes[FileKind.OFFSETS_PAYLOADS.ordinal()]);
+            o.add("files", IndexStatistics.toJson(bytes));
+            o.addProperty("stored_uncompressed_bytes", storedRaw);
+            o.addProperty("term_vectors_uncompressed_bytes", vectorsRaw);
+            o.addProperty("unique_terms", uniqueTerms);
+            o.addProperty("doc_count", docCount);
+            o.addProperty("sum_doc_freq", sumDocFreq);
+            o.addProperty("sum_total_term_freq", sumTotalTermFreq);
+
+            final JsonObject df = new JsonObject();
+            for (int i = 0; i < dfBuckets.length; i++) {
+                if (dfBuckets[i] > 0) {
+                    final long low = 1L << i;
+                    final long high = (1L << (i + 1)) - 1;
+                    df.addProperty(low == high ? String.valueOf(low) : low + "-" + high, dfBuckets[i]);
+                }
+            }
+            o.add("doc_freq_distribution", df);
+
+            o.addProperty("norms_docs", normsDocs);
+            o.addProperty("norms_avg_length", normsDocs == 0 ? 0 : (double) normsLength / normsDocs);
+            return o;
+        }
+    }
+
+    /**
+     * Visitor summing the uncompressed size of the stored values of every field
+     */
+    private static final class StoredFieldsSize extends StoredFieldVisitor {
+
+        private final Map<String, FieldStats> fields;
+
+        StoredFieldsSize(Map<String, FieldStats> fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            return Status.YES;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            fields.get(fieldInfo.name).storedRaw += value.length;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            fields.get(fieldInfo.name).storedRaw += UnicodeUtil.calcUTF16toUTF8Length(value, 0, value.length());
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            fields.get(fieldInfo.name).storedRaw += Integer.BYTES;
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            fields.get(fieldInfo.name).storedRaw += Long.BYTES;
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            fields.get(fieldInfo.name).storedRaw += Float.BYTES;
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            fields.get(fieldInfo.name).storedRaw += Double.BYTES;
+        }
+    }
+
+    /**
+     * Directory counting the bytes read from its files by kind of file. The files inside a compound file are
+     * counted by their own kind.
+     */
+    private final class TrackingDirectory extends FilterDirectory {
+
+        TrackingDirectory(Directory in) {
+            super(in);
+        }
+
+        @Override
+        public IndexInput openInput(String name, IOContext context) throws IOException {
+            return new TrackingInput(name, in.openInput(name, context), FileKind.of(name));
+        }
+    }
+
+    /**
+     * Input counting the bytes read
+     */
+    private final class TrackingInput extends IndexInput {
+
+        private final IndexInput in;
+        private final FileKind kind;
+
+        TrackingInput(String description, IndexInput in, FileKind kind) {
+            super(description);
+            this.in = in;
+            this.kind = kind;
+        }
+
+        private void count(long bytes) {
+            bytesRead[kind.ordinal()] += bytes;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            count(1);
+            return in.readByte();
+        }
+
+        @Override
+        public void readBytes(byte[] b, int offset, int len) throws IOException {
+            count(len);
+            in.readBytes(b, offset, len);
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            count(Short.BYTES);
+            return in.readShort();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            count(Integer.BYTES);
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            count(Long.BYTES);
+            return in.readLong();
+        }
+
+        @Override
+        public void readLongs(long[] dst, int offset, int length) throws IOException {
+            count((long) Long.BYTES * length);
+            in.readLongs(dst, offset, length);
+        }
+
+        @Override
+        public void readFloats(float[] dst, int offset, int length) throws IOException {
+            count((long) Float.BYTES * length);
+            in.readFloats(dst, offset, length);
+        }
+
+        @Override
+        public void skipBytes(long numBytes) throws IOException {
+            in.skipBytes(numBytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public long getFilePointer() {
+            return in.getFilePointer();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            in.seek(pos);
+        }
+
+        @Override
+        public long length() {
+            return in.length();
+        }
+
+        @Override
+        public IndexInput clone() {
+            return new TrackingInput(toString(), in.clone(), kind);
+        }
+
+        @Override
+        public IndexInput slice(String sliceDescription, long offset, long length) throws IOException {
+            //the slices of a compound file are named after the file they hold
+            final FileKind sliceKind = FileKind.of(sliceDescription);
+            return new TrackingInput(sliceDescription, in.slice(sliceDescription, offset, length),
+                    sliceKind == FileKind.OTHER ? kind : sliceKind);
+        }
+    }
+
+    /**
+     * Writes the report of an index
+     *
+     * @param args the index directory (default {@link Constants#indexPath}) and the output file (default the
+     *             standard output)
+     * @throws Exception if something goes wrong while reading the index.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String indexPath = args.length > 0 ? args[0] : Constants.indexPath;
+        final IndexStatistics statistics = new IndexStatistics(indexPath);
+
+        if (args.length > 1) {
+            try (Writer out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                statistics.write(out);
+            }
+            System.out.printf("Index statistics written to %s%n", args[1]);
+        } else {
+            final Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            statistics.write(out);
+        }
+    }
+}
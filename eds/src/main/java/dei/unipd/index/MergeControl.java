@@ -0,0 +1,322 @@
+package dei.unipd.index;
+
+import dei.unipd.utils.Constants;
+import org.apache.lucene.index.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controls the merges of the segments while the datasets are indexed.
+ * <p>
+ * With the default settings of the index writer a bulk load merges the flushed segments over and over while it
+ * indexes. A merge control sets the merge policy and the merge scheduler of the index writer for a bulk load:
+ * <ul>
+ *     <li>{@link Mode#THROTTLED}: wider merge tiers, so every byte is rewritten fewer times, and merges throttled
+ *     by the scheduler so they do not compete with the indexing for the disk;</li>
+ *     <li>{@link Mode#DEFERRED}: no merge at all while indexing, the segments are merged once at the end.</li>
+ * </ul>
+ * The merge threads of the scheduler are sized on the disk of the index: a single merge thread on a spinning disk,
+ * where concurrent merges only add seeks, more threads on an SSD.
+ * <p>
+ * At the end of the indexing {@link #finish(IndexWriter)} runs the deferred merges or an optional final force merge
+ * to a target number of segments. The time and the bytes of all the merges are logged.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class MergeControl {
+
+    /**
+     * Merges per tier in throttled mode, the default of the tiered merge policy is 10
+     */
+    public static final int THROTTLED_SEGMENTS_PER_TIER = 30;
+
+    /**
+     * How the segments are merged while indexing
+     */
+    public enum Mode {
+        /**
+         * The default merge policy of the index writer
+         */
+        DEFAULT,
+        /**
+         * Wider merge tiers and throttled merges
+         */
+        THROTTLED,
+        /**
+         * No merge while indexing, the segments are merged at the end
+         */
+        DEFERRED
+    }
+
+    /**
+     * The kind of disk of the index
+     */
+    public enum DiskType {
+        /**
+         * Solid state disk: concurrent merges
+         */
+        SSD,
+        /**
+         * Spinning disk: a single merge thread
+         */
+        HDD;
+
+        /**
+         * Returns the kind of disk of an index directory: {@link Constants#indexPathSSD} is on an SSD,
+         * {@link Constants#indexPath} on a spinning disk. Any other directory is assumed to be on an SSD, as Lucene
+         * does.
+         *
+         * @param indexPath the index directory
+         * @return the kind of disk
+         */
+        public static DiskType of(final String indexPath) {
+            final Path p = Paths.get(indexPath).toAbsolutePath().normalize();
+            if (p.startsWith(Paths.get(Constants.indexPath))) {
+                return HDD;
+            }
+            return SSD;
+        }
+    }
+
+    /**
+     * The merge mode
+     */
+    private final Mode mode;
+
+    /**
+     * The kind of disk of the index
+     */
+    private final DiskType disk;
+
+    /**
+     * Number of segments of the final force merge, 0 if there is no final force merge
+     */
+    private final int finalSegments;
+
+    /**
+     * The merge policy set by {@link #apply(IndexWriterConfig)}
+     */
+    private BulkMergePolicy policy = null;
+
+    /**
+     * The merge scheduler set by {@link #apply(IndexWriterConfig)}
+     */
+    private ConcurrentMergeScheduler scheduler = null;
+
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergeMillis = new AtomicLong();
+    private final AtomicLong mergedDocs = new AtomicLong();
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    /**
+     * Creates a new merge control
+     *
+     * @param mode          the merge mode
+     * @param disk          the kind of disk of the index
+     * @param finalSegments the number of segments of the final force merge, 0 for no final force merge
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the number of segments is negative.
+     */
+    public MergeControl(final Mode mode, final DiskType disk, final int finalSegments) {
+
+        if (mode == null) {
+            throw new NullPointerException("Merge mode cannot be null.");
+        }
+
+        if (disk == null) {
+            throw new NullPointerException("Disk type cannot be null.");
+        }
+
+        if (finalSegments < 0) {
+            throw new IllegalArgumentException("The number of segments of the final merge cannot be negative.");
+        }
+
+        this.mode = mode;
+        this.disk = disk;
+        this.finalSegments = finalSegments;
+    }
+
+    /**
+     * Creates the merge control of a bulk load: merges deferred on a spinning disk, where they are most costly, and
+     * throttled on an SSD
+     *
+     * @param indexPath     the index directory
+     * @param finalSegments the number of segments of the final force merge, 0 for no final force merge
+     * @return the merge control
+     * @throws IllegalArgumentException if the number of segments is negative.
+     */
+    public static MergeControl bulkLoad(final String indexPath, final int finalSegments) {
+        final DiskType disk = DiskType.of(indexPath);
+        return new MergeControl(disk == DiskType.HDD ? Mode.DEFERRED : Mode.THROTTLED, disk, finalSegments);
+    }
+
+    /**
+     * Sets the merge policy and the merge scheduler of the configuration of an index writer, before the writer is
+     * created. The compound file policy of the current merge policy is kept (see {@link IndexProfile}).
+     *
+     * @param iwc the configuration of the index writer
+     */
+    public void apply(final IndexWriterConfig iwc) {
+
+        if (iwc == null) {
+            throw new NullPointerException("Index writer configuration cannot be null.");
+        }
+
+        final TieredMergePolicy tiered = new TieredMergePolicy();
+        tiered.setNoCFSRatio(iwc.getMergePolicy().getNoCFSRatio());
+        if (mode != Mode.DEFAULT) {
+            tiered.setSegmentsPerTier(THROTTLED_SEGMENTS_PER_TIER);
+            tiered.setMaxMergeAtOnce(THROTTLED_SEGMENTS_PER_TIER);
+        }
+        policy = new BulkMergePolicy(tiered, mode == Mode.DEFERRED);
+        iwc.setMergePolicy(policy);
+
+        scheduler = new LoggingMergeScheduler();
+        scheduler.setDefaultMaxMergesAndThreads(disk == DiskType.HDD);
+        //the merges are slowed down while they are not needed to keep up with the indexing
+        scheduler.enableAutoIOThrottle();
+        iwc.setMergeScheduler(scheduler);
+    }
+
+    /**
+     * Ends the bulk load: the deferred merges are run and, if required, the index is force merged. The index writer
+     * waits for the merges.
+     *
+     * @param writer the index writer, created with a configuration this control was applied to
+     * @throws IOException if a merge fails.
+     */
+    public void finish(final IndexWriter writer) throws IOException {
+
+        if (writer == null) {
+            throw new NullPointerException("Index writer cannot be null.");
+        }
+
+        if (policy == null) {
+            throw new IllegalStateException("The merge control was not applied to the index writer.");
+        }
+
+        policy.deferred = false;
+
+        final long start = System.currentTimeMillis();
+        //the buffered datasets are flushed, so that they are merged too
+        writer.flush();
+        if (finalSegments > 0) {
+            System.out.printf("Force merging the index to %d segment(s)%n", finalSegments);
+            writer.forceMerge(finalSegments, true);
+        } else if (mode == Mode.DEFERRED) {
+            System.out.println("Running the deferred merges");
+            writer.maybeMerge();
+        }
+        //wait for the merge threads to log their merges
+        scheduler.sync();
+        System.out.printf("Final merge in %d ms%n", System.currentTimeMillis() - start);
+
+        System.out.println(this);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public DiskType getDisk() {
+        return disk;
+    }
+
+    public int getFinalSegments() {
+        return finalSegments;
+    }
+
+    /**
+     * @return the number of completed merges
+     */
+    public long getMerges() {
+        return merges.get();
+    }
+
+    /**
+     * @return the time spent merging, in milliseconds, summed over the merge threads
+     */
+    public long getMergeMillis() {
+        return mergeMillis.get();
+    }
+
+    /**
+     * @return the bytes of the merged segments
+     */
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    /**
+     * @return the bytes of the segments produced by the merges
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MergeControl[mode=%s, disk=%s, final segments=%d, merges=%d, time=%d ms, docs=%d, read=%d MB, written=%d MB]",
+                mode, disk, finalSegments, merges.get(), mergeMillis.get(), mergedDocs.get(),
+                readBytes.get() / (1024 * 1024), writtenBytes.get() / (1024 * 1024));
+    }
+
+    /**
+     * Merge policy that can hold back the natural merges, the forced merges are always run
+     */
+    private static final class BulkMergePolicy extends FilterMergePolicy {
+
+        /**
+         * Whether the natural merges are held back
+         */
+        private volatile boolean deferred;
+
+        BulkMergePolicy(MergePolicy in, boolean deferred) {
+            super(in);
+            this.deferred = deferred;
+        }
+
+        @Override
+        public MergeSpecification findMerges(MergeTrigger trigger, SegmentInfos infos, MergeContext context) throws IOException {
+            return deferred ? null : super.findMerges(trigger, infos, context);
+        }
+
+        @Override
+        public MergeSpecification findFullFlushMerges(MergeTrigger trigger, SegmentInfos infos, MergeContext context) throws IOException {
+            return deferred ? null : super.findFullFlushMerges(trigger, infos, context);
+        }
+    }
+
+    /**
+     * Merge scheduler that logs the time and the bytes of every merge
+     */
+    private final class LoggingMergeScheduler extends ConcurrentMergeScheduler {
+
+        @Override
+        protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+
+            final long start = System.currentTimeMillis();
+            super.doMerge(mergeSource, merge);
+            final long millis = System.currentTimeMillis() - start;
+
+            final long read = merge.totalBytesSize();
+            final SegmentCommitInfo info = merge.getMergeInfo();
+            final long written = info != null && !merge.isAborted() ? info.sizeInBytes() : 0;
+
+            merges.incrementAndGet();
+            mergeMillis.addAndGet(millis);
+            mergedDocs.addAndGet(merge.totalNumDocs());
+            readBytes.addAndGet(read);
+            writtenBytes.addAndGet(written);
+
+            System.out.printf("Merged %d segment(s), %d docs, %d MB into %d MB in %d ms%n", merge.segments.size(),
+                    merge.totalNumDocs(), read / (1024 * 1024), written / (1024 * 1024), millis);
+        }
+    }
+}
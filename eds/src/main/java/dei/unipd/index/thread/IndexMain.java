@@ -1,11 +1,17 @@
 package dei.unipd.index.thread;
 
-import dei.unipd.analyze.AnalyzerUtil;
+import dei.unipd.analyze.LocalNameAnalyzer;
 import dei.unipd.index.DatasetIndexer;
+import dei.unipd.index.IndexProfile;
+import dei.unipd.index.MergeControl;
+import dei.unipd.search.QueryResultCache;
+import dei.unipd.search.SearchService;
 import dei.unipd.utils.Constants;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 
 public class IndexMain {
     public static void main(String[] args){
@@ -17,14 +23,42 @@ public class IndexMain {
         final int expectedDatasets = 4;
         final String charsetName = "UTF-8";
 
-        CharArraySet cas = AnalyzerUtil.loadStopList("/home/manuel/Tesi/EDS/EDS/eds/src/main/resources/stoplists/nltk-stopwords.txt");
-        final Analyzer a = new StandardAnalyzer(cas);
+        final Analyzer a = LocalNameAnalyzer.forIndex();
 
         //final Similarity sim = new LMDirichletSimilarity(1800);
 
         IndexSetup indexSetup = new IndexSetup(a, ramBuffer, indexPath, datasetDirectoryPath,
                 charsetName, expectedDatasets, logFilePath );
 
+        //storage profile of the index: default, latency, compact or low-memory
+        indexSetup.setProfile(IndexProfile.forName("default"));
+
+        //bulk load: merges sized on the disk of the index and commit every 10 minutes instead of after every dataset
+        final boolean bulkLoad = false;
+        //number of segments of the final force merge of the bulk load, 0 to disable it
+        final int finalSegments = 0;
+
+        if (bulkLoad) {
+            indexSetup.enableBulkLoad(MergeControl.bulkLoad(indexPath, finalSegments), 600);
+        }
+
+        //port of a search service over the partially built index (near-real-time mode), -1 to disable it
+        final int servicePort = -1;
+
+        if (servicePort >= 0) {
+            //datasets searchable within 5 seconds, index committed every 10 minutes; the service is stopped at the
+            //end of the indexing, before its searcher
+            indexSetup.enableNearRealTime(5, 0.5, 600, manager -> {
+                try {
+                    SearchService service = new SearchService(a, manager, servicePort, 2, new QueryResultCache(), List.of());
+                    service.start();
+                    return service;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
         indexSetup.setupAndRunIndexing();
 
 
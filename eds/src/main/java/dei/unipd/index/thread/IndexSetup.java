@@ -1,11 +1,18 @@
 package dei.unipd.index.thread;
 
+import dei.unipd.analyze.AnalysisCache;
+import dei.unipd.index.DirectoryFactory;
+import dei.unipd.index.IndexProfile;
+import dei.unipd.index.MergeControl;
 import dei.unipd.utils.Constants;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -16,6 +23,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
 
 /**
  * @author Manuel Barusco
@@ -61,6 +69,56 @@ public class IndexSetup {
      */
     private final String logFilePath;
 
+    /**
+     * Scope of the analysis cache, {@code null} if the cache is disabled
+     */
+    private AnalysisCache.Scope analysisCacheScope;
+
+    /**
+     * Fields for which the analysis cache is enabled
+     */
+    private String[] analysisCacheFields;
+
+    /**
+     * Whether the datasets are made searchable while they are indexed
+     */
+    private boolean nearRealTime;
+
+    /**
+     * Maximum time, in seconds, before an indexed dataset becomes searchable
+     */
+    private double nrtMaxStaleSec;
+
+    /**
+     * Minimum time, in seconds, between two reopens of the near-real-time searcher
+     */
+    private double nrtMinStaleSec;
+
+    /**
+     * Time, in seconds, between two commits in near-real-time or bulk-load mode, 0 to commit after every dataset
+     */
+    private long commitIntervalSec = 0;
+
+    /**
+     * The merge control of the bulk-load mode, {@code null} if the bulk-load mode is disabled
+     */
+    private MergeControl mergeControl;
+
+    /**
+     * Starts the services over the near-real-time searcher manager, {@code null} if nobody searches while indexing
+     */
+    private Function<SearcherManager, ? extends Closeable> nrtListener;
+
+    /**
+     * The storage profile of the index
+     */
+    private IndexProfile profile = IndexProfile.DEFAULT;
+
+    /**
+     * The type of the directory of the index
+     */
+    private DirectoryFactory.Type directoryType = DirectoryFactory.getDefaultType();
+
     /**
      * Creates a new indexing setup by defining the IndexWriterConfig and the paths
      *
@@ -174,6 +232,126 @@ public class IndexSetup {
 
     }
 
+    /**
+     * Sets the storage profile of the index: stored fields compression, per-field postings formats, compound file
+     * policy and flush triggers. The profile is recorded in the user data of the commits.
+     *
+     * @param profile the storage profile
+     * @throws NullPointerException if the profile is {@code null}.
+     */
+    public void setProfile(final IndexProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("Index profile cannot be null.");
+        }
+        profile.apply(iwc);
+        this.profile = profile;
+    }
+
+    /**
+     * Sets the type of the directory of the index, e.g. {@link DirectoryFactory.Type#MEMORY} to build the index
+     * in memory without writing the disk. The default is {@link DirectoryFactory#getDefaultType()}.
+     *
+     * @param directoryType the type of directory
+     * @throws NullPointerException if the type is {@code null}.
+     */
+    public void setDirectoryType(final DirectoryFactory.Type directoryType) {
+        if (directoryType == null) {
+            throw new NullPointerException("Directory type cannot be null.");
+        }
+        this.directoryType = directoryType;
+    }
+
+    /**
+     * Enables the bulk-load mode: the merges are controlled by the given {@link MergeControl}, e.g. deferred or
+     * throttled while indexing and followed by a final force merge, and the index is committed every
+     * {@code commitIntervalSec} seconds (and at the end) instead of after every dataset, since every commit flushes
+     * a new segment to merge.
+     *
+     * @param control           the merge control
+     * @param commitIntervalSec time, in seconds, between two commits
+     * @throws NullPointerException     if the merge control is {@code null}.
+     * @throws IllegalArgumentException if the commit interval is less than or equal to zero.
+     */
+    public void enableBulkLoad(final MergeControl control, final long commitIntervalSec) {
+
+        if (control == null) {
+            throw new NullPointerException("Merge control cannot be null.");
+        }
+
+        if (commitIntervalSec <= 0) {
+            throw new IllegalArgumentException("The commit interval cannot be less than or equal to zero.");
+        }
+
+        control.apply(iwc);
+        this.mergeControl = control;
+        setCommitInterval(commitIntervalSec);
+    }
+
+    /**
+     * Sets the time between two commits, the shortest one is kept if both the near-real-time and the bulk-load
+     * modes are enabled
+     */
+    private void setCommitInterval(long commitIntervalSec) {
+        this.commitIntervalSec = this.commitIntervalSec > 0
+                ? Math.min(this.commitIntervalSec, commitIntervalSec) : commitIntervalSec;
+    }
+
+    /**
+     * Enables the cache of the analyzed field values (see {@link AnalysisCache}) for the given fields.
+     * With {@link AnalysisCache.Scope#DATASET} scope every indexing thread gets its own cache that is cleared after
+     * every dataset, with {@link AnalysisCache.Scope#GLOBAL} scope a single cache is shared by all the threads.
+     *
+     * @param scope  the lifetime of the cached values
+     * @param fields the fields for which the cache is enabled
+     * @throws NullPointerException if the scope is {@code null}.
+     */
+    public void enableAnalysisCache(final AnalysisCache.Scope scope, final String... fields) {
+        if (scope == null) {
+            throw new NullPointerException("Analysis cache scope cannot be null.");
+        }
+        this.analysisCacheScope = scope;
+        this.analysisCacheFields = fields;
+    }
+
+    /**
+     * Enables the near-real-time mode: a {@link SearcherManager} is opened over the index writer and reopened in the
+     * background by a {@link ControlledRealTimeReopenThread}, so the indexed datasets become searchable within
+     * {@code maxStaleSec} seconds, without waiting for the end of the indexing.
+     * <p>
+     * Visibility does not depend on commits anymore: instead of committing after every dataset, the index is
+     * committed every {@code commitIntervalSec} seconds (and at the end), so the durability of a long rebuild can be
+     * traded for indexing speed independently of the staleness of the searcher.
+     * <p>
+     * The searcher manager is passed to the listener as soon as the index writer is open, e.g. to start a
+     * {@link dei.unipd.search.SearchService} over the partial index. When the indexing ends, the service returned by
+     * the listener is closed before the searcher manager, so no request is served by a closed searcher.
+     *
+     * @param maxStaleSec       maximum time, in seconds, before an indexed dataset becomes searchable
+     * @param minStaleSec       minimum time, in seconds, between two reopens when someone waits for a dataset
+     * @param commitIntervalSec time, in seconds, between two commits
+     * @param listener          starts the service over the searcher manager and returns it, {@code null} if not
+     *                          needed
+     * @throws IllegalArgumentException if any of the times is invalid.
+     */
+    public void enableNearRealTime(final double maxStaleSec, final double minStaleSec, final long commitIntervalSec,
+                                   final Function<SearcherManager, ? extends Closeable> listener) {
+
+        if (!(minStaleSec > 0) || maxStaleSec < minStaleSec) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid staleness bounds: minimum %s seconds, maximum %s seconds.", minStaleSec, maxStaleSec));
+        }
+
+        if (commitIntervalSec <= 0) {
+            throw new IllegalArgumentException("The commit interval cannot be less than or equal to zero.");
+        }
+
+        this.nearRealTime = true;
+        this.nrtMaxStaleSec = maxStaleSec;
+        this.nrtMinStaleSec = minStaleSec;
+        setCommitInterval(commitIntervalSec);
+        this.nrtListener = listener;
+    }
+
     /**
      * This method will create the datasets queue and will
      * start all the indexing threads. So it will also allocate all the needed structures.
@@ -195,6 +373,8 @@ public class IndexSetup {
         }
 
         System.out.printf("%n#### Start indexing ####%n");
+        System.out.println(profile);
+        System.out.printf("Directory: %s%n", directoryType);
         final long start = System.currentTimeMillis();
 
         //allocate and start the threads
@@ -213,6 +393,15 @@ public class IndexSetup {
             }
         }
 
+        //run the deferred or final merges before the last commit
+        if (mergeControl != null) {
+            try {
+                mergeControl.finish(info.getIndexWriter());
+            } catch (IOException e) {
+                throw new RuntimeException("Error while merging the index: " + e.getMessage(), e);
+            }
+        }
+
         //close the open resources
         try {
             info.close();
@@ -229,6 +418,9 @@ public class IndexSetup {
         //log of the final stats
 
         System.out.println("Indexed datasets: "+info.getDatasetsCount()+"\nIndexed files: "+info.getFilesCount()+"\nErrors count: "+info.getErrorsCount());
+
+        if (info.sharedAnalysisCache != null)
+            System.out.println(info.sharedAnalysisCache);
     }
 
     /**
@@ -268,6 +460,31 @@ public class IndexSetup {
         private long lastLog;
         private long errorsCount;
 
+        /**
+         * The analysis cache shared by all the threads, {@code null} if the cache is disabled or has dataset scope
+         */
+        private final AnalysisCache sharedAnalysisCache;
+
+        /**
+         * The near-real-time searcher manager, {@code null} if the near-real-time mode is disabled
+         */
+        private final SearcherManager searcherManager;
+
+        /**
+         * The thread reopening the near-real-time searcher, {@code null} if the near-real-time mode is disabled
+         */
+        private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+        /**
+         * The service over the near-real-time searcher, {@code null} if nobody searches while indexing
+         */
+        private final Closeable nrtService;
+
+        /**
+         * Time of the last commit
+         */
+        private long lastCommit;
+
         /**
          * Constructor
          *
@@ -276,13 +493,68 @@ public class IndexSetup {
          * @param logFilePath path to the index log file
          */
         public IndexSharedInfo(Path indexDir, IndexWriterConfig iwc, String logFilePath) throws IOException {
-            indexWriter = new IndexWriter(FSDirectory.open(indexDir), iwc);
+            indexWriter = new IndexWriter(DirectoryFactory.open(directoryType, indexDir), iwc);
+            profile.record(indexWriter);
             filesCount = 0;
             datasetsCount = 0;
             bytesCount = 0;
             lastLog = 0;
             errorsCount = 0;
             logFile = new FileWriter(logFilePath);
+
+            if (analysisCacheScope == AnalysisCache.Scope.GLOBAL)
+                sharedAnalysisCache = new AnalysisCache(iwc.getAnalyzer(), analysisCacheScope, analysisCacheFields);
+            else
+                sharedAnalysisCache = null;
+
+            lastCommit = System.currentTimeMillis();
+
+            if (nearRealTime) {
+                //deletes are applied at every reopen, but they are never written to the index files
+                searcherManager = new SearcherManager(indexWriter, true, false, null);
+                reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, nrtMaxStaleSec,
+                        nrtMinStaleSec);
+                reopenThread.setName("NRT reopen thread");
+                reopenThread.setDaemon(true);
+                reopenThread.start();
+
+                nrtService = nrtListener != null ? nrtListener.apply(searcherManager) : null;
+            } else {
+                searcherManager = null;
+                reopenThread = null;
+                nrtService = null;
+            }
+        }
+
+        /**
+         * Makes an indexed dataset durable. Without the near-real-time and bulk-load modes the index is committed
+         * after every dataset, otherwise only if the commit interval has elapsed since the last commit.
+         *
+         * @throws IOException if the commit fails.
+         */
+        public void datasetIndexed() throws IOException {
+
+            final boolean commit;
+            synchronized (this) {
+                final long now = System.currentTimeMillis();
+                commit = now - lastCommit >= commitIntervalSec * 1000;
+                if (commit)
+                    lastCommit = now;
+            }
+
+            //the index writer is thread-safe, the other threads keep indexing during the commit
+            if (commit)
+                indexWriter.commit();
+        }
+
+        /**
+         * @return the analysis cache that an indexing thread has to use: the shared one for the global scope, a new
+         * one for the dataset scope or {@code null} if the cache is disabled
+         */
+        public AnalysisCache getAnalysisCache() {
+            if (analysisCacheScope == AnalysisCache.Scope.DATASET)
+                return new AnalysisCache(iwc.getAnalyzer(), analysisCacheScope, analysisCacheFields);
+            return sharedAnalysisCache;
         }
 
         /**
@@ -329,9 +601,22 @@ public class IndexSetup {
         }
 
         /**
-         * This method release all the resources: so the IndexWriter and the logFile
+         * This method release all the resources: so the near-real-time service and searcher, the IndexWriter and
+         * the logFile
          */
         public void close() throws IOException {
+            //the service is stopped first, while its searcher manager is still open
+            if (nrtService != null) {
+                try {
+                    nrtService.close();
+                } catch (IOException e) {
+                    System.out.printf("Unable to stop the near-real-time service: %s.%n", e.getMessage());
+                }
+            }
+            if (reopenThread != null) {
+                reopenThread.close();
+                searcherManager.close();
+            }
             indexWriter.close();
             logFile.close();
         }
@@ -5,14 +5,19 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
+import dei.unipd.analyze.AnalysisCache;
 import dei.unipd.index.DatasetField;
 import dei.unipd.parse.ParsedDataset;
 import dei.unipd.parse.StreamRDFParser;
 import dei.unipd.utils.Constants;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -26,6 +31,11 @@ public class IndexerThread extends Thread{
     private IndexWriter indexWriter;
     private IndexSetup.IndexSharedInfo info;
 
+    /**
+     * Cache of the analyzed field values, {@code null} if disabled
+     */
+    private final AnalysisCache analysisCache;
+
     private long datasetsCount;
     private long filesCount;
     private long bytesCount;
@@ -53,6 +63,7 @@ public class IndexerThread extends Thread{
         datasets = datasetsQueue;
         this.indexWriter = info.getIndexWriter();
         this.info = info;
+        this.analysisCache = info.getAnalysisCache();
     }
 
     /**
@@ -71,6 +82,8 @@ public class IndexerThread extends Thread{
             if (Objects.equals(name, "dataset_id")) {
                 String id = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.ID, id));
+                //columnar copy of the id, used by the searcher to resolve the hits without loading the stored fields
+                document.add(new SortedDocValuesField(ParsedDataset.FIELDS.ID, new BytesRef(id)));
             } else if (Objects.equals(name, "title")) {
                 String title = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.TITLE, title));
@@ -80,12 +93,17 @@ public class IndexerThread extends Thread{
             } else if (Objects.equals(name, "author")) {
                 String author = reader.nextString();
                 document.add(new DatasetField(ParsedDataset.FIELDS.AUTHOR, author));
+                //columnar copy of the author, counted by the facets of the searcher
+                if (!author.isBlank())
+                    document.add(new SortedSetDocValuesField(ParsedDataset.FIELDS.AUTHOR, new BytesRef(author.strip())));
             } else if (Objects.equals(name, "tags")) {
                 //the tag are splitted and indexed
                 String tags = reader.nextString();
                 String[] tagsArray = tags.split(";");
                 for (String tag : tagsArray) {
                     document.add(new DatasetField(ParsedDataset.FIELDS.TAGS, tag));
+                    if (!tag.isBlank())
+                        document.add(new SortedSetDocValuesField(ParsedDataset.FIELDS.TAGS, new BytesRef(tag.strip())));
                 }
             } else {
                 return false;
@@ -177,17 +195,17 @@ public class IndexerThread extends Thread{
 
                             //check for possible null values in the triple
                             if(triple.getSubject().getValue() != null)
-                                document.add(new DatasetField(triple.getSubject().getKey(), triple.getSubject().getValue()));
+                                document.add(new DatasetField(triple.getSubject().getKey(), triple.getSubject().getValue(), analysisCache));
                             else
                                 document.add(new DatasetField(triple.getSubject().getKey(), ""));
 
                             if(triple.getPredicate() == null)
                                 document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, ""));
                             else
-                                document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, triple.getPredicate()));
+                                document.add(new DatasetField(ParsedDataset.FIELDS.PROPERTIES, triple.getPredicate(), analysisCache));
 
                             if(triple.getObject().getValue() != null)
-                                document.add(new DatasetField(triple.getObject().getKey(), triple.getObject().getValue()));
+                                document.add(new DatasetField(triple.getObject().getKey(), triple.getObject().getValue(), analysisCache));
                             else
                                 document.add(new DatasetField(triple.getObject().getKey(), ""));
 
@@ -208,6 +226,10 @@ public class IndexerThread extends Thread{
             }
         }
 
+        //the indexable status is a doc value too, counted by the facets of the searcher
+        document.add(new NumericDocValuesField(ParsedDataset.FIELDS.INDEXABLE,
+                ParsedDataset.indexableStatus(indexableFiles, files.length-1)));
+
         updateJSONFIle(dataset_json_path, indexableFiles, files.length-1);
 
     }
@@ -238,12 +260,7 @@ public class IndexerThread extends Thread{
 
         //get the JsonObject to udpate
         JsonObject object = json.getAsJsonObject();
-        if (indexableFiles == 0)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.EMPTY);
-        else if (indexableFiles > 0 && indexableFiles < totalFiles)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.PARTIAL);
-        else if (indexableFiles == totalFiles)
-            object.addProperty("indexable-jena", ParsedDataset.FIELDS.FULL);
+        object.addProperty("indexable-jena", ParsedDataset.indexableStatus(indexableFiles, totalFiles));
 
         //write the json for updating the dataset.json file
         FileWriter file;
@@ -283,12 +300,16 @@ public class IndexerThread extends Thread{
                     createDatasetDocument(dataset, files, document);
                     //we can index the dataset and update the index info
                     indexWriter.addDocument(document); //index the document
-                    indexWriter.commit();
-                    indexWriter.flush();
+                    //commit after every dataset, or periodically in near-real-time mode
+                    info.datasetIndexed();
                     info.add(filesCount, datasetsCount, bytesCount,errorsCount);
                     info.logMessage(errorMessages.toString());
                 } catch (IOException e) {
                     throw new RuntimeException(e);
+                } finally {
+                    //the values of the dataset are released even if the dataset could not be indexed
+                    if (analysisCache != null)
+                        analysisCache.endDataset();
                 }
                 
             } else{
@@ -1,13 +1,25 @@
 package dei.unipd.parse;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.sandbox.search.CombinedFieldQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.util.BytesRef;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
 
 /**
  * Query parser
@@ -104,4 +116,192 @@ public class CustomQueryParser {
         return mqp.parse(queryEscaped);
     }
 
+    /**
+     * Parse the query as a BM25F query over the weighted fields, using a {@link CombinedFieldQuery}: the frequencies
+     * and the lengths of the fields are combined with the field weights and every query term is scored once, with
+     * the length normalization of the combined field, instead of once per field.
+     * <p>
+     * The combined field query requires weights greater than or equal to 1, so the weights are divided by the
+     * smallest positive weight ({@link #combinedFieldsScale()}); fields with weight 0 are not searched. Scaling the
+     * weights scales the combined term frequencies and lengths by the same factor, which for BM25 is the same as
+     * dividing {@code k1} by it: the query has to be searched with {@link #combinedFieldsSimilarity(BM25Similarity)}
+     * to get the ranking of the given weights.
+     * Fields whose analyzers produce different terms for the query (e.g. the RDF local name fields) are grouped by
+     * their terms and every group is a separate combined field query.
+     * The searcher similarity should be a {@code BM25Similarity}.
+     *
+     * @param query The query to parse
+     * @return a {@code Query} object
+     */
+    public Query combinedFieldsParse(String query) {
+
+        final float scale = combinedFieldsScale();
+
+        //the fields grouped by the terms of the query
+        final Map<List<BytesRef>, List<String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, Float> e : queryWeights.entrySet()) {
+            if (e.getValue() > 0) {
+                final List<BytesRef> terms = analyze(e.getKey(), query);
+                if (!terms.isEmpty()) {
+                    groups.computeIfAbsent(terms, t -> new ArrayList<>()).add(e.getKey());
+                }
+            }
+        }
+
+        if (groups.isEmpty()) {
+            return new MatchNoDocsQuery("No terms in the query");
+        }
+
+        final List<Query> queries = new ArrayList<>(groups.size());
+        for (Map.Entry<List<BytesRef>, List<String>> group : groups.entrySet()) {
+            final CombinedFieldQuery.Builder builder = new CombinedFieldQuery.Builder();
+            for (String field : group.getValue()) {
+                builder.addField(field, queryWeights.get(field) * scale);
+            }
+            for (BytesRef term : group.getKey()) {
+                builder.addTerm(term);
+            }
+            queries.add(builder.build());
+        }
+
+        if (queries.size() == 1) {
+            return queries.get(0);
+        }
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (Query q : queries) {
+            bq.add(q, BooleanClause.Occur.SHOULD);
+        }
+        return bq.build();
+    }
+
+    /**
+     * @return the factor the weights are multiplied by in {@link #combinedFieldsParse(String)}: the inverse of the
+     * smallest positive weight, 1 if there is none
+     */
+    public float combinedFieldsScale() {
+        float min = Float.MAX_VALUE;
+        for (float w : queryWeights.values()) {
+            if (w > 0) {
+                min = Math.min(min, w);
+            }
+        }
+        return min == Float.MAX_VALUE ? 1f : 1f / min;
+    }
+
+    /**
+     * Returns the similarity to search the queries of {@link #combinedFieldsParse(String)} with: the given similarity
+     * with {@code k1} multiplied by {@link #combinedFieldsScale()}, so that the term frequency saturation is the one
+     * of the given weights
+     *
+     * @param similarity the BM25 similarity of the given weights
+     * @return the BM25 similarity of the scaled weights
+     * @throws NullPointerException if the similarity is {@code null}.
+     */
+    public BM25Similarity combinedFieldsSimilarity(final BM25Similarity similarity) {
+
+        if (similarity == null) {
+            throw new NullPointerException("Similarity cannot be null.");
+        }
+
+        return new BM25Similarity(similarity.getK1() * combinedFieldsScale(), similarity.getB(),
+                similarity.getDiscountOverlaps());
+    }
+
+    /**
+     * Flattens a disjunction of disjunctions, e.g. the per term or per field queries built by the parsers, into a
+     * single disjunction of the leaf queries, pushing the boosts down to the leaves. The scores do not change, since
+     * the score of a disjunction is the sum of the scores of the matching clauses, but a flat disjunction of term
+     * queries can be scored with block-max WAND as a whole and skips more documents when only the top-k is needed.
+     * <p>
+     * Queries that are not pure disjunctions (e.g. with required clauses or a minimum number of optional clauses)
+     * are left unchanged, as well as disjunctions that would exceed the maximum number of clauses.
+     *
+     * @param query the query to flatten
+     * @return the flattened query
+     */
+    public static Query flatten(Query query) {
+
+        if (!isDisjunction(unboost(query))) {
+            return query;
+        }
+
+        final List<Query> leaves = new ArrayList<>();
+        collectDisjuncts(query, 1f, leaves);
+
+        if (leaves.size() > IndexSearcher.getMaxClauseCount()) {
+            return query;
+        }
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (Query q : leaves) {
+            bq.add(q, BooleanClause.Occur.SHOULD);
+        }
+        return bq.build();
+    }
+
+    /**
+     * Adds the leaf queries of a disjunction to the list, with their boosts
+     */
+    private static void collectDisjuncts(Query query, float boost, List<Query> leaves) {
+
+        if (query instanceof BoostQuery bq) {
+            collectDisjuncts(bq.getQuery(), boost * bq.getBoost(), leaves);
+        } else if (isDisjunction(query)) {
+            for (BooleanClause c : (BooleanQuery) query) {
+                collectDisjuncts(c.getQuery(), boost, leaves);
+            }
+        } else {
+            leaves.add(boost == 1f ? query : new BoostQuery(query, boost));
+        }
+    }
+
+    /**
+     * @return whether the query is a boolean query with optional clauses only
+     */
+    private static boolean isDisjunction(Query query) {
+
+        if (!(query instanceof BooleanQuery bq) || bq.getMinimumNumberShouldMatch() != 0) {
+            return false;
+        }
+
+        for (BooleanClause c : bq) {
+            if (c.getOccur() != BooleanClause.Occur.SHOULD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the query without its boosts
+     */
+    private static Query unboost(Query query) {
+        while (query instanceof BoostQuery bq) {
+            query = bq.getQuery();
+        }
+        return query;
+    }
+
+    /**
+     * @param field the field
+     * @param text  the text to analyze
+     * @return the terms of the text, with the analyzer of the field
+     */
+    private List<BytesRef> analyze(String field, String text) {
+        final List<BytesRef> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            final TermToBytesRefAttribute termAtt = ts.addAttribute(TermToBytesRefAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
+            }
+            ts.end();
+        } catch (IOException e) {
+            //the analyzers read from a string
+            throw new UncheckedIOException(e);
+        }
+        return terms;
+    }
+
 }
@@ -85,6 +85,12 @@ public class ParsedDataset {
          */
         public static final String PROPERTIES = "properties";
 
+        /**
+         * Field INDEXABLE status of the document: {@link #EMPTY}, {@link #PARTIAL} or {@link #FULL}, as in the
+         * {@code indexable-jena} property of the {@code dataset.json} file. Indexed as a doc value only.
+         */
+        public static final String INDEXABLE = "indexable_jena";
+
         /**
          * Constant value for the empty dataset (cannot be indexed)
          */
@@ -101,5 +107,22 @@ public class ParsedDataset {
         public static final int FULL = 2;
     }
 
+    /**
+     * Returns the indexable status of a dataset
+     *
+     * @param indexableFiles the number of files of the dataset that could be parsed
+     * @param totalFiles     the number of files of the dataset
+     * @return {@link FIELDS#EMPTY} if no file could be parsed, {@link FIELDS#FULL} if all the files could be parsed,
+     * {@link FIELDS#PARTIAL} otherwise
+     */
+    public static int indexableStatus(final int indexableFiles, final int totalFiles) {
+        if (indexableFiles <= 0)
+            return FIELDS.EMPTY;
+        else if (indexableFiles < totalFiles)
+            return FIELDS.PARTIAL;
+        else
+            return FIELDS.FULL;
+    }
+
 
 }
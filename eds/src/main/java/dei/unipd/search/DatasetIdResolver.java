@@ -0,0 +1,193 @@
+package dei.unipd.search;
+
+import dei.unipd.parse.ParsedDataset;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.packed.PackedInts;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Resolves the dataset identifiers of the search hits through the {@code dataset_id} doc values, instead of loading
+ * the stored fields of every hit.
+ * <p>
+ * The hits are visited in increasing doc order, segment by segment, so every lookup is a columnar access. Duplicated
+ * datasets are detected through the global ordinals of the identifiers, without hashing strings.
+ * Indexes built before the {@code dataset_id} doc values were added are still supported: in this case the
+ * identifiers are loaded from the stored fields.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class DatasetIdResolver {
+
+    /**
+     * Stored fields loaded when the doc values are not available
+     */
+    private static final Set<String> ID_FIELD = Collections.singleton(ParsedDataset.FIELDS.ID);
+
+    /**
+     * The index reader
+     */
+    private final IndexReader reader;
+
+    /**
+     * The segments of the index
+     */
+    private final List<LeafReaderContext> leaves;
+
+    /**
+     * Mapping from the segment ordinals to the global ordinals, {@code null} if there is a single segment
+     */
+    private final OrdinalMap ordinalMap;
+
+    /**
+     * Number of distinct dataset identifiers in the index
+     */
+    private final long globalOrdCount;
+
+    /**
+     * Whether all the segments have the {@code dataset_id} doc values
+     */
+    private final boolean docValues;
+
+    /**
+     * Creates a new resolver for the given index
+     *
+     * @param reader the index reader
+     * @throws IOException if something goes wrong while reading the doc values.
+     */
+    public DatasetIdResolver(final IndexReader reader) throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        this.reader = reader;
+        this.leaves = reader.leaves();
+
+        boolean docValues = true;
+        final SortedDocValues[] values = new SortedDocValues[leaves.size()];
+        for (int i = 0; i < values.length; i++) {
+            final LeafReader leaf = leaves.get(i).reader();
+            final FieldInfo info = leaf.getFieldInfos().fieldInfo(ParsedDataset.FIELDS.ID);
+            if (info == null) {
+                //no dataset of the segment has an identifier
+                values[i] = DocValues.emptySorted();
+            } else if (info.getDocValuesType() != DocValuesType.SORTED) {
+                //segment written before the doc values were added
+                docValues = false;
+                values[i] = DocValues.emptySorted();
+            } else {
+                values[i] = leaf.getSortedDocValues(ParsedDataset.FIELDS.ID);
+            }
+        }
+        this.docValues = docValues;
+
+        if (!docValues) {
+            ordinalMap = null;
+            globalOrdCount = 0;
+        } else if (values.length <= 1) {
+            ordinalMap = null;
+            globalOrdCount = values.length == 0 ? 0 : values[0].getValueCount();
+        } else {
+            ordinalMap = OrdinalMap.build(null, values, PackedInts.DEFAULT);
+            globalOrdCount = ordinalMap.getValueCount();
+        }
+    }
+
+    /**
+     * @return true if the identifiers are read from the doc values, false if they are read from the stored fields
+     */
+    public boolean hasDocValues() {
+        return docValues;
+    }
+
+    /**
+     * Resolves the dataset identifiers of the given hits
+     *
+     * @param hits the search hits, in rank order
+     * @return the identifiers of the hits and the flags of the duplicated ones, in the order of the hits
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public ResolvedIds resolve(final ScoreDoc[] hits) throws IOException {
+
+        final String[] ids = new String[hits.length];
+        final boolean[] duplicates = new boolean[hits.length];
+
+        if (!docValues) {
+            //old indexes: stored fields lookup and string deduplication
+            final Set<String> seen = new HashSet<>();
+            for (int i = 0; i < hits.length; i++) {
+                ids[i] = reader.document(hits[i].doc, ID_FIELD).get(ParsedDataset.FIELDS.ID);
+                duplicates[i] = !seen.add(ids[i]);
+            }
+            return new ResolvedIds(ids, duplicates);
+        }
+
+        //visit the hits in doc order, doc values iterators can only move forward
+        //the doc is in the high bits and the rank in the low bits, so sorting the keys sorts the hits by doc
+        final long[] order = new long[hits.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) hits[i].doc << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final long[] globalOrds = new long[hits.length];
+
+        int leaf = -1;
+        int leafEnd = 0;
+        int docBase = 0;
+        SortedDocValues values = null;
+        LongValues segmentToGlobal = null;
+
+        for (long key : order) {
+            final int i = (int) key;
+            final int doc = (int) (key >>> 32);
+
+            //move to the segment that contains the hit
+            if (doc >= leafEnd) {
+                do {
+                    leaf++;
+                    docBase = leaves.get(leaf).docBase;
+                    leafEnd = docBase + leaves.get(leaf).reader().maxDoc();
+                } while (doc >= leafEnd);
+
+                values = DocValues.getSorted(leaves.get(leaf).reader(), ParsedDataset.FIELDS.ID);
+                segmentToGlobal = ordinalMap == null ? LongValues.IDENTITY : ordinalMap.getGlobalOrds(leaf);
+            }
+
+            if (values.advanceExact(doc - docBase)) {
+                final int ord = values.ordValue();
+                ids[i] = values.lookupOrd(ord).utf8ToString();
+                globalOrds[i] = segmentToGlobal.get(ord);
+            } else {
+                //dataset without identifier
+                globalOrds[i] = -1;
+            }
+        }
+
+        //flag the duplicated datasets in rank order
+        final FixedBitSet seen = new FixedBitSet((int) Math.max(globalOrdCount, 1));
+        for (int i = 0; i < hits.length; i++) {
+            if (globalOrds[i] >= 0) {
+                duplicates[i] = seen.getAndSet((int) globalOrds[i]);
+            }
+        }
+
+        return new ResolvedIds(ids, duplicates);
+    }
+
+    /**
+     * The dataset identifiers of a list of hits
+     *
+     * @param ids        the identifiers of the hits
+     * @param duplicates true for the hits whose dataset was already found at a better rank
+     */
+    public record ResolvedIds(String[] ids, boolean[] duplicates) {
+    }
+}
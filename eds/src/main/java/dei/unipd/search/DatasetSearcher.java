@@ -16,12 +16,15 @@
 
 package dei.unipd.search;
 
-import dei.unipd.analyze.AnalyzerUtil;
+import dei.unipd.analyze.ExpansionAnalyzer;
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.evaluate.Evaluation;
+import dei.unipd.evaluate.Evaluator;
+import dei.unipd.index.DirectoryFactory;
 import dei.unipd.parse.ParsedDataset;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.benchmark.quality.QualityQuery;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
@@ -32,7 +35,6 @@ import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
 import dei.unipd.parse.CustomQueryParser;
 import dei.unipd.utils.Constants;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -47,6 +49,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 
 /**
@@ -78,6 +82,18 @@ public class DatasetSearcher {
      */
     private final IndexSearcher searcher;
 
+    /**
+     * The index searcher of the BM25F queries, whose similarity follows the scaled weights of the combined fields
+     * (see {@link CustomQueryParser#combinedFieldsSimilarity(BM25Similarity)}); {@code null} if the similarity is
+     * not BM25
+     */
+    private final IndexSearcher bm25fSearcher;
+
+    /**
+     * The resolver of the dataset identifiers of the hits
+     */
+    private final DatasetIdResolver idResolver;
+
     /**
      * The queries to be searched
      */
@@ -88,6 +104,16 @@ public class DatasetSearcher {
      */
     private final CustomQueryParser qp;
 
+    /**
+     * The query parser expanding the queries with their synonyms, {@code null} if the query expansion is not set
+     */
+    private CustomQueryParser expansionParser;
+
+    /**
+     * The weights of the fields
+     */
+    private final Map<String, Float> queryWeights;
+
     /**
      * The maximum number of datasets to retrieve
      */
@@ -101,7 +127,42 @@ public class DatasetSearcher {
     private Analyzer analyzer;
 
     /**
-     * New searcher.
+     * The executor used to search the topics in parallel, {@code null} to search them one after another
+     */
+    private final ExecutorService topicExecutor;
+
+    /**
+     * The file of the run
+     */
+    private final Path runFile;
+
+    /**
+     * Whether the index reader was opened by this searcher and has to be closed at the end of the search
+     */
+    private final boolean ownsReader;
+
+    /**
+     * Number of hits counted exactly before the non-competitive documents are skipped
+     */
+    private int totalHitsThreshold;
+
+    /**
+     * Number of documents scored for every topic searched
+     */
+    private final Map<String, Long> scoredDocuments = new ConcurrentHashMap<>();
+
+    /**
+     * The cache of the query results, {@code null} to search every query
+     */
+    private QueryResultCache resultCache;
+
+    /**
+     * The linker of the entities mentioned by the queries, {@code null} to search the words of the queries only
+     */
+    private EntityLinker entityLinker;
+
+    /**
+     * New searcher that searches the topics one after another on a single thread.
      *
      * @param analyzer             the {@code Analyzer} to be used in the search phase
      * @param similarity           the {@code Similarity} to be used.
@@ -118,6 +179,73 @@ public class DatasetSearcher {
     public DatasetSearcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
                           final String queryFile, final int expectedQueries, final String runID, final String runPath,
                           final int maxDatasetsRetrieved, Map<String, Float> queryWeights) {
+        this(analyzer, similarity, indexPath, queryFile, expectedQueries, runID, runPath, maxDatasetsRetrieved,
+                queryWeights, null, null);
+    }
+
+    /**
+     * New concurrent searcher. The topics are searched in parallel on the {@code topicExecutor} and every query is
+     * searched in parallel over the index segments on the {@code segmentExecutor}; the results are still written in
+     * the run in the order of the topics.
+     * <p>
+     * The two executors must be different: a topic task waits for its segment tasks, so running both on the same
+     * bounded pool can deadlock. They can be shared among many searchers and they are not shut down by the searcher.
+     *
+     * @param analyzer             the {@code Analyzer} to be used in the search phase
+     * @param similarity           the {@code Similarity} to be used.
+     * @param indexPath            the directory containing the index to be searched.
+     * @param queryFile            the file containing the queries to search for.
+     * @param expectedQueries      the total number of queries expected to be searched.
+     * @param runID                the identifier of the run to be created.
+     * @param runPath              the path where to store the run.
+     * @param maxDatasetsRetrieved the maximum number of datasets to be retrieved.
+     * @param queryWeights         fields weights for query boosting
+     * @param topicExecutor        the executor for the topics, {@code null} to search them one after another
+     * @param segmentExecutor      the executor for the index segments, {@code null} to search them one after another
+     * @throws NullPointerException     if any of the mandatory parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public DatasetSearcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
+                           final String queryFile, final int expectedQueries, final String runID, final String runPath,
+                           final int maxDatasetsRetrieved, Map<String, Float> queryWeights,
+                           final ExecutorService topicExecutor, final Executor segmentExecutor) {
+        this(analyzer, similarity, openIndex(indexPath), null, readTopics(queryFile, expectedQueries), runID, runPath,
+                maxDatasetsRetrieved, queryWeights, topicExecutor, segmentExecutor, true);
+    }
+
+    /**
+     * New searcher over an index reader and a list of topics shared with other searchers, e.g. to run many
+     * configurations without opening the index and reading the topics again. The reader is not closed by the
+     * searcher. Without run path the searcher does not write any run and can only be used to
+     * {@linkplain #evaluateBoosted(Evaluator) evaluate} the topics.
+     *
+     * @param analyzer             the {@code Analyzer} to be used in the search phase
+     * @param similarity           the {@code Similarity} to be used.
+     * @param reader               the shared index reader.
+     * @param idResolver           the resolver of the dataset identifiers for the reader, {@code null} to create one.
+     * @param topics               the queries to search for.
+     * @param runID                the identifier of the run to be created.
+     * @param runPath              the path where to store the run, {@code null} to only evaluate the topics.
+     * @param maxDatasetsRetrieved the maximum number of datasets to be retrieved.
+     * @param queryWeights         fields weights for query boosting
+     * @param topicExecutor        the executor for the topics, {@code null} to search them one after another
+     * @param segmentExecutor      the executor for the index segments, {@code null} to search them one after another
+     * @throws NullPointerException     if any of the mandatory parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public DatasetSearcher(final Analyzer analyzer, final Similarity similarity, final IndexReader reader,
+                           final DatasetIdResolver idResolver, final QualityQuery[] topics, final String runID,
+                           final String runPath, final int maxDatasetsRetrieved, Map<String, Float> queryWeights,
+                           final ExecutorService topicExecutor, final Executor segmentExecutor) {
+        this(analyzer, similarity, reader, idResolver, topics, runID, runPath, maxDatasetsRetrieved, queryWeights,
+                topicExecutor, segmentExecutor, false);
+    }
+
+    private DatasetSearcher(final Analyzer analyzer, final Similarity similarity, final IndexReader reader,
+                            final DatasetIdResolver idResolver, final QualityQuery[] topics, final String runID,
+                            final String runPath, final int maxDatasetsRetrieved, Map<String, Float> queryWeights,
+                            final ExecutorService topicExecutor, final Executor segmentExecutor,
+                            final boolean ownsReader) {
 
         if (analyzer == null) {
             throw new NullPointerException("Analyzer cannot be null.");
@@ -127,59 +255,39 @@ public class DatasetSearcher {
             throw new NullPointerException("Similarity cannot be null.");
         }
 
-        if (indexPath == null) {
-            throw new NullPointerException("Index path cannot be null.");
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
         }
 
-        if (indexPath.isEmpty()) {
-            throw new IllegalArgumentException("Index path cannot be empty.");
-        }
+        this.reader = reader;
+        this.ownsReader = ownsReader;
 
-        final Path indexDir = Paths.get(indexPath);
-        if (!Files.isReadable(indexDir)) {
-            throw new IllegalArgumentException(String.format("Index directory %s cannot be read.", indexDir.toAbsolutePath()));
+        if (topicExecutor != null && topicExecutor == segmentExecutor) {
+            throw new IllegalArgumentException("Topic and segment executors must be different.");
         }
 
-        if (!Files.isDirectory(indexDir)) {
-            throw new IllegalArgumentException(String.format("%s expected to be a directory where to search the index.",
-                    indexDir.toAbsolutePath()));
-        }
+        this.topicExecutor = topicExecutor;
 
-        try {
-            reader = DirectoryReader.open(FSDirectory.open(indexDir));
-        } catch (IOException e) {
-            throw new IllegalArgumentException(String.format("Unable to create the index reader for directory %s: %s.",
-                    indexDir.toAbsolutePath(), e.getMessage()), e);
+        if (idResolver != null) {
+            this.idResolver = idResolver;
+        } else {
+            try {
+                this.idResolver = new DatasetIdResolver(reader);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Unable to read the dataset identifiers: %s.",
+                        e.getMessage()), e);
+            }
         }
 
         //create the index searcher and set the similarity to use
-        searcher = new IndexSearcher(reader);
+        searcher = new IndexSearcher(reader, segmentExecutor);
         searcher.setSimilarity(similarity);
 
-        if (queryFile == null) {
-            throw new NullPointerException("Topics file cannot be null.");
-        }
-
-        if (queryFile.isEmpty()) {
-            throw new IllegalArgumentException("Topics file cannot be empty.");
-        }
-
-        try {
-            BufferedReader in = Files.newBufferedReader(Paths.get(queryFile), StandardCharsets.UTF_8);
-            topics = new QueriesReader().readQueries(in);  //list of topics
-            in.close();
-        } catch (IOException e) {
-            throw new IllegalArgumentException(
-                    String.format("Unable to process topic file %s: %s.", queryFile, e.getMessage()), e);
-        }
-
-        if (expectedQueries <= 0) {
-            throw new IllegalArgumentException("The expected number of topics to be searched cannot be less than or equal to zero.");
+        if (topics == null) {
+            throw new NullPointerException("Topics cannot be null.");
         }
 
-        if (topics.length != expectedQueries) {
-            System.out.printf("Expected to search for %s topics; %s topics found instead.", expectedQueries, topics.length);
-        }
+        this.topics = topics;
 
         // Define different weights to different fields of the documents for applying query boosting
         // if the queryWeights parameter is null, set the default weights
@@ -195,7 +303,19 @@ public class DatasetSearcher {
             queryWeights.put(ParsedDataset.FIELDS.PROPERTIES, 1f);
         }
 
-        qp = new CustomQueryParser(queryWeights, analyzer, ParsedDataset.FIELDS.DESCRIPTION);
+        //the description is the default field, unless it is not boosted (e.g. content fields only)
+        final String defaultField = queryWeights.containsKey(ParsedDataset.FIELDS.DESCRIPTION) ?
+                ParsedDataset.FIELDS.DESCRIPTION : queryWeights.keySet().iterator().next();
+
+        qp = new CustomQueryParser(queryWeights, analyzer, defaultField);
+        this.queryWeights = queryWeights;
+
+        if (similarity instanceof BM25Similarity bm25) {
+            bm25fSearcher = new IndexSearcher(reader, segmentExecutor);
+            bm25fSearcher.setSimilarity(qp.combinedFieldsSimilarity(bm25));
+        } else {
+            bm25fSearcher = null;
+        }
 
         if (runID == null) {
             throw new NullPointerException("Run identifier cannot be null.");
@@ -207,39 +327,208 @@ public class DatasetSearcher {
 
         this.runID = runID;
 
+        //without run path the searcher can only evaluate the topics in memory
         if (runPath == null) {
-            throw new NullPointerException("Run path cannot be null.");
+            runFile = null;
+            run = null;
+        } else {
+            if (runPath.isEmpty()) {
+                throw new IllegalArgumentException("Run path cannot be empty.");
+            }
+
+            final Path runDir = Paths.get(runPath);
+            if (!Files.isWritable(runDir)) {
+                throw new IllegalArgumentException(String.format("Run directory %s cannot be written.", runDir.toAbsolutePath()));
+            }
+
+            if (!Files.isDirectory(runDir)) {
+                throw new IllegalArgumentException(String.format("%s expected to be a directory where to write the run.",
+                        runDir.toAbsolutePath()));
+            }
+
+            runFile = runDir.resolve(runID + ".txt");
+            try {
+                run = new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(
+                        String.format("Unable to open run file %s: %s.", runFile.toAbsolutePath(), e.getMessage()), e);
+            }
         }
 
-        if (runPath.isEmpty()) {
-            throw new IllegalArgumentException("Run path cannot be empty.");
+        if (maxDatasetsRetrieved <= 0) {
+            throw new IllegalArgumentException("The maximum number of documents to be retrieved cannot be less than or equal to zero.");
         }
 
-        final Path runDir = Paths.get(runPath);
-        if (!Files.isWritable(runDir)) {
-            throw new IllegalArgumentException(String.format("Run directory %s cannot be written.", runDir.toAbsolutePath()));
+        this.maxDatasetsRetrieved = maxDatasetsRetrieved;
+        this.totalHitsThreshold = maxDatasetsRetrieved;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Sets the number of hits counted exactly for every query. Past this threshold the searcher skips the documents
+     * that cannot enter the top datasets (block-max WAND): the retrieved datasets do not change, only fewer
+     * documents are scored. By default the threshold is the maximum number of datasets to retrieve; use
+     * {@link Integer#MAX_VALUE} to score every matching document.
+     *
+     * @param totalHitsThreshold the number of hits counted exactly
+     * @throws IllegalArgumentException if the threshold is less than or equal to zero.
+     */
+    public void setTotalHitsThreshold(final int totalHitsThreshold) {
+
+        if (totalHitsThreshold <= 0) {
+            throw new IllegalArgumentException("The total hits threshold cannot be less than or equal to zero.");
         }
 
-        if (!Files.isDirectory(runDir)) {
-            throw new IllegalArgumentException(String.format("%s expected to be a directory where to write the run.",
-                    runDir.toAbsolutePath()));
+        this.totalHitsThreshold = totalHitsThreshold;
+    }
+
+    /**
+     * Sets the cache of the query results. The boosted, BM25F and FSDM searches look up the cache before searching
+     * a topic, so a query already searched with the same configuration is not parsed and scored again. The cache
+     * can be shared among searchers using the same analyzer.
+     *
+     * @param resultCache the cache of the query results, {@code null} to search every query
+     */
+    public void setResultCache(final QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets the synonyms used by the query expansion of {@link #searchBoostedAugmented(boolean, boolean, boolean)}:
+     * the topics are parsed with an {@link ExpansionAnalyzer}, so every topic is searched once together with the
+     * synonyms of its terms.
+     *
+     * @param synonyms the synonyms, analyzed with the analyzer of the searcher (see {@link ExpansionAnalyzer})
+     * @throws NullPointerException if the synonyms are {@code null}.
+     */
+    public void setQueryExpansion(final SynonymMap synonyms) {
+        if (synonyms == null) {
+            throw new NullPointerException("Synonym map cannot be null.");
+        }
+        expansionParser = new CustomQueryParser(queryWeights, new ExpansionAnalyzer(analyzer, synonyms),
+                queryWeights.containsKey(ParsedDataset.FIELDS.DESCRIPTION) ?
+                        ParsedDataset.FIELDS.DESCRIPTION : queryWeights.keySet().iterator().next());
+    }
+
+    /**
+     * Sets the linker of the entities mentioned by the queries. The boosted search adds to every query the term and
+     * phrase clauses of the entities and classes it mentions, weighted as their fields.
+     *
+     * @param entityLinker the entity linker, {@code null} to search the words of the queries only
+     */
+    public void setEntityLinker(final EntityLinker entityLinker) {
+        this.entityLinker = entityLinker;
+    }
+
+    /**
+     * Returns the number of documents scored for every topic of the last search, in the order of the topics. With
+     * the early termination of the top-k search, this is usually much less than the number of matching documents.
+     *
+     * @return the number of documents scored by topic
+     */
+    public Map<String, Long> getScoredDocuments() {
+        final Map<String, Long> scored = new LinkedHashMap<>();
+        for (QualityQuery t : topics) {
+            final Long n = scoredDocuments.get(t.getQueryID());
+            if (n != null) {
+                scored.put(t.getQueryID(), n);
+            }
+        }
+        return scored;
+    }
+
+    /**
+     * Opens the index to be searched with the default type of directory (see {@link DirectoryFactory})
+     *
+     * @param indexPath the directory containing the index to be searched.
+     * @return the index reader
+     * @throws NullPointerException     if the path is {@code null}.
+     * @throws IllegalArgumentException if the index cannot be opened.
+     */
+    static IndexReader openIndex(final String indexPath) {
+        return openIndex(indexPath, DirectoryFactory.getDefaultType());
+    }
+
+    /**
+     * Opens the index to be searched, e.g. to search an index built in memory with the constructor taking a reader
+     *
+     * @param indexPath     the directory containing the index to be searched.
+     * @param directoryType the type of the directory of the index.
+     * @return the index reader
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the index cannot be opened.
+     */
+    public static IndexReader openIndex(final String indexPath, final DirectoryFactory.Type directoryType) {
+
+        if (directoryType == null) {
+            throw new NullPointerException("Directory type cannot be null.");
+        }
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (indexPath.isEmpty()) {
+            throw new IllegalArgumentException("Index path cannot be empty.");
+        }
+
+        final Path indexDir = Paths.get(indexPath);
+        if (!Files.isReadable(indexDir)) {
+            throw new IllegalArgumentException(String.format("Index directory %s cannot be read.", indexDir.toAbsolutePath()));
+        }
+
+        if (!Files.isDirectory(indexDir)) {
+            throw new IllegalArgumentException(String.format("%s expected to be a directory where to search the index.",
+                    indexDir.toAbsolutePath()));
         }
 
-        Path runFile = runDir.resolve(runID + ".txt");
         try {
-            run = new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            return DirectoryReader.open(DirectoryFactory.open(directoryType, indexDir));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to create the index reader for directory %s: %s.",
+                    indexDir.toAbsolutePath(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Reads the topics to be searched
+     *
+     * @param queryFile       the file containing the queries to search for.
+     * @param expectedQueries the total number of queries expected to be searched.
+     * @return the topics
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if the topics cannot be read.
+     */
+    static QualityQuery[] readTopics(final String queryFile, final int expectedQueries) {
+
+        if (queryFile == null) {
+            throw new NullPointerException("Topics file cannot be null.");
+        }
+
+        if (queryFile.isEmpty()) {
+            throw new IllegalArgumentException("Topics file cannot be empty.");
+        }
+
+        final QualityQuery[] topics;
+        try {
+            BufferedReader in = Files.newBufferedReader(Paths.get(queryFile), StandardCharsets.UTF_8);
+            topics = new QueriesReader().readQueries(in);  //list of topics
+            in.close();
         } catch (IOException e) {
             throw new IllegalArgumentException(
-                    String.format("Unable to open run file %s: %s.", runFile.toAbsolutePath(), e.getMessage()), e);
+                    String.format("Unable to process topic file %s: %s.", queryFile, e.getMessage()), e);
         }
 
-        if (maxDatasetsRetrieved <= 0) {
-            throw new IllegalArgumentException("The maximum number of documents to be retrieved cannot be less than or equal to zero.");
+        if (expectedQueries <= 0) {
+            throw new IllegalArgumentException("The expected number of topics to be searched cannot be less than or equal to zero.");
         }
 
-        this.maxDatasetsRetrieved = maxDatasetsRetrieved;
-        this.analyzer = analyzer;
+        if (topics.length != expectedQueries) {
+            System.out.printf("Expected to search for %s topics; %s topics found instead.", expectedQueries, topics.length);
+        }
+
+        return topics;
     }
 
     /**
@@ -271,93 +560,124 @@ public class DatasetSearcher {
         queryWeights.put(ParsedDataset.FIELDS.PROPERTIES, 0.1f);
 
         //ACORDAR settings
-        CharArraySet cas = AnalyzerUtil.loadStopList("/home/manuel/Tesi/EDS/EDS/eds/src/main/resources/stoplists/nltk-stopwords.txt");
-        final Analyzer a = new StandardAnalyzer();
+        final Analyzer a = LocalNameAnalyzer.forIndex();
 
         String[] metaFields = {ParsedDataset.FIELDS.TITLE, ParsedDataset.FIELDS.DESCRIPTION, ParsedDataset.FIELDS.AUTHOR, ParsedDataset.FIELDS.TAGS};
         String[] contentFields = {ParsedDataset.FIELDS.CLASSES, ParsedDataset.FIELDS.ENTITIES, ParsedDataset.FIELDS.LITERALS, ParsedDataset.FIELDS.PROPERTIES};
         String[] allFields = ArrayUtils.addAll(metaFields, contentFields);
 
-        //String[] runs = {"-BM25-boost", "-LMD-boost", "-TF-IDF-boost", "-BM25[m]","-BM25[c]", "-BM25[m+c]", "-LMD[m]","-LMD[c]", "-LMD[m+c]", "-TF-IDF[m]","-TF-IDF[c]", "-TF-IDF[m+c]"};
-        String[] runs = {"-BM25-nostop"};
+        //String[] runs = {"-BM25F", "-FSDM", "-BM25-boost", "-BM25-boost-linked", "-BM25-boost-expanded", "-LMD-boost", "-TF-IDF-boost", "-BM25[m]","-BM25[c]", "-BM25[m+c]", "-LMD[m]","-LMD[c]", "-LMD[m+c]", "-TF-IDF[m]","-TF-IDF[c]", "-TF-IDF[m+c]"};
+        String[] runs = {"-BM25[m+c]"};
+
+        //executors shared by all the runs: topics and index segments are searched in parallel
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService topicPool = Executors.newFixedThreadPool(threads);
+        final ExecutorService segmentPool = Executors.newFixedThreadPool(threads);
 
         for(String run:runs){
             switch (run){
                 case "-BM25-nostop" -> {
                     Similarity sim = new BM25Similarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(allFields);
                 }
+                case "-BM25F" -> {
+                    Similarity sim = new BM25Similarity();
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
+                    System.out.println("Searching with: "+run);
+                    s.searchBM25F();
+                }
+                case "-FSDM" -> {
+                    Similarity sim = new LMDirichletSimilarity();
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
+                    System.out.println("Searching with: "+run);
+                    s.searchFSDM(1000);
+                }
                 case "-BM25-boost" -> {
                     Similarity sim = new BM25Similarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.searchBoosted();
                 }
+                case "-BM25-boost-linked" -> {
+                    Similarity sim = new BM25Similarity();
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
+                    //the entities and classes mentioned by the topics, from the dictionary saved next to the index
+                    s.setEntityLinker(EntityLinker.loadOrBuild(Paths.get(indexPath, "entities.fst"), Paths.get(indexPath), a));
+                    System.out.println("Searching with: "+run);
+                    s.searchBoosted();
+                }
+                case "-BM25-boost-expanded" -> {
+                    Similarity sim = new BM25Similarity();
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
+                    s.setQueryExpansion(querySynonyms(indexPath, a));
+                    System.out.println("Searching with: "+run);
+                    s.searchBoostedAugmented(true, false, false);
+                }
                 case "-LMD-boost" -> {
                     Similarity sim = new LMDirichletSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.searchBoosted();
                 }
                 case "-TF-IDF-boost" -> {
                     Similarity sim = new ClassicSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.searchBoosted();
                 }
                 case "-BM25[m]" -> {
                     Similarity sim = new BM25Similarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(metaFields);
                 }
                 case "-BM25[c]" -> {
                     Similarity sim = new BM25Similarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(contentFields);
                 }
                 case "-BM25[m+c]" -> {
                     Similarity sim = new BM25Similarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(allFields);
                 }
                 case "-TF-IDF[m]" -> {
                     Similarity sim = new ClassicSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(metaFields);
                 }
                 case "-TF-IDF[c]" -> {
                     Similarity sim = new ClassicSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(contentFields);
                 }
                 case "-TF-IDF[m+c]" -> {
                     Similarity sim = new ClassicSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(allFields);
                 }
                 case "-LMD[m]" -> {
                     Similarity sim = new LMDirichletSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(metaFields);
                 }
                 case "-LMD[c]" -> {
                     Similarity sim = new LMDirichletSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(contentFields);
                 }
                 case "-LMD[m+c]" -> {
                     Similarity sim = new LMDirichletSimilarity();
-                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights);
+                    DatasetSearcher s = new DatasetSearcher(a, sim, indexPath, queriesPath, 50, runID+run, runPath, maxDocsRetrieved, queryWeights, topicPool, segmentPool);
                     System.out.println("Searching with: "+run);
                     s.search(allFields);
                 }
@@ -368,8 +688,35 @@ public class DatasetSearcher {
 
         }
 
+        topicPool.shutdown();
+        segmentPool.shutdown();
 
+    }
 
+    /**
+     * Loads the synonyms of the query expansion saved next to an index or, if there are none, builds them from the
+     * local names of the classes and the properties of the index and saves them
+     *
+     * @param indexPath the directory containing the index
+     * @param analyzer  the analyzer used to index the fields
+     * @return the synonyms
+     * @throws IOException if the synonyms or the index cannot be read or the synonyms cannot be saved.
+     */
+    static SynonymMap querySynonyms(final String indexPath, final Analyzer analyzer) throws IOException {
+
+        final Path file = Paths.get(indexPath, "synonyms.fst");
+        if (Files.exists(file)) {
+            return ExpansionAnalyzer.load(file);
+        }
+
+        final SynonymMap synonyms;
+        try (IndexReader reader = openIndex(indexPath)) {
+            //the local names of a single dataset are too rare to be worth an expansion
+            synonyms = ExpansionAnalyzer.fromIndex(reader, analyzer, 2);
+        }
+        ExpansionAnalyzer.save(synonyms, file);
+        System.out.printf("Query synonyms built and saved to %s.%n", file);
+        return synonyms;
     }
 
     /**
@@ -396,24 +743,16 @@ public class DatasetSearcher {
         // the start time of the searching
         final long start = System.currentTimeMillis();
 
-        //fields that must be retrieved from the system
-        final Set<String> fieldsToBeRetrieved = new HashSet<>();
-        fieldsToBeRetrieved.add(ParsedDataset.FIELDS.ID);
-
-        BooleanQuery.Builder bq;
-        Query q;
-        TopDocs docs;
-        ScoreDoc[] sd;
-        String docID; //document ID
+        checkRunFile();
 
-        try (PrintWriter runDefault = new PrintWriter(Constants.runPath + "/" + runID + ".txt")) {
+        try (PrintWriter runDefault = new PrintWriter(runFile.toString())) {
 
-            for (QualityQuery t : topics) {
+            searchTopics(t -> {
 
                 System.out.printf("Searching for topic %s.%n", t.getQueryID());
 
                 //original query
-                bq = new BooleanQuery.Builder();
+                BooleanQuery.Builder bq = new BooleanQuery.Builder();
 
                 //Check the text field is not null/empty/blank
                 String text = t.getValue(QUERY_FIELDS.TEXT);
@@ -428,39 +767,39 @@ public class DatasetSearcher {
                     );
                 }
 
-                q = bq.build();
+                Query q = bq.build();
 
-                docs = searcher.search(q, maxDatasetsRetrieved);
+                TopDocs docs = topDocs(t, q, maxDatasetsRetrieved);
 
-                sd = docs.scoreDocs;
+                ScoreDoc[] sd = docs.scoreDocs;
+
+                //the dataset identifiers of the hits, read from the doc values
+                String[] docIDs = idResolver.resolve(sd).ids();
 
-                //HashSet for removing duplicated document IDs in the search
-                Set<String> nod = new HashSet<>();
+                List<String> lines = new ArrayList<>();
 
                 for (int i = 0, n = sd.length; i < n; i++) {
 
-                    docID = reader.document(sd[i].doc, fieldsToBeRetrieved).get(ParsedDataset.FIELDS.ID);
-                    if (!nod.contains(docID)) {
-                        nod.add(docID);
-                    }
+                    String docID = docIDs[i];
 
                     //write the search results in the runDefault output file (in the standard TREC format)
-                    runDefault.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docID, i, sd[i].score, runID);
+                    lines.add(String.format(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docID, i, sd[i].score, runID));
                     i++;
                 }
 
-                run.flush();
-                runDefault.flush();
+                return lines;
+            }, lines -> writeTopic(runDefault, lines));
 
-            }
         } finally {
             run.close();
-            reader.close();
+            if (ownsReader)
+                reader.close();
         }
 
         elapsedTime = System.currentTimeMillis() - start;
 
         System.out.printf("%d topic(s) searched in %d seconds.\n", topics.length, elapsedTime / 1000);
+        printScoredDocuments();
 
         System.out.print("#### Searching complete ####\n");
     }
@@ -471,36 +810,37 @@ public class DatasetSearcher {
      * Searches for the specified topics using:
      * <ol>
      * <li>Query Boosting with the specified weight parameters</li>
-     * <li>Query Expansion with the specified score threshold for synonyms</li>
+     * <li>Query Expansion with the synonyms of the query terms, searched in the same query</li>
      * <li>Re ranking based on sentiment analysis and readability of the document</li>
      * </ol>
      *
-     * @param qExp               boolean that indicates if we want to use query expansion
-     * @param reSent             boolean that indicates if we want to use re rank based on sentiment analysis on the document conclusion
-     * @param reRead             boolean that indicates if we want to use re rank based on readability of the document conclusion
-     * @param allTokens          boolean parameter that indicates if we want to generate synonyms for every token or only for the main token
-     * @param maxSynonymsPerWord number of synonyms to generate for every key token
-     * @param threshold          score threshold used in query expansion
+     * @param qExp   boolean that indicates if we want to use query expansion, with the synonyms set by
+     *               {@link #setQueryExpansion(SynonymMap)}
+     * @param reSent boolean that indicates if we want to use re rank based on sentiment analysis on the document conclusion
+     * @param reRead boolean that indicates if we want to use re rank based on readability of the document conclusion
      * @throws IOException    if something goes wrong while searching.
      * @throws ParseException if something goes wrong while parsing topics.
      */
-    public void searchBoostedAugmented(boolean qExp, boolean reSent, boolean reRead,
-                              boolean allTokens, int maxSynonymsPerWord, double threshold) throws IOException, ParseException {
+    public void searchBoostedAugmented(boolean qExp, boolean reSent, boolean reRead) throws IOException, ParseException {
+
+        if (qExp && expansionParser == null) {
+            throw new IllegalStateException("The synonyms for the query expansion are not set: call setQueryExpansion "
+                    + "with the synonyms read by ExpansionAnalyzer.fromFile or built by ExpansionAnalyzer.fromIndex, "
+                    + "or search without query expansion.");
+        }
 
         System.out.printf("%n#### Start boosted searching ####%n");
 
+        //with query expansion the synonyms are added to the query by the parser
+        final CustomQueryParser parser = qExp ? expansionParser : qp;
+
         // the start time of the searching
         final long start = System.currentTimeMillis();
 
-        //fields that must be retrieved from the system
-        final Set<String> idField = new HashSet<>();
-        idField.add(ParsedDataset.FIELDS.ID);
-
         BooleanQuery.Builder bq;
         Query q;
         TopDocs docs;
         ScoreDoc[] sd;
-        String docID; //document ID
         String[] sentencesID; //sentences ID of the document
         String stance; //stance of the document
 
@@ -513,25 +853,27 @@ public class DatasetSearcher {
          * it can be parsed from trec_eval. We use this file for parameter tuning and test the different solutions.
          * run: file that contains the results of the search with the sentence pairs that we have to submit to CLEF
          */
-        try (PrintWriter runDefault = new PrintWriter(Constants.runPath + "/" + runID + ".txt")) {
+        checkRunFile();
+
+        try (PrintWriter runDefault = new PrintWriter(runFile.toString())) {
 
             for (QualityQuery t : topics) {
 
                 System.out.printf("Searching for topic %s.%n", t.getQueryID());
 
-                //Perform the original query
+                //Perform the query, expanded with the synonyms if required
                 bq = new BooleanQuery.Builder();
-                titleQuery = qp.multipleFieldsParse(t.getValue(QUERY_FIELDS.TEXT));
+                titleQuery = parser.multipleFieldsParse(t.getValue(QUERY_FIELDS.TEXT));
                 bq.add(titleQuery, BooleanClause.Occur.SHOULD);
 
                 //Check the description field is not null/empty/blank
                 String text = t.getValue(QUERY_FIELDS.TEXT);
                 if (text != null && !text.isEmpty() && !text.isBlank()) {
-                    descriptionQuery = qp.multipleFieldsParse(text);
+                    descriptionQuery = parser.multipleFieldsParse(text);
                     bq.add(descriptionQuery, BooleanClause.Occur.SHOULD);
                 }
 
-                //Execute the original query
+                //Execute the query
                 q = bq.build();
                 docs = searcher.search(q, maxDatasetsRetrieved);
                 sd = docs.scoreDocs;
@@ -540,39 +882,6 @@ public class DatasetSearcher {
                 ArrayList<ScoreDoc> documents = new ArrayList<>(Arrays.asList(sd));
 
                 /*
-                //Check if we have to use query expansion
-                if (qExp) {
-
-                    //Get the expanded queries (removes duplicated queries eventually)
-                    List<String> expandedQueries = QueryExpander.generateAllExpandedQueries(t.getValue(TOPIC_FIELDS.TITLE), allTokens, maxSynonymsPerWord, threshold)
-                            .stream().distinct().toList();
-
-                    //Iterate over all the expanded queries and execute them
-                    for (String titleString : expandedQueries) {
-                        System.out.printf("Expanded query: %s\n", titleString);
-
-                        bq = new BooleanQuery.Builder();
-                        titleQuery = qp.multipleFieldsParse(titleString);
-                        bq.add(titleQuery, BooleanClause.Occur.SHOULD);
-
-                        //Check the description field is not null
-                        description = t.getValue(TOPIC_FIELDS.DESCRIPTION);
-                        if (description != null && !description.isEmpty() && !description.isBlank()) {
-                            descriptionQuery = qp.multipleFieldsParse(description);
-                            bq.add(descriptionQuery, BooleanClause.Occur.SHOULD);
-                        }
-
-                        //Build the query
-                        q = bq.build();
-                        docs = searcher.search(q, maxDocsRetrieved);
-                        sd = docs.scoreDocs;
-
-                        //Add all the retrieved documents to the array list
-                        documents.addAll(Arrays.asList(sd));
-                    }
-                }
-
-
                 //check if the results must be re-ranked based on sentiment analysis
                 List<ScoreDoc> sentimentOrder = null;
                 if (reSent) {
@@ -598,7 +907,7 @@ public class DatasetSearcher {
                 if (!reSent && !reRead) {
                     documents.sort((o1, o2) -> Float.compare(o1.score, o2.score));
                     Collections.reverse(documents);
-                    cutUniqueDocuments = documents.subList(0, maxDatasetsRetrieved);
+                    cutUniqueDocuments = documents.subList(0, Math.min(documents.size(), maxDatasetsRetrieved));
                 }
 
                 /*else if (reSent && !reRead) {
@@ -615,20 +924,18 @@ public class DatasetSearcher {
                 //print the results
                 int i = 1;
                 int pairsCounter = 1;
-                //HasSet for removing duplicated document IDs in the search
-                HashSet<String> docIDs = new HashSet<>();
 
-                for (ScoreDoc document : cutUniqueDocuments) {
+                //the dataset identifiers of the documents, with the duplicated datasets flagged
+                ScoreDoc[] cutDocuments = cutUniqueDocuments.toArray(new ScoreDoc[0]);
+                DatasetIdResolver.ResolvedIds docIDs = idResolver.resolve(cutDocuments);
 
-                    //retrieve the docID
-                    docID = reader.document(document.doc, idField).get(ParsedDataset.FIELDS.ID);
+                for (int j = 0; j < cutDocuments.length; j++) {
 
                     //check if the docID was already retrieve
-                    if (!docIDs.contains(docID)) {
-                        docIDs.add(docID);
+                    if (!docIDs.duplicates()[j]) {
 
                         //write the search results in the runDefault output file (in the standard TREC format)
-                        runDefault.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docID, i++, document.score, runID);
+                        runDefault.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docIDs.ids()[j], i++, cutDocuments[j].score, runID);
                     }
                 }
                 run.flush();
@@ -636,7 +943,8 @@ public class DatasetSearcher {
             }
         } finally {
             run.close();
-            reader.close();
+            if (ownsReader)
+                reader.close();
         }
 
         elapsedTime = System.currentTimeMillis() - start;
@@ -651,68 +959,529 @@ public class DatasetSearcher {
      * @throws ParseException if something goes wrong while parsing topics.
      */
     public void searchBoosted() throws IOException, ParseException {
-
         System.out.printf("%n#### Start boosted searching ####%n");
+        writeRun(this::rankBoosted);
+    }
 
-        // the start time of the searching
-        final long start = System.currentTimeMillis();
+    /**
+     * Searches for the specified queries with BM25F: every query term is scored once over all the weighted fields,
+     * combined with their weights (see {@link CustomQueryParser#combinedFieldsParse(String)}).
+     * The similarity of the searcher has to be a {@code BM25Similarity}.
+     *
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public void searchBM25F() throws IOException, ParseException {
+        checkBM25();
+        System.out.printf("%n#### Start BM25F searching ####%n");
+        writeRun(this::rankBM25F);
+    }
 
-        //fields that must be retrieved from the system
-        final Set<String> fieldsToLoad = new HashSet<>();
-        fieldsToLoad.add(ParsedDataset.FIELDS.ID);
+    /**
+     * Searches for the specified queries with the Fielded Sequential Dependence Model: the top {@code poolDepth}
+     * datasets of the boosted unigram query are re-ranked with FSDM (see {@link FSDMRescorer}), using the FSDM
+     * weights of the fields ({@link Constants#FSDMBoostWeights}), and the best ones are written in the run
+     *
+     * @param poolDepth the number of datasets of the unigram query to re-rank
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public void searchFSDM(final int poolDepth) throws IOException, ParseException {
+        searchFSDM(poolDepth, fieldWeights(Constants.FSDMBoostWeights));
+    }
 
-        Query q;
-        TopDocs docs;
-        ScoreDoc[] sd;
-        String docID; //document ID
+    /**
+     * Searches for the specified queries with FSDM, as {@link #searchFSDM(int)}, with the given weights of the fields
+     * in the FSDM features; the unigram query keeps the weights of the searcher
+     *
+     * @param poolDepth    the number of datasets of the unigram query to re-rank
+     * @param fieldWeights the weights of the fields in the FSDM features
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public void searchFSDM(final int poolDepth, final Map<String, Float> fieldWeights)
+            throws IOException, ParseException {
+        final FSDMRescorer rescorer = fsdmRescorer(poolDepth, fieldWeights);
+        System.out.printf("%n#### Start FSDM searching ####%n");
+        writeRun(t -> rankFSDM(t, rescorer, poolDepth, fieldWeights));
+    }
 
-        try (PrintWriter runDefault = new PrintWriter(Constants.runPath + "/" + runID + ".txt")) {
+    /**
+     * Searches for the specified queries with boosting applied, as {@link #searchBoosted()}, and evaluates the
+     * results in memory instead of writing the run
+     *
+     * @param evaluator the evaluator of the results
+     * @return the evaluation of the results
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public Evaluation evaluateBoosted(final Evaluator evaluator) throws IOException, ParseException {
+        return evaluate(evaluator, this::rankBoosted);
+    }
 
-            for (QualityQuery t : topics) {
+    /**
+     * Searches for the specified queries with BM25F, as {@link #searchBM25F()}, and evaluates the results in memory
+     * instead of writing the run
+     *
+     * @param evaluator the evaluator of the results
+     * @return the evaluation of the results
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public Evaluation evaluateBM25F(final Evaluator evaluator) throws IOException, ParseException {
+        checkBM25();
+        return evaluate(evaluator, this::rankBM25F);
+    }
 
-                //System.out.printf("Searching for topic %s.%n", t.getQueryID());
+    /**
+     * Searches for the specified queries with FSDM, as {@link #searchFSDM(int)}, and evaluates the results in memory
+     * instead of writing the run
+     *
+     * @param evaluator the evaluator of the results
+     * @param poolDepth the number of datasets of the unigram query to re-rank
+     * @return the evaluation of the results
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public Evaluation evaluateFSDM(final Evaluator evaluator, final int poolDepth) throws IOException, ParseException {
+        return evaluateFSDM(evaluator, poolDepth, fieldWeights(Constants.FSDMBoostWeights));
+    }
 
-                //Execute the original query
-                q = qp.multipleFieldsParse(t.getValue(QUERY_FIELDS.TEXT));
+    /**
+     * Searches for the specified queries with FSDM, as {@link #searchFSDM(int, Map)}, and evaluates the results in
+     * memory instead of writing the run
+     *
+     * @param evaluator    the evaluator of the results
+     * @param poolDepth    the number of datasets of the unigram query to re-rank
+     * @param fieldWeights the weights of the fields in the FSDM features
+     * @return the evaluation of the results
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public Evaluation evaluateFSDM(final Evaluator evaluator, final int poolDepth,
+                                   final Map<String, Float> fieldWeights) throws IOException, ParseException {
+        final FSDMRescorer rescorer = fsdmRescorer(poolDepth, fieldWeights);
+        return evaluate(evaluator, t -> rankFSDM(t, rescorer, poolDepth, fieldWeights));
+    }
 
-                docs = searcher.search(q, maxDatasetsRetrieved);
-                sd = docs.scoreDocs;
+    /**
+     * Searches all the topics and writes the results in the run
+     *
+     * @param ranker the search of a single topic
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    private void writeRun(TopicSearch<Ranking> ranker) throws IOException, ParseException {
 
-                //Add the documents found to the result
-                ArrayList<ScoreDoc> documents = new ArrayList<>(Arrays.asList(sd));
+        // the start time of the searching
+        final long start = System.currentTimeMillis();
 
-                //print the results
-                int i = 1;
+        checkRunFile();
 
-                //HasSet for removing duplicated document IDs in the search
-                HashSet<String> docIDs = new HashSet<>();
+        try (PrintWriter runDefault = new PrintWriter(runFile.toString())) {
 
-                for (ScoreDoc document : documents) {
+            searchTopics(t -> {
 
-                    //retrieve the docID
-                    docID = reader.document(document.doc, fieldsToLoad).get(ParsedDataset.FIELDS.ID);
+                //System.out.printf("Searching for topic %s.%n", t.getQueryID());
 
-                    //check if the docID was already retrieve
-                    if (!docIDs.contains(docID)) {
-                        docIDs.add(docID);
+                Ranking ranking = ranker.search(t);
 
-                        //write the search results in the runDefault output file (in the standard TREC format)
-                        runDefault.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docID, i++, document.score, runID);
-                    }
+                List<String> lines = new ArrayList<>();
+
+                for (int j = 0; j < ranking.ids().length; j++) {
+
+                    //write the search results in the runDefault output file (in the standard TREC format)
+                    lines.add(String.format(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), ranking.ids()[j], j + 1, ranking.scores()[j], runID));
                 }
-                run.flush();
-                runDefault.flush();
-            }
+
+                return lines;
+            }, lines -> writeTopic(runDefault, lines));
+
         } finally {
             run.close();
-            reader.close();
+            if (ownsReader)
+                reader.close();
         }
 
         elapsedTime = System.currentTimeMillis() - start;
         System.out.printf("%d topic(s) searched in %d seconds.\n", topics.length, elapsedTime / 1000);
+        printScoredDocuments();
         System.out.print("#### Searching complete ####\n");
     }
 
+    /**
+     * Searches all the topics and evaluates the results in memory
+     *
+     * @param evaluator the evaluator of the results
+     * @param ranker    the search of a single topic
+     * @return the evaluation of the results
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    private Evaluation evaluate(Evaluator evaluator, TopicSearch<Ranking> ranker) throws IOException, ParseException {
+
+        if (evaluator == null) {
+            throw new NullPointerException("Evaluator cannot be null.");
+        }
+
+        // the start time of the searching
+        final long start = System.currentTimeMillis();
+
+        final Map<String, String[]> rankings = new LinkedHashMap<>();
+
+        try {
+            searchTopics(ranker, ranking -> rankings.put(ranking.topicID(), ranking.ids()));
+        } finally {
+            if (run != null)
+                run.close();
+            if (ownsReader)
+                reader.close();
+        }
+
+        final Evaluation evaluation = evaluator.evaluate(rankings);
+
+        elapsedTime = System.currentTimeMillis() - start;
+
+        return evaluation;
+    }
+
+    /**
+     * Searches a topic with boosting applied
+     *
+     * @param t the topic to search
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the topic.
+     */
+    private Ranking rankBoosted(QualityQuery t) throws IOException, ParseException {
+        if (entityLinker == null) {
+            return cached(t, "boosted", topic -> rank(topic, qp.multipleFieldsParse(topic.getValue(QUERY_FIELDS.TEXT))));
+        }
+        return cached(t, "boosted-linked", topic -> rank(topic, linked(topic.getValue(QUERY_FIELDS.TEXT))));
+    }
+
+    /**
+     * Parses a query and adds the clauses of the entities it mentions
+     *
+     * @param text the text of the query
+     * @return the query
+     * @throws IOException    if something goes wrong while linking the entities.
+     * @throws ParseException if something goes wrong while parsing the query.
+     */
+    private Query linked(String text) throws IOException, ParseException {
+
+        final Query words = qp.multipleFieldsParse(text);
+        final Query entities = entityLinker.query(text, queryWeights);
+        if (entities == null) {
+            return words;
+        }
+
+        return new BooleanQuery.Builder()
+                .add(words, BooleanClause.Occur.SHOULD)
+                .add(entities, BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    /**
+     * Searches a topic with BM25F
+     *
+     * @param t the topic to search
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the topic.
+     */
+    private Ranking rankBM25F(QualityQuery t) throws IOException, ParseException {
+        return cached(t, "bm25f", topic -> rank(topic, topDocs(bm25fSearcher, topic,
+                qp.combinedFieldsParse(topic.getValue(QUERY_FIELDS.TEXT)), maxDatasetsRetrieved).scoreDocs));
+    }
+
+    /**
+     * Searches a topic with FSDM
+     *
+     * @param t            the topic to search
+     * @param rescorer     the FSDM rescorer
+     * @param poolDepth    the number of datasets of the unigram query to re-rank
+     * @param fieldWeights the weights of the fields of the rescorer
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the topic.
+     */
+    private Ranking rankFSDM(QualityQuery t, FSDMRescorer rescorer, int poolDepth, Map<String, Float> fieldWeights)
+            throws IOException, ParseException {
+        //the key of the cache holds the weights of the unigram query, so the FSDM weights are part of the mode
+        return cached(t, "fsdm-" + poolDepth + fieldWeights, topic -> {
+
+            //unigram candidates first, the proximity features are computed only for them
+            String text = topic.getValue(QUERY_FIELDS.TEXT);
+            ScoreDoc[] candidates = topDocs(topic, qp.multipleFieldsParse(text), poolDepth).scoreDocs;
+
+            ScoreDoc[] sd = rescorer.rescore(text, candidates);
+
+            return rank(topic, ArrayUtil.copyOfSubArray(sd, 0, Math.min(sd.length, maxDatasetsRetrieved)));
+        });
+    }
+
+    /**
+     * Searches a topic through the cache of the query results, if any
+     *
+     * @param t      the topic
+     * @param mode   the retrieval mode, part of the key of the cached results
+     * @param search the search of the topic on a cache miss
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the topic.
+     */
+    private Ranking cached(QualityQuery t, String mode, TopicSearch<Ranking> search) throws IOException, ParseException {
+
+        if (resultCache == null) {
+            return search.search(t);
+        }
+
+        QueryResultCache.Key key = QueryResultCache.key(mode, t.getValue(QUERY_FIELDS.TEXT), searcher.getSimilarity(),
+                queryWeights, maxDatasetsRetrieved);
+
+        QueryResultCache.Result result = resultCache.get(reader, key, () -> {
+            Ranking r = search.search(t);
+            return new QueryResultCache.Result(r.ids(), r.scores());
+        });
+
+        //nothing is scored for the topics answered by the cache
+        scoredDocuments.putIfAbsent(t.getQueryID(), 0L);
+
+        return new Ranking(t.getQueryID(), result.ids(), result.scores());
+    }
+
+    /**
+     * Creates the FSDM rescorer of the searcher
+     *
+     * @param poolDepth    the number of datasets of the unigram query to re-rank
+     * @param fieldWeights the weights of the fields in the FSDM features
+     * @return the rescorer
+     * @throws IOException if the statistics of the fields cannot be read.
+     */
+    private FSDMRescorer fsdmRescorer(int poolDepth, Map<String, Float> fieldWeights) throws IOException {
+        if (poolDepth < maxDatasetsRetrieved) {
+            throw new IllegalArgumentException("The pool depth cannot be less than the maximum number of documents to be retrieved.");
+        }
+        return new FSDMRescorer(searcher, analyzer, fieldWeights);
+    }
+
+    /**
+     * @param weights the weights of the fields, in the order of {@link Constants#queryFields}
+     * @return the weights of the fields, by field
+     */
+    private static Map<String, Float> fieldWeights(float[] weights) {
+        final Map<String, Float> fieldWeights = new LinkedHashMap<>();
+        for (int i = 0; i < Constants.queryFields.length; i++) {
+            fieldWeights.put(Constants.queryFields[i], weights[i]);
+        }
+        return fieldWeights;
+    }
+
+    /**
+     * Searches a topic with the given query
+     *
+     * @param t the topic
+     * @param q the query of the topic
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException if something goes wrong while searching.
+     */
+    private Ranking rank(QualityQuery t, Query q) throws IOException {
+
+        TopDocs docs = topDocs(t, q, maxDatasetsRetrieved);
+
+        return rank(t, docs.scoreDocs);
+    }
+
+    /**
+     * Searches the top hits of a topic with early termination: the query is flattened, so that the term queries of
+     * all the fields are pruned together, and the documents that cannot enter the top hits are skipped once the
+     * total hits threshold is reached. The number of scored documents is recorded for the topic.
+     *
+     * @param t the topic
+     * @param q the query of the topic
+     * @param k the number of hits to retrieve
+     * @return the top hits
+     * @throws IOException if something goes wrong while searching.
+     */
+    private TopDocs topDocs(QualityQuery t, Query q, int k) throws IOException {
+        return topDocs(searcher, t, q, k);
+    }
+
+    /**
+     * Searches the top hits of a topic with early termination, as {@link #topDocs(QualityQuery, Query, int)}, with
+     * the given searcher
+     *
+     * @param searcher the searcher
+     * @param t        the topic
+     * @param q        the query of the topic
+     * @param k        the number of hits to retrieve
+     * @return the top hits
+     * @throws IOException if something goes wrong while searching.
+     */
+    private TopDocs topDocs(IndexSearcher searcher, QualityQuery t, Query q, int k) throws IOException {
+
+        TopKCollectorManager manager = new TopKCollectorManager(k, totalHitsThreshold);
+        TopDocs docs = searcher.search(CustomQueryParser.flatten(q), manager);
+
+        scoredDocuments.merge(t.getQueryID(), manager.getScoredDocuments(), Long::sum);
+
+        return docs;
+    }
+
+    /**
+     * Prints the average number of documents scored per topic
+     */
+    private void printScoredDocuments() {
+        long total = 0;
+        for (long n : scoredDocuments.values()) {
+            total += n;
+        }
+        System.out.printf("%d document(s) scored per topic on average.%n", scoredDocuments.isEmpty() ? 0 : total / scoredDocuments.size());
+    }
+
+    /**
+     * Resolves the datasets of the hits of a topic
+     *
+     * @param t  the topic
+     * @param sd the hits of the topic, in rank order
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    private Ranking rank(QualityQuery t, ScoreDoc[] sd) throws IOException {
+
+        //the dataset identifiers of the hits, read from the doc values, with the duplicated datasets flagged
+        DatasetIdResolver.ResolvedIds docIDs = idResolver.resolve(sd);
+
+        String[] ids = new String[sd.length];
+        float[] scores = new float[sd.length];
+        int n = 0;
+
+        for (int j = 0; j < sd.length; j++) {
+
+            //skip the datasets already retrieved
+            if (!docIDs.duplicates()[j]) {
+                ids[n] = docIDs.ids()[j];
+                scores[n] = sd[j].score;
+                n++;
+            }
+        }
+
+        return new Ranking(t.getQueryID(), Arrays.copyOf(ids, n), Arrays.copyOf(scores, n));
+    }
+
+    /**
+     * Checks that the similarity of the searcher is BM25
+     *
+     * @throws IllegalStateException if the similarity is not a {@code BM25Similarity}.
+     */
+    private void checkBM25() {
+        if (!(searcher.getSimilarity() instanceof BM25Similarity)) {
+            throw new IllegalStateException("BM25F requires a BM25 similarity.");
+        }
+    }
+
+    /**
+     * Checks that the searcher has a run to write
+     *
+     * @throws IllegalStateException if the searcher was created without run path.
+     */
+    private void checkRunFile() {
+        if (runFile == null) {
+            throw new IllegalStateException("No run path given: the searcher can only evaluate the topics.");
+        }
+    }
+
+    /**
+     * Searches all the topics and passes their results to the sink, in the order of the topics.
+     * If a topic executor is set the topics are searched in parallel, otherwise one after another.
+     *
+     * @param search the search of a single topic
+     * @param sink   the consumer of the results of every topic
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    private <T> void searchTopics(TopicSearch<T> search, Consumer<T> sink) throws IOException, ParseException {
+
+        scoredDocuments.clear();
+
+        if (topicExecutor == null) {
+            for (QualityQuery t : topics) {
+                sink.accept(search.search(t));
+            }
+            return;
+        }
+
+        //submit all the topics and then collect the results in the order of the topics
+        List<Future<T>> results = new ArrayList<>(topics.length);
+        for (QualityQuery t : topics) {
+            results.add(topicExecutor.submit(() -> search.search(t)));
+        }
+
+        try {
+            for (Future<T> result : results) {
+                sink.accept(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching the topics.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            if (e.getCause() instanceof ParseException pe) {
+                throw pe;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            //stop the remaining topics in case of errors
+            for (Future<T> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Writes the results of a topic in the run
+     *
+     * @param runDefault the run where to write the results
+     * @param lines      the lines of the run for the topic
+     */
+    private void writeTopic(PrintWriter runDefault, List<String> lines) {
+        for (String line : lines) {
+            runDefault.print(line);
+        }
+        run.flush();
+        runDefault.flush();
+    }
+
+    /**
+     * The datasets retrieved for a topic, in rank order
+     *
+     * @param topicID the identifier of the topic
+     * @param ids     the dataset identifiers
+     * @param scores  the scores of the datasets
+     */
+    private record Ranking(String topicID, String[] ids, float[] scores) {
+    }
+
+    /**
+     * The search of a single topic
+     *
+     * @param <T> the type of the results of the search
+     */
+    @FunctionalInterface
+    private interface TopicSearch<T> {
+
+        /**
+         * @param t the topic to search
+         * @return the results for the topic
+         * @throws IOException    if something goes wrong while searching.
+         * @throws ParseException if something goes wrong while parsing the topic.
+         */
+        T search(QualityQuery t) throws IOException, ParseException;
+    }
+
     /**
      * The fields of the TREC topics.
      *
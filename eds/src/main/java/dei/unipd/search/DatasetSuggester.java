@@ -0,0 +1,605 @@
+package dei.unipd.search;
+
+import dei.unipd.parse.ParsedDataset;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * As-you-type suggestions over the titles and the tags of the datasets.
+ * <p>
+ * The suggestions are looked up with an {@link AnalyzingInfixSuggester} held in memory: the words of the prefix
+ * complete the words of a suggestion anywhere in it, the last one as a prefix unless it is followed by a space, so a
+ * prefix also matches the middle of a title ({@code quality} suggests {@code Water quality measurements}), and the
+ * suggestions with the highest weight come first. The field of a suggestion is its payload.
+ * <p>
+ * The weight of a suggestion is the sum, over the datasets with that title or tag, of one plus the popularity of the
+ * dataset, given by a configurable signal (e.g. the clicks or the downloads of the datasets, see
+ * {@link #readPopularity(Path)}): a tag shared by many datasets or the title of a popular dataset comes first.
+ * <p>
+ * A text that is both a title and a tag is suggested once, with the sum of its weights and the field where its
+ * weight is the highest.
+ * <p>
+ * The suggester follows the index incrementally: the suggestions are read once per segment and
+ * {@link #update(IndexReader)} only reads the new segments and the ones with new deletions, and only adds, updates
+ * or removes their suggestions in the lookup. The lookups never wait for an update; updates are meant to run in the
+ * background, e.g. after the refresh of a searcher manager.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class DatasetSuggester {
+
+    /**
+     * Default number of suggestions
+     */
+    public static final int DEFAULT_K = 10;
+
+    /**
+     * The fields of the suggestions
+     */
+    private static final List<String> FIELDS = List.of(ParsedDataset.FIELDS.TITLE, ParsedDataset.FIELDS.TAGS);
+
+    /**
+     * Maximum weight of a suggestion
+     */
+    private static final long MAX_WEIGHT = Integer.MAX_VALUE;
+
+    /**
+     * Maximum length, in characters, of a suggestion
+     */
+    private static final int MAX_LENGTH = 200;
+
+    /**
+     * The analyzer of the suggestions and of the prefixes: no stop words, since a title can start with one
+     */
+    private static final Analyzer ANALYZER = new StandardAnalyzer(CharArraySet.EMPTY_SET);
+
+    /**
+     * The popularity of the datasets, by dataset identifier
+     */
+    private final ToLongFunction<String> popularity;
+
+    /**
+     * The suggestions of every segment, by core of the segment
+     */
+    private final Map<Object, SegmentSuggestions> segments = new HashMap<>();
+
+    /**
+     * The weight of every suggestion in all the segments
+     */
+    private final Map<Suggestion, Long> totals = new HashMap<>();
+
+    /**
+     * The entries of the lookup, by text
+     */
+    private final Map<String, Suggestion> entries = new HashMap<>();
+
+    /**
+     * The reader of the last update
+     */
+    private IndexReader.CacheKey lastReader = null;
+
+    /**
+     * The current lookup, replaced only when it is built from scratch
+     */
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Creates a new suggester weighting the suggestions by the number of datasets
+     */
+    public DatasetSuggester() {
+        this(id -> 0);
+    }
+
+    /**
+     * Creates a new suggester
+     *
+     * @param popularity the popularity of the datasets, by dataset identifier, greater than or equal to zero
+     * @throws NullPointerException if the popularity is {@code null}.
+     */
+    public DatasetSuggester(final ToLongFunction<String> popularity) {
+
+        if (popularity == null) {
+            throw new NullPointerException("Popularity cannot be null.");
+        }
+
+        this.popularity = popularity;
+    }
+
+    /**
+     * Reads the popularity of the datasets from a file with a dataset identifier and a count (e.g. of clicks or
+     * downloads) per line, separated by a tab. The datasets not in the file have popularity zero.
+     *
+     * @param file the file of the popularity
+     * @return the popularity of the datasets
+     * @throws IOException if the file cannot be read.
+     */
+    public static ToLongFunction<String> readPopularity(final Path file) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Popularity file cannot be null.");
+        }
+
+        final Map<String, Long> counts = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] cols = line.split("\t");
+                if (cols.length >= 2) {
+                    try {
+                        counts.merge(cols[0].trim(), Math.max(0, Long.parseLong(cols[1].trim())), Long::sum);
+                    } catch (NumberFormatException e) {
+                        //a line without a count, e.g. the header, is skipped
+                    }
+                }
+            }
+        }
+        return id -> counts.getOrDefault(id, 0L);
+    }
+
+    /**
+     * Brings the suggestions up to date with a version of the index: only the segments added or with new deletions
+     * since the last update are read, and only the suggestions of those segments are added, updated or removed in
+     * the lookup. The lookup is built from scratch only the first time and when no segment of the last update is
+     * left (e.g. after a force merge or on a different index). Nothing is done if the reader is the one of the last
+     * update.
+     *
+     * @param reader the reader of the index
+     * @return true if the suggestions changed
+     * @throws IOException if the index cannot be read.
+     */
+    public synchronized boolean update(final IndexReader reader) throws IOException {
+        return update(reader, false);
+    }
+
+    /**
+     * Reads all the suggestions again and builds a new lookup, e.g. when the popularity of the datasets changed
+     *
+     * @param reader the reader of the index
+     * @throws IOException if the index cannot be read.
+     */
+    public synchronized void rebuild(final IndexReader reader) throws IOException {
+        segments.clear();
+        totals.clear();
+        entries.clear();
+        lastReader = null;
+        update(reader, true);
+    }
+
+    /**
+     * Brings the suggestions up to date with a version of the index
+     *
+     * @param reader the reader of the index
+     * @param full   whether to build the lookup from scratch
+     * @return true if the suggestions changed
+     * @throws IOException if the index cannot be read.
+     */
+    private boolean update(final IndexReader reader, boolean full) throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        final IndexReader.CacheHelper readerHelper = reader.getReaderCacheHelper();
+        if (readerHelper != null && readerHelper.getKey() == lastReader) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        final Set<String> changed = new HashSet<>();
+        int read = 0;
+        boolean kept = false;
+        final Set<Object> current = new HashSet<>();
+        for (LeafReaderContext ctx : reader.leaves()) {
+            final LeafReader leaf = ctx.reader();
+            final IndexReader.CacheHelper coreHelper = leaf.getCoreCacheHelper();
+            //without a core key the segment cannot be recognized and is read every time
+            final Object key = coreHelper != null ? coreHelper.getKey() : new Object();
+            current.add(key);
+
+            final SegmentSuggestions known = segments.get(key);
+            if (known == null || known.deletedDocs != leaf.numDeletedDocs()) {
+                final SegmentSuggestions suggestions = read(leaf);
+                if (known != null) {
+                    merge(known, -1, changed);
+                }
+                merge(suggestions, 1, changed);
+                segments.put(key, suggestions);
+                read++;
+            }
+            kept |= known != null;
+        }
+
+        final Iterator<Map.Entry<Object, SegmentSuggestions>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Object, SegmentSuggestions> e = it.next();
+            if (!current.contains(e.getKey())) {
+                merge(e.getValue(), -1, changed);
+                it.remove();
+            }
+        }
+        lastReader = readerHelper != null ? readerHelper.getKey() : null;
+
+        for (String text : changed) {
+            final Suggestion entry = entry(text);
+            if (entry != null) {
+                entries.put(text, entry);
+            } else {
+                entries.remove(text);
+            }
+        }
+
+        full |= snapshot.suggester == null || !kept;
+        if (!full && changed.isEmpty()) {
+            return false;
+        }
+
+        if (full) {
+            final Snapshot old = snapshot;
+            snapshot = build();
+            //the old suggester is closed once the lookups still reading it are done
+            old.decRef();
+        } else {
+            final InfixSuggester suggester = snapshot.suggester;
+            for (String text : changed) {
+                final Suggestion entry = entries.get(text);
+                if (entry != null) {
+                    suggester.update(new BytesRef(text), null, Math.min(entry.weight(), MAX_WEIGHT),
+                            new BytesRef(entry.field()));
+                } else {
+                    suggester.remove(new BytesRef(text));
+                }
+            }
+            suggester.refresh();
+        }
+
+        System.out.printf("Suggester %s in %d ms: %d segment(s) read, %d suggestion(s) changed, %s%n",
+                full ? "built" : "updated", (System.nanoTime() - start) / 1_000_000, read, changed.size(), this);
+        return true;
+    }
+
+    /**
+     * Adds the weights of the suggestions of a segment to the total weights, or subtracts them
+     *
+     * @param suggestions the suggestions of the segment
+     * @param sign        1 to add the weights, -1 to subtract them
+     * @param changed     the texts of the changed suggestions
+     */
+    private void merge(SegmentSuggestions suggestions, int sign, Set<String> changed) {
+        suggestions.weights.forEach((suggestion, w) -> {
+            //a total of zero removes the suggestion
+            totals.merge(suggestion, sign * w, (a, b) -> a + b == 0 ? null : a + b);
+            changed.add(suggestion.text());
+        });
+    }
+
+    /**
+     * @return the entry of a text in the lookup: the sum of its weights in all the fields, with the field where it
+     * has the highest weight; {@code null} if the text is no longer in the index
+     */
+    private Suggestion entry(String text) {
+        String field = null;
+        long weight = 0;
+        long best = 0;
+        for (String f : FIELDS) {
+            final Long w = totals.get(new Suggestion(text, f, 0));
+            if (w != null) {
+                weight += w;
+                if (w > best) {
+                    best = w;
+                    field = f;
+                }
+            }
+        }
+        return field == null ? null : new Suggestion(text, field, weight);
+    }
+
+    /**
+     * Reads the suggestions of a segment
+     */
+    private SegmentSuggestions read(LeafReader leaf) throws IOException {
+
+        final Map<Suggestion, Long> weights = new HashMap<>();
+        final Bits live = leaf.getLiveDocs();
+        final List<String[]> values = new ArrayList<>();
+        final String[] id = new String[1];
+        final StoredFieldVisitor visitor = new StoredFieldVisitor() {
+            @Override
+            public Status needsField(FieldInfo fieldInfo) {
+                return FIELDS.contains(fieldInfo.name) || fieldInfo.name.equals(ParsedDataset.FIELDS.ID)
+                        ? Status.YES : Status.NO;
+            }
+
+            @Override
+            public void stringField(FieldInfo fieldInfo, String value) {
+                if (fieldInfo.name.equals(ParsedDataset.FIELDS.ID)) {
+                    id[0] = value;
+                } else {
+                    values.add(new String[]{fieldInfo.name, value});
+                }
+            }
+        };
+
+        final Set<Suggestion> docSuggestions = new HashSet<>();
+        for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+            if (live != null && !live.get(doc)) {
+                continue;
+            }
+
+            values.clear();
+            id[0] = null;
+            leaf.document(doc, visitor);
+
+            final long weight = 1 + (id[0] != null ? Math.max(0, popularity.applyAsLong(id[0])) : 0);
+
+            docSuggestions.clear();
+            for (String[] value : values) {
+                final String text = value[1].strip().replaceAll("\\s+", " ");
+                if (!text.isEmpty() && text.length() <= MAX_LENGTH
+                        && text.codePoints().anyMatch(Character::isLetterOrDigit)) {
+                    docSuggestions.add(new Suggestion(text, value[0], 0));
+                }
+            }
+            for (Suggestion s : docSuggestions) {
+                weights.merge(s, weight, Long::sum);
+            }
+        }
+
+        return new SegmentSuggestions(leaf.numDeletedDocs(), weights);
+    }
+
+    /**
+     * Builds a new lookup of all the entries
+     */
+    private Snapshot build() throws IOException {
+
+        final Iterator<Suggestion> it = entries.values().iterator();
+        final InputIterator input = new InputIterator() {
+
+            private Suggestion current;
+
+            @Override
+            public BytesRef next() {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                current = it.next();
+                return new BytesRef(current.text());
+            }
+
+            @Override
+            public long weight() {
+                return Math.min(current.weight(), MAX_WEIGHT);
+            }
+
+            @Override
+            public BytesRef payload() {
+                return new BytesRef(current.field());
+            }
+
+            @Override
+            public boolean hasPayloads() {
+                return true;
+            }
+
+            @Override
+            public Set<BytesRef> contexts() {
+                return null;
+            }
+
+            @Override
+            public boolean hasContexts() {
+                return false;
+            }
+        };
+
+        final ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        final InfixSuggester suggester = new InfixSuggester(directory);
+        try {
+            suggester.build(input);
+        } catch (IOException | RuntimeException e) {
+            suggester.close();
+            throw e;
+        }
+        return new Snapshot(suggester, directory);
+    }
+
+    /**
+     * Returns the best suggestions completing a prefix, the ones with the highest weight first
+     *
+     * @param prefix the prefix typed so far; a trailing space completes only whole words
+     * @param k      the maximum number of suggestions
+     * @return the suggestions
+     * @throws IllegalArgumentException if the number of suggestions is less than or equal to zero.
+     * @throws IOException              if the suggestions cannot be read.
+     */
+    public List<Suggestion> lookup(final String prefix, final int k) throws IOException {
+
+        if (prefix == null) {
+            throw new NullPointerException("Prefix cannot be null.");
+        }
+
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of suggestions cannot be less than or equal to zero.");
+        }
+
+        if (prefix.codePoints().noneMatch(Character::isLetterOrDigit)) {
+            return List.of();
+        }
+
+        //a lookup keeps the suggester open while it reads it, even if an update replaces it meanwhile
+        Snapshot s;
+        do {
+            s = snapshot;
+            if (s.suggester == null) {
+                return List.of();
+            }
+        } while (!s.tryIncRef());
+
+        try {
+            final List<Lookup.LookupResult> results = s.suggester.lookup(prefix, k, true, false);
+            final List<Suggestion> suggestions = new ArrayList<>(results.size());
+            for (Lookup.LookupResult result : results) {
+                suggestions.add(new Suggestion(result.key.toString(), result.payload.utf8ToString(), result.value));
+            }
+            return suggestions;
+        } finally {
+            s.decRef();
+        }
+    }
+
+    /**
+     * @return the number of suggestions
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the size of the suggestions in memory, in bytes
+     */
+    public long ramBytesUsed() {
+        Snapshot s;
+        do {
+            s = snapshot;
+            if (s.directory == null) {
+                return 0;
+            }
+        } while (!s.tryIncRef());
+
+        long bytes = 0;
+        try {
+            for (String file : s.directory.listAll()) {
+                bytes += s.directory.fileLength(file);
+            }
+        } catch (IOException e) {
+            //the size is an estimate, a file being merged away is not counted
+        } finally {
+            try {
+                s.decRef();
+            } catch (IOException e) {
+                System.out.printf("Cannot close the replaced suggester: %s%n", e.getMessage());
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DatasetSuggester[suggestions=%d, size=%d KB]", size(), ramBytesUsed() / 1024);
+    }
+
+    /**
+     * A suggestion
+     *
+     * @param text   the text of the title or of the tag
+     * @param field  the field of the suggestion: the title or the tags
+     * @param weight the weight of the suggestion, 0 while it is read from a segment
+     */
+    public record Suggestion(String text, String field, long weight) {
+    }
+
+    /**
+     * The suggestions of a segment
+     *
+     * @param deletedDocs the number of deleted documents of the segment when it was read
+     * @param weights     the weight of the suggestions in the segment
+     */
+    private record SegmentSuggestions(int deletedDocs, Map<Suggestion, Long> weights) {
+    }
+
+    /**
+     * The lookup of the suggestions, with the removal of a suggestion
+     */
+    private static final class InfixSuggester extends AnalyzingInfixSuggester {
+
+        /**
+         * Creates a new lookup, keeping its index writer open after the build for the incremental updates
+         *
+         * @param directory the in-memory index of the lookup
+         */
+        InfixSuggester(ByteBuffersDirectory directory) throws IOException {
+            super(directory, ANALYZER, ANALYZER, DEFAULT_MIN_PREFIX_CHARS, false, DEFAULT_ALL_TERMS_REQUIRED,
+                    DEFAULT_HIGHLIGHT, false);
+        }
+
+        /**
+         * Removes a suggestion, visible after the next {@link #refresh()}
+         *
+         * @param text the text of the suggestion
+         */
+        void remove(BytesRef text) throws IOException {
+            if (writer != null) {
+                writer.deleteDocuments(new Term(EXACT_TEXT_FIELD_NAME, text));
+            }
+        }
+    }
+
+    /**
+     * A built lookup of the suggestions, closed when it is replaced and no lookup reads it anymore
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(null, null);
+
+        /**
+         * The lookup, {@code null} if it was not built yet
+         */
+        final InfixSuggester suggester;
+
+        /**
+         * The in-memory index of the lookup
+         */
+        final ByteBuffersDirectory directory;
+
+        /**
+         * References to the lookup: one held by the suggester until it is replaced, plus one for each lookup reading it
+         */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Snapshot(InfixSuggester suggester, ByteBuffersDirectory directory) {
+            this.suggester = suggester;
+            this.directory = directory;
+        }
+
+        /**
+         * @return {@code true} if a reference was acquired, {@code false} if the lookup was already released
+         */
+        boolean tryIncRef() {
+            int n;
+            while ((n = refs.get()) > 0) {
+                if (refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Releases a reference, closing the lookup when it was the last one
+         */
+        void decRef() throws IOException {
+            if (suggester != null && refs.decrementAndGet() == 0) {
+                suggester.close();
+            }
+        }
+    }
+}
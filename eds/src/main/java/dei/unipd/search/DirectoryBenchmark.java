@@ -0,0 +1,133 @@
+package dei.unipd.search;
+
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.index.DirectoryFactory;
+import dei.unipd.index.thread.IndexSetup;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Benchmarks the types of directory of {@link DirectoryFactory}: the same collection is indexed and searched with
+ * each of them.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class DirectoryBenchmark {
+
+    private DirectoryBenchmark() {
+    }
+
+    /**
+     * @return the total size, in bytes, of the files of a directory
+     */
+    private static long sizeOf(Directory dir) throws IOException {
+        long bytes = 0;
+        for (String file : dir.listAll()) {
+            bytes += dir.fileLength(file);
+        }
+        return bytes;
+    }
+
+    /**
+     * Benchmarks the types of directory: for each type the collection is indexed in its own sub-directory of the
+     * index path, the index is opened and the queries are searched twice, the first time on the freshly opened
+     * index and the second time on the warm one.
+     * <p>
+     * Note that the disk based types find the index just written in the page cache, unless it is dropped between
+     * the indexing and the search.
+     *
+     * @param args the datasets directory (default {@link Constants#datasetsDirectoryPathTest}), the index path
+     *             (default {@link Constants#indexPathSSD}), the queries file (default {@link Constants#queryPath}),
+     *             the number of datasets (default 100) and the types to compare (default all of them).
+     * @throws Exception if something goes wrong while indexing or searching.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String datasetsPath = args.length > 0 ? args[0] : Constants.datasetsDirectoryPathTest;
+        final Path indexRoot = Paths.get(args.length > 1 ? args[1] : Constants.indexPathSSD, "directory-benchmark");
+        final String queriesPath = args.length > 2 ? args[2] : Constants.queryPath;
+        final int expectedDatasets = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        final List<DirectoryFactory.Type> types = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            types.add(DirectoryFactory.Type.forName(args[i]));
+        }
+        if (types.isEmpty()) {
+            types.addAll(Arrays.asList(DirectoryFactory.Type.values()));
+        }
+
+        final Analyzer analyzer = LocalNameAnalyzer.forIndex();
+        final List<String> queries = LoadGenerator.readTopics(Paths.get(queriesPath), Integer.MAX_VALUE, 42);
+
+        final Map<String, Float> boosts = new HashMap<>();
+        for (int i = 0; i < Constants.queryFields.length; i++) {
+            boosts.put(Constants.queryFields[i], Constants.BM25BoostWeights[i]);
+        }
+
+        final List<String> results = new ArrayList<>();
+        for (DirectoryFactory.Type type : types) {
+            final Path indexDir = indexRoot.resolve(type.name().toLowerCase(Locale.ROOT));
+            Files.createDirectories(indexDir);
+
+            final IndexSetup setup = new IndexSetup(analyzer, 256, indexDir.toString(), datasetsPath, "UTF-8",
+                    expectedDatasets, indexRoot.resolve("indexer_log.txt").toString());
+            setup.setDirectoryType(type);
+
+            long start = System.nanoTime();
+            setup.setupAndRunIndexing();
+            final double indexMillis = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            try (Directory dir = DirectoryFactory.open(type, indexDir); IndexReader reader = DirectoryReader.open(dir)) {
+                final double openMillis = (System.nanoTime() - start) / 1e6;
+
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                final QueryParser parser = new MultiFieldQueryParser(Constants.queryFields, analyzer, boosts);
+                final double coldMillis = search(searcher, parser, queries);
+                final double warmMillis = search(searcher, parser, queries);
+
+                results.add(String.format("%-12s index %10.1f ms  size %8d KB  open %8.1f ms  search cold %8.3f ms/query  warm %8.3f ms/query",
+                        type, indexMillis, sizeOf(dir) / 1024, openMillis, coldMillis, warmMillis));
+            }
+
+            DirectoryFactory.release(indexDir);
+        }
+
+        System.out.printf("%n#### Directory benchmark: %d queries ####%n", queries.size());
+        results.forEach(System.out::println);
+    }
+
+    /**
+     * Searches all the queries and returns the mean time per query, in milliseconds
+     */
+    private static double search(IndexSearcher searcher, QueryParser parser, List<String> queries) throws IOException {
+
+        final long start = System.nanoTime();
+        for (String text : queries) {
+            final Query query;
+            try {
+                query = parser.parse(QueryParser.escape(text));
+            } catch (ParseException e) {
+                continue;
+            }
+            searcher.search(query, 100);
+        }
+        return queries.isEmpty() ? 0 : (System.nanoTime() - start) / 1e6 / queries.size();
+    }
+}
@@ -0,0 +1,581 @@
+package dei.unipd.search;
+
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.index.DirectoryFactory;
+import dei.unipd.parse.ParsedDataset;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.FSTCompiler;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Links the mentions of the entities and classes of the datasets in the text of a query.
+ * <p>
+ * The dictionary of the linker is built from the index: every value of the {@link ParsedDataset.FIELDS#ENTITIES} and
+ * {@link ParsedDataset.FIELDS#CLASSES} fields is analyzed as the indexer does, so an entry is the sequence of terms
+ * of a local name, e.g. {@code NovaScotia} &rarr; {@code nova scotia}. The entries are kept in an FST, whose output
+ * is the number of datasets containing the entry together with the fields it comes from; a dictionary of millions of
+ * names takes a few megabytes and can be {@linkplain #save(Path) saved} and {@linkplain #load(Path, Analyzer) loaded}
+ * instead of being built again.
+ * <p>
+ * The query is analyzed as the entity fields and scanned from left to right: at every position the longest entry
+ * starting there is taken and the scan resumes after it. Every mention becomes a term clause, if it is a single term,
+ * or a phrase clause on the fields it comes from, boosted over the weights of the fields, so that the datasets
+ * containing the whole entity rank above the ones merely containing its words.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class EntityLinker {
+
+    /**
+     * Default minimum number of datasets containing an entry
+     */
+    public static final int DEFAULT_MIN_DOC_FREQ = 1;
+
+    /**
+     * Default maximum fraction of the datasets containing an entry: names found almost everywhere do not identify
+     * anything
+     */
+    public static final double DEFAULT_MAX_DOC_RATIO = 0.5;
+
+    /**
+     * Default maximum number of terms of an entry
+     */
+    public static final int DEFAULT_MAX_TERMS = 6;
+
+    /**
+     * Default boost of the linked clauses, over the weights of the fields
+     */
+    public static final float DEFAULT_BOOST = 2f;
+
+    /**
+     * Minimum length of an entry made of a single term, shorter terms are mostly noise
+     */
+    private static final int MIN_TERM_LENGTH = 3;
+
+    /**
+     * Separator of the terms of an entry, the local names analyzer never produces it inside a term
+     */
+    private static final byte SEPARATOR = ' ';
+
+    /**
+     * Number of bits of the output of an entry used for the fields
+     */
+    private static final int FIELD_BITS = 8;
+
+    /**
+     * The dictionary: the terms of an entry, separated by {@link #SEPARATOR}, mapped to its number of datasets and
+     * its fields. {@code null} if the dictionary is empty
+     */
+    private final FST<Long> fst;
+
+    /**
+     * The fields of the entries, the i-th bit of the output of an entry is set if the entry comes from the i-th field
+     */
+    private final List<String> fields;
+
+    /**
+     * Number of entries of the dictionary
+     */
+    private final long entries;
+
+    /**
+     * The analyzer of the queries, the same used to index the fields
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * Maximum number of terms of an entry
+     */
+    private final int maxTerms;
+
+    /**
+     * Boost of the linked clauses
+     */
+    private float boost = DEFAULT_BOOST;
+
+    private EntityLinker(FST<Long> fst, List<String> fields, long entries, int maxTerms, Analyzer analyzer) {
+        this.fst = fst;
+        this.fields = List.copyOf(fields);
+        this.entries = entries;
+        this.maxTerms = maxTerms;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Builds the dictionary of the entities and the classes of an index with the default settings
+     *
+     * @param reader   the reader of the index
+     * @param analyzer the analyzer used to index the fields
+     * @return the entity linker
+     * @throws IOException if the index cannot be read.
+     */
+    public static EntityLinker build(final IndexReader reader, final Analyzer analyzer) throws IOException {
+        return build(reader, analyzer, List.of(ParsedDataset.FIELDS.ENTITIES, ParsedDataset.FIELDS.CLASSES),
+                DEFAULT_MIN_DOC_FREQ, DEFAULT_MAX_DOC_RATIO, DEFAULT_MAX_TERMS);
+    }
+
+    /**
+     * Builds the dictionary of some fields of an index
+     *
+     * @param reader      the reader of the index
+     * @param analyzer    the analyzer used to index the fields
+     * @param fields      the fields of the entries
+     * @param minDocFreq  the minimum number of datasets containing an entry
+     * @param maxDocRatio the maximum fraction of the datasets containing an entry
+     * @param maxTerms    the maximum number of terms of an entry
+     * @return the entity linker
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if the index cannot be read.
+     */
+    public static EntityLinker build(final IndexReader reader, final Analyzer analyzer, final List<String> fields,
+                                     final int minDocFreq, final double maxDocRatio, final int maxTerms)
+            throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (fields == null) {
+            throw new NullPointerException("Fields cannot be null.");
+        }
+
+        if (fields.isEmpty() || fields.size() > FIELD_BITS) {
+            throw new IllegalArgumentException(String.format("Expected from 1 to %d fields, found %d.", FIELD_BITS,
+                    fields.size()));
+        }
+
+        if (minDocFreq <= 0) {
+            throw new IllegalArgumentException("The minimum document frequency cannot be less than or equal to zero.");
+        }
+
+        if (!(maxDocRatio > 0) || maxDocRatio > 1) {
+            throw new IllegalArgumentException(String.format("Invalid maximum document ratio %s.", maxDocRatio));
+        }
+
+        if (maxTerms <= 0) {
+            throw new IllegalArgumentException("The maximum number of terms cannot be less than or equal to zero.");
+        }
+
+        final long start = System.currentTimeMillis();
+
+        //number of datasets and fields of every entry
+        final Map<String, long[]> stats = new HashMap<>();
+        final Map<String, Integer> docEntries = new HashMap<>();
+        final ValuesVisitor visitor = new ValuesVisitor(fields);
+
+        for (LeafReaderContext ctx : reader.leaves()) {
+            final LeafReader leaf = ctx.reader();
+            final Bits live = leaf.getLiveDocs();
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (live != null && !live.get(doc)) {
+                    continue;
+                }
+
+                visitor.values.clear();
+                leaf.document(doc, visitor);
+
+                docEntries.clear();
+                for (Map.Entry<String, Integer> value : visitor.values) {
+                    final List<String> terms = analyze(analyzer, fields.get(value.getValue()), value.getKey());
+                    if (terms.isEmpty() || terms.size() > maxTerms
+                            || (terms.size() == 1 && terms.get(0).length() < MIN_TERM_LENGTH)) {
+                        continue;
+                    }
+                    docEntries.merge(String.join(" ", terms), 1 << value.getValue(), (a, b) -> a | b);
+                }
+
+                for (Map.Entry<String, Integer> e : docEntries.entrySet()) {
+                    final long[] s = stats.computeIfAbsent(e.getKey(), k -> new long[2]);
+                    s[0]++;
+                    s[1] |= e.getValue();
+                }
+            }
+        }
+
+        //the entries have to be added to the FST in byte order
+        final long maxDocFreq = Math.max(minDocFreq, (long) (maxDocRatio * reader.numDocs()));
+        final List<BytesRef> keys = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : stats.entrySet()) {
+            final long df = e.getValue()[0];
+            if (df >= minDocFreq && df <= maxDocFreq) {
+                keys.add(new BytesRef(e.getKey()));
+            }
+        }
+        Collections.sort(keys);
+
+        final FSTCompiler<Long> compiler = new FSTCompiler<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        final IntsRefBuilder scratch = new IntsRefBuilder();
+        for (BytesRef key : keys) {
+            final long[] s = stats.get(key.utf8ToString());
+            compiler.add(Util.toIntsRef(key, scratch), (s[0] << FIELD_BITS) | s[1]);
+        }
+        final FST<Long> fst = compiler.compile();
+
+        final EntityLinker linker = new EntityLinker(fst, fields, keys.size(), maxTerms, analyzer);
+        System.out.printf("Entity dictionary built in %d ms: %s%n", System.currentTimeMillis() - start, linker);
+        return linker;
+    }
+
+    /**
+     * Analyzes a text as a field, the stacked tokens (e.g. the original local names) are discarded
+     *
+     * @return the terms of the text
+     */
+    private static List<String> analyze(Analyzer analyzer, String field, String text) throws IOException {
+        final List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            final CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                if (posInc.getPositionIncrement() > 0 || terms.isEmpty()) {
+                    terms.add(term.toString());
+                }
+            }
+            ts.end();
+        }
+        return terms;
+    }
+
+    /**
+     * Saves the dictionary to a file
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(final Path file) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Dictionary file cannot be null.");
+        }
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            final OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+            out.writeVInt(fields.size());
+            for (String field : fields) {
+                out.writeString(field);
+            }
+            out.writeVInt(maxTerms);
+            out.writeVLong(entries);
+            out.writeByte((byte) (fst != null ? 1 : 0));
+            if (fst != null) {
+                fst.save(out, out);
+            }
+        }
+    }
+
+    /**
+     * Loads the dictionary of an index saved with {@link #save(Path)} or, if the file does not exist, builds it with
+     * the default settings and saves it to the file
+     *
+     * @param file      the file of the dictionary
+     * @param indexPath the path of the index, opened with the default {@link DirectoryFactory} type
+     * @param analyzer  the analyzer used to index the fields
+     * @return the entity linker
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     * @throws IOException          if the dictionary or the index cannot be read or the dictionary cannot be saved.
+     */
+    public static EntityLinker loadOrBuild(final Path file, final Path indexPath, final Analyzer analyzer)
+            throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Dictionary file cannot be null.");
+        }
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (Files.exists(file)) {
+            final EntityLinker linker = load(file, analyzer);
+            System.out.printf("Entity dictionary loaded: %s%n", linker);
+            return linker;
+        }
+
+        final EntityLinker linker;
+        try (Directory dir = DirectoryFactory.open(indexPath); IndexReader reader = DirectoryReader.open(dir)) {
+            linker = build(reader, analyzer);
+        }
+        linker.save(file);
+        System.out.printf("Entity dictionary built and saved to %s: %s%n", file, linker);
+        return linker;
+    }
+
+    /**
+     * Loads a dictionary saved with {@link #save(Path)}
+     *
+     * @param file     the file
+     * @param analyzer the analyzer used to index the fields
+     * @return the entity linker
+     * @throws IOException if the file cannot be read.
+     */
+    public static EntityLinker load(final Path file, final Analyzer analyzer) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Dictionary file cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+            final InputStreamDataInput in = new InputStreamDataInput(is);
+            final int n = in.readVInt();
+            final List<String> fields = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                fields.add(in.readString());
+            }
+            final int maxTerms = in.readVInt();
+            final long entries = in.readVLong();
+            final FST<Long> fst = in.readByte() != 0 ? new FST<>(in, in, PositiveIntOutputs.getSingleton()) : null;
+            return new EntityLinker(fst, fields, entries, maxTerms, analyzer);
+        }
+    }
+
+    /**
+     * Sets the boost of the linked clauses, over the weights of the fields
+     *
+     * @param boost the boost
+     * @throws IllegalArgumentException if the boost is less than or equal to zero.
+     */
+    public void setBoost(final float boost) {
+        if (!(boost > 0)) {
+            throw new IllegalArgumentException("The boost cannot be less than or equal to zero.");
+        }
+        this.boost = boost;
+    }
+
+    /**
+     * Finds the mentions of the entries of the dictionary in a text, taking the longest entry at every position
+     *
+     * @param text the text of the query
+     * @return the mentions, in the order of the text
+     * @throws IOException if the text cannot be analyzed.
+     */
+    public List<Mention> link(final String text) throws IOException {
+
+        if (text == null) {
+            throw new NullPointerException("Text cannot be null.");
+        }
+
+        if (fst == null) {
+            return List.of();
+        }
+
+        final List<String> terms = analyze(analyzer, fields.get(0), text);
+        final byte[][] bytes = new byte[terms.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = terms.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final List<Mention> mentions = new ArrayList<>();
+        final FST.BytesReader in = fst.getBytesReader();
+        final FST.Arc<Long> arc = new FST.Arc<>();
+
+        int i = 0;
+        while (i < bytes.length) {
+            int end = -1;
+            long match = 0;
+
+            fst.getFirstArc(arc);
+            long output = 0;
+            scan:
+            for (int j = i; j < bytes.length && j < i + maxTerms; j++) {
+                if (j > i) {
+                    if (fst.findTargetArc(SEPARATOR, arc, arc, in) == null) {
+                        break;
+                    }
+                    output += arc.output();
+                }
+                for (byte b : bytes[j]) {
+                    if (fst.findTargetArc(b & 0xFF, arc, arc, in) == null) {
+                        break scan;
+                    }
+                    output += arc.output();
+                }
+                if (arc.isFinal()) {
+                    end = j + 1;
+                    match = output + arc.nextFinalOutput();
+                }
+            }
+
+            if (end < 0) {
+                i++;
+                continue;
+            }
+
+            final List<String> mentionFields = new ArrayList<>(fields.size());
+            for (int f = 0; f < fields.size(); f++) {
+                if ((match & (1L << f)) != 0) {
+                    mentionFields.add(fields.get(f));
+                }
+            }
+            mentions.add(new Mention(List.copyOf(terms.subList(i, end)), i, end, mentionFields,
+                    match >>> FIELD_BITS));
+            i = end;
+        }
+
+        return mentions;
+    }
+
+    /**
+     * Builds the clauses of the mentions found in a text: a term or phrase query on every field of a mention,
+     * boosted by the weight of the field times the boost of the linker
+     *
+     * @param text         the text of the query
+     * @param fieldWeights the weights of the fields, the fields without weight are not searched
+     * @return the disjunction of the clauses, {@code null} if there are no mentions
+     * @throws IOException if the text cannot be analyzed.
+     */
+    public Query query(final String text, final Map<String, Float> fieldWeights) throws IOException {
+
+        if (fieldWeights == null) {
+            throw new NullPointerException("Field weights cannot be null.");
+        }
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        int clauses = 0;
+        for (Mention m : link(text)) {
+            for (String field : m.fields()) {
+                final Float weight = fieldWeights.get(field);
+                if (weight == null) {
+                    continue;
+                }
+
+                final Query q = m.terms().size() == 1 ? new TermQuery(new Term(field, m.terms().get(0)))
+                        : new PhraseQuery(field, m.terms().toArray(new String[0]));
+                bq.add(new BoostQuery(q, weight * boost), BooleanClause.Occur.SHOULD);
+                clauses++;
+            }
+        }
+        return clauses == 0 ? null : bq.build();
+    }
+
+    /**
+     * @return the number of entries of the dictionary
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the size of the dictionary in memory, in bytes
+     */
+    public long ramBytesUsed() {
+        return fst != null ? fst.ramBytesUsed() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntityLinker[fields=%s, entries=%d, size=%d KB, max terms=%d, boost=%s]", fields,
+                entries, ramBytesUsed() / 1024, maxTerms, boost);
+    }
+
+    /**
+     * Collects the stored values of the fields of the entries
+     */
+    private static final class ValuesVisitor extends StoredFieldVisitor {
+
+        private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+        /**
+         * The values of the visited document, each one with the index of its field
+         */
+        private final List<Map.Entry<String, Integer>> values = new ArrayList<>();
+
+        ValuesVisitor(List<String> fields) {
+            for (int i = 0; i < fields.size(); i++) {
+                fieldIndexes.put(fields.get(i), i);
+            }
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            return fieldIndexes.containsKey(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            values.add(Map.entry(value, fieldIndexes.get(fieldInfo.name)));
+        }
+    }
+
+    /**
+     * A mention of an entry of the dictionary in a text
+     *
+     * @param terms   the terms of the mention
+     * @param start   the position of the first term in the analyzed text
+     * @param end     the position after the last term in the analyzed text
+     * @param fields  the fields containing the entry
+     * @param docFreq the number of datasets containing the entry
+     */
+    public record Mention(List<String> terms, int start, int end, List<String> fields, long docFreq) {
+
+        @Override
+        public String toString() {
+            return String.format("\"%s\"%s df=%d", String.join(" ", terms), fields, docFreq);
+        }
+    }
+
+    /**
+     * Builds the dictionary of an index, saves it and links the queries
+     *
+     * @param args the index path (default {@link Constants#indexPath}), the dictionary file (default
+     *             {@code entities.fst} in the index path) and the queries file (default {@link Constants#queryPath}).
+     * @throws Exception if something goes wrong.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String indexPath = args.length > 0 ? args[0] : Constants.indexPath;
+        final Path dictionary = args.length > 1 ? Paths.get(args[1]) : Paths.get(indexPath, "entities.fst");
+        final Path queries = Paths.get(args.length > 2 ? args[2] : Constants.queryPath);
+
+        final Analyzer analyzer = LocalNameAnalyzer.forIndex();
+
+        final EntityLinker linker = loadOrBuild(dictionary, Paths.get(indexPath), analyzer);
+
+        final List<String> texts = LoadGenerator.readTopics(queries, Integer.MAX_VALUE, 42);
+        long nanos = 0;
+        long linked = 0;
+        for (String text : texts) {
+            final long start = System.nanoTime();
+            final List<Mention> mentions = linker.link(text);
+            nanos += System.nanoTime() - start;
+            if (!mentions.isEmpty()) {
+                linked++;
+                System.out.printf("%s -> %s%n", text, mentions);
+            }
+        }
+        System.out.printf("%d of %d queries linked, %.1f us per query%n", linked, texts.size(),
+                texts.isEmpty() ? 0 : nanos / 1e3 / texts.size());
+    }
+}
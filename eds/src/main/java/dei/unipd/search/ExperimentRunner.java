@@ -0,0 +1,304 @@
+package dei.unipd.search;
+
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a matrix of search configurations (similarity &times; field set &times; boost weights) against a single
+ * {@link IndexReader}: the index is opened and warmed once, the topics are read once and every configuration
+ * writes its own run file.
+ * <p>
+ * The full ACORDAR grid ({@link #runAll(String)}) is made of the BM25, LMDirichlet and TF-IDF similarities, the metadata
+ * {@code [m]}, content {@code [c]} and all {@code [m+c]} field sets, each one searched without boosting and with the
+ * boost weights of {@link Constants}. The boost weights of {@link Constants} are given in the order of
+ * {@link Constants#queryFields}: the first four are the metadata fields, the last four the content fields.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class ExperimentRunner implements Closeable {
+
+    /**
+     * The metadata fields
+     */
+    public static final String[] META_FIELDS = Arrays.copyOfRange(Constants.queryFields, 0, 4);
+
+    /**
+     * The content fields
+     */
+    public static final String[] CONTENT_FIELDS = Arrays.copyOfRange(Constants.queryFields, 4, 8);
+
+    /**
+     * All the fields
+     */
+    public static final String[] ALL_FIELDS = Constants.queryFields;
+
+    /**
+     * The analyzer used to parse the topics
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The shared index reader
+     */
+    private final IndexReader reader;
+
+    /**
+     * The resolver of the dataset identifiers, shared by all the configurations
+     */
+    private final DatasetIdResolver idResolver;
+
+    /**
+     * The topics, shared by all the configurations
+     */
+    private final QualityQuery[] topics;
+
+    /**
+     * The directory where the runs are written
+     */
+    private final String runPath;
+
+    /**
+     * The maximum number of datasets to retrieve
+     */
+    private final int maxDatasetsRetrieved;
+
+    /**
+     * The executor for the topics, can be {@code null}
+     */
+    private final ExecutorService topicExecutor;
+
+    /**
+     * The executor for the index segments, can be {@code null}
+     */
+    private final Executor segmentExecutor;
+
+    /**
+     * Creates a new experiment runner, opening the index and reading the topics
+     *
+     * @param analyzer             the {@code Analyzer} to be used in the search phase
+     * @param indexPath            the directory containing the index to be searched.
+     * @param queryFile            the file containing the queries to search for.
+     * @param expectedQueries      the total number of queries expected to be searched.
+     * @param runPath              the path where to store the runs.
+     * @param maxDatasetsRetrieved the maximum number of datasets to be retrieved.
+     * @param topicExecutor        the executor for the topics, {@code null} to search them one after another
+     * @param segmentExecutor      the executor for the index segments, {@code null} to search them one after another
+     * @throws NullPointerException     if any of the mandatory parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public ExperimentRunner(final Analyzer analyzer, final String indexPath, final String queryFile,
+                            final int expectedQueries, final String runPath, final int maxDatasetsRetrieved,
+                            final ExecutorService topicExecutor, final Executor segmentExecutor) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        this.analyzer = analyzer;
+        this.topics = DatasetSearcher.readTopics(queryFile, expectedQueries);
+        this.reader = DatasetSearcher.openIndex(indexPath);
+
+        try {
+            this.idResolver = new DatasetIdResolver(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to read the dataset identifiers: %s.",
+                    e.getMessage()), e);
+        }
+
+        this.runPath = runPath;
+        this.maxDatasetsRetrieved = maxDatasetsRetrieved;
+        this.topicExecutor = topicExecutor;
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    /**
+     * Warms the index by searching all the topics once over all the fields, so that the postings and the doc values
+     * of the query terms are loaded before the configurations are timed
+     *
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public void warmUp() throws IOException, ParseException {
+
+        final long start = System.currentTimeMillis();
+
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        final MultiFieldQueryParser mqp = new MultiFieldQueryParser(ALL_FIELDS, analyzer);
+
+        for (QualityQuery t : topics) {
+            final String text = QueryParserBase.escape(t.getValue(DatasetSearcher.QUERY_FIELDS.TEXT));
+            final ScoreDoc[] sd = searcher.search(mqp.parse(text), maxDatasetsRetrieved).scoreDocs;
+            idResolver.resolve(sd);
+        }
+
+        System.out.printf("Index warmed with %d topic(s) in %d milliseconds.%n", topics.length,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Runs a single configuration and writes its run file
+     *
+     * @param runID      the identifier of the run to be created.
+     * @param similarity the {@code Similarity} to be used.
+     * @param fields     the fields to search.
+     * @param weights    the boost weights of the fields, in the same order, {@code null} to search without boosting
+     * @return the elapsed time of the search in milliseconds
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public long run(final String runID, final Similarity similarity, final String[] fields, final float[] weights)
+            throws IOException, ParseException {
+
+        if (weights != null && weights.length != fields.length) {
+            throw new IllegalArgumentException(String.format("Expected %d boost weights; %d found instead.",
+                    fields.length, weights.length));
+        }
+
+        Map<String, Float> queryWeights = null;
+        if (weights != null) {
+            queryWeights = new LinkedHashMap<>();
+            for (int i = 0; i < fields.length; i++) {
+                queryWeights.put(fields[i], weights[i]);
+            }
+        }
+
+        System.out.println("Searching with: " + runID);
+
+        final DatasetSearcher s = new DatasetSearcher(analyzer, similarity, reader, idResolver, topics, runID, runPath,
+                maxDatasetsRetrieved, queryWeights, topicExecutor, segmentExecutor);
+
+        if (weights == null)
+            s.search(fields);
+        else
+            s.searchBoosted();
+
+        return s.getElapsedTime();
+    }
+
+    /**
+     * Runs the full grid of configurations: BM25, LMDirichlet and TF-IDF similarities over the metadata, content and
+     * all fields, without boosting and with the boost weights of {@link Constants}
+     *
+     * @param runID the prefix of the identifiers of the runs
+     * @return the elapsed time of every run in milliseconds, by run identifier
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public Map<String, Long> runAll(final String runID) throws IOException, ParseException {
+
+        final Map<String, Long> times = new LinkedHashMap<>();
+
+        for (String sim : new String[]{"BM25", "LMD", "TF-IDF"}) {
+
+            final float[] all;
+            final float[] meta;
+            final float[] content;
+
+            switch (sim) {
+                case "BM25" -> {
+                    all = Constants.BM25BoostWeights;
+                    meta = Constants.BM25MetadataBoostWeights;
+                    content = Constants.BM25ContentBoostWeights;
+                }
+                case "LMD" -> {
+                    all = Constants.LMDBoostWeights;
+                    meta = Constants.LMDMetadataBoostWeights;
+                    content = Constants.LMDContentBoostWeights;
+                }
+                default -> {
+                    all = Constants.TFIDFBoostWeights;
+                    meta = Constants.TFIDFMetadataBoostWeights;
+                    content = Constants.TFIDFContentBoostWeights;
+                }
+            }
+
+            final String prefix = runID + "-" + sim;
+
+            times.put(prefix + "[m]", run(prefix + "[m]", similarity(sim), META_FIELDS, null));
+            times.put(prefix + "[c]", run(prefix + "[c]", similarity(sim), CONTENT_FIELDS, null));
+            times.put(prefix + "[m+c]", run(prefix + "[m+c]", similarity(sim), ALL_FIELDS, null));
+            times.put(prefix + "-boost[m]", run(prefix + "-boost[m]", similarity(sim), META_FIELDS, meta));
+            times.put(prefix + "-boost[c]", run(prefix + "-boost[c]", similarity(sim), CONTENT_FIELDS, content));
+            times.put(prefix + "-boost[m+c]", run(prefix + "-boost[m+c]", similarity(sim), ALL_FIELDS, all));
+        }
+
+        return times;
+    }
+
+    /**
+     * @param name the name of the similarity: BM25, LMD or TF-IDF
+     * @return a new instance of the similarity
+     */
+    private static Similarity similarity(final String name) {
+        return switch (name) {
+            case "BM25" -> new BM25Similarity();
+            case "LMD" -> new LMDirichletSimilarity();
+            case "TF-IDF" -> new ClassicSimilarity();
+            default -> throw new IllegalArgumentException(String.format("Unknown similarity %s.", name));
+        };
+    }
+
+    /**
+     * Closes the shared index reader
+     *
+     * @throws IOException if something goes wrong while closing the reader.
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Runs the full ACORDAR grid
+     *
+     * @param args command line arguments (not used).
+     * @throws Exception if something goes wrong while searching.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService topicPool = Executors.newFixedThreadPool(threads);
+        final ExecutorService segmentPool = Executors.newFixedThreadPool(threads);
+
+        final long start = System.currentTimeMillis();
+
+        final Analyzer analyzer = LocalNameAnalyzer.forIndex();
+
+        try (ExperimentRunner runner = new ExperimentRunner(analyzer, Constants.indexPathSSD,
+                Constants.queryPath, 50, Constants.runPath, 100, topicPool, segmentPool)) {
+
+            runner.warmUp();
+
+            final Map<String, Long> times = runner.runAll(Constants.runID);
+            times.forEach((run, time) -> System.out.printf("%s: %d milliseconds%n", run, time));
+        } finally {
+            topicPool.shutdown();
+            segmentPool.shutdown();
+        }
+
+        System.out.printf("Experiments completed in %d seconds.%n", (System.currentTimeMillis() - start) / 1000);
+    }
+}
@@ -0,0 +1,416 @@
+package dei.unipd.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.*;
+import org.apache.lucene.queries.intervals.IntervalIterator;
+import org.apache.lucene.queries.intervals.Intervals;
+import org.apache.lucene.queries.intervals.IntervalsSource;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Re-ranks the candidates of a first pass search with the Fielded Sequential Dependence Model (FSDM, Zhiltsov et
+ * al., 2015). The score of a dataset is
+ * <pre>
+ * lambdaT * sum_i fT(q_i) + lambdaO * sum_i fO(q_i, q_i+1) + lambdaU * sum_i fU(q_i, q_i+1)
+ * </pre>
+ * where every feature is the logarithm of a mixture of the Dirichlet smoothed language models of the fields:
+ * {@code fT} counts the query terms, {@code fO} the ordered bigrams ({@code #1}) and {@code fU} the unordered
+ * bigrams within a window ({@code #uwN}).
+ * <p>
+ * Only the candidates are scored: the term frequencies are read from the postings and the proximity counts from
+ * interval iterators, advanced to the candidates only, so the positions are decoded only for the candidates and not
+ * for every matching dataset. The collection frequencies of the bigrams would require the positions of every
+ * matching dataset, so they are estimated from the unigram ones assuming that the terms are independent.
+ * The field lengths are the ones encoded in the norms, the Dirichlet prior of every field is its average length.
+ * <p>
+ * The query terms are produced by the analyzer of every field. The fields analyzing the query into the same terms
+ * are scored together, as a mixture of their models; the scores of the groups are summed, weighted by the total
+ * weight of their fields.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class FSDMRescorer {
+
+    /**
+     * Default weight of the unigram features
+     */
+    public static final float DEFAULT_LAMBDA_T = 0.8f;
+
+    /**
+     * Default weight of the ordered bigram features
+     */
+    public static final float DEFAULT_LAMBDA_O = 0.1f;
+
+    /**
+     * Default weight of the unordered bigram features
+     */
+    public static final float DEFAULT_LAMBDA_U = 0.1f;
+
+    /**
+     * Default width of the window of the unordered bigrams
+     */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /**
+     * The index searcher
+     */
+    private final IndexSearcher searcher;
+
+    /**
+     * The analyzer of the queries
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The fields
+     */
+    private final String[] fields;
+
+    /**
+     * The weights of the fields, summing to 1
+     */
+    private final double[] weights;
+
+    /**
+     * The total length of every field in the collection
+     */
+    private final double[] collectionLength;
+
+    /**
+     * The Dirichlet prior of every field
+     */
+    private final double[] mu;
+
+    /**
+     * The weights of the unigram, ordered bigram and unordered bigram features
+     */
+    private final float lambdaT, lambdaO, lambdaU;
+
+    /**
+     * The width of the window of the unordered bigrams
+     */
+    private final int window;
+
+    /**
+     * Creates a new rescorer with the default parameters
+     *
+     * @param searcher     the index searcher
+     * @param analyzer     the analyzer of the queries
+     * @param fieldWeights the weights of the fields
+     * @throws IOException if the statistics of the fields cannot be read.
+     */
+    public FSDMRescorer(final IndexSearcher searcher, final Analyzer analyzer, final Map<String, Float> fieldWeights)
+            throws IOException {
+        this(searcher, analyzer, fieldWeights, DEFAULT_LAMBDA_T, DEFAULT_LAMBDA_O, DEFAULT_LAMBDA_U, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates a new rescorer
+     *
+     * @param searcher     the index searcher
+     * @param analyzer     the analyzer of the queries
+     * @param fieldWeights the weights of the fields, normalized to sum to 1
+     * @param lambdaT      the weight of the unigram features
+     * @param lambdaO      the weight of the ordered bigram features
+     * @param lambdaU      the weight of the unordered bigram features
+     * @param window       the width of the window of the unordered bigrams
+     * @throws IOException if the statistics of the fields cannot be read.
+     */
+    public FSDMRescorer(final IndexSearcher searcher, final Analyzer analyzer, final Map<String, Float> fieldWeights,
+                        final float lambdaT, final float lambdaO, final float lambdaU, final int window)
+            throws IOException {
+
+        if (searcher == null) {
+            throw new NullPointerException("Index searcher cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (fieldWeights == null || fieldWeights.isEmpty()) {
+            throw new IllegalArgumentException("At least one field has to be weighted.");
+        }
+
+        if (window < 2) {
+            throw new IllegalArgumentException("The window of the unordered bigrams cannot be less than 2.");
+        }
+
+        this.searcher = searcher;
+        this.analyzer = analyzer;
+        this.lambdaT = lambdaT;
+        this.lambdaO = lambdaO;
+        this.lambdaU = lambdaU;
+        this.window = window;
+
+        //only the fields with a positive weight
+        final List<String> weighted = new ArrayList<>();
+        double sum = 0;
+        for (Map.Entry<String, Float> e : fieldWeights.entrySet()) {
+            if (e.getValue() > 0) {
+                weighted.add(e.getKey());
+                sum += e.getValue();
+            }
+        }
+
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("At least one field must have a positive weight.");
+        }
+
+        fields = weighted.toArray(new String[0]);
+        weights = new double[fields.length];
+        collectionLength = new double[fields.length];
+        mu = new double[fields.length];
+
+        for (int f = 0; f < fields.length; f++) {
+            weights[f] = fieldWeights.get(fields[f]) / sum;
+
+            final CollectionStatistics stats = searcher.collectionStatistics(fields[f]);
+            if (stats != null) {
+                collectionLength[f] = stats.sumTotalTermFreq();
+                mu[f] = (double) stats.sumTotalTermFreq() / stats.docCount();
+            }
+        }
+    }
+
+    /**
+     * Re-ranks the candidates of a query
+     *
+     * @param query      the text of the query
+     * @param candidates the candidates, e.g. the top datasets of a unigram query
+     * @return the candidates with their FSDM scores, from the best to the worst
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public ScoreDoc[] rescore(final String query, final ScoreDoc[] candidates) throws IOException {
+
+        //the fields grouped by the terms of the query, since the fields can be analyzed differently
+        final Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int j = 0; j < fields.length; j++) {
+            final List<String> terms = analyze(fields[j], query);
+            if (!terms.isEmpty()) {
+                groups.computeIfAbsent(terms, t -> new ArrayList<>()).add(j);
+            }
+        }
+
+        if (groups.isEmpty() || candidates.length == 0) {
+            return candidates.clone();
+        }
+
+        //candidates in doc order, to visit the postings and the intervals forward only
+        final ScoreDoc[] rescored = new ScoreDoc[candidates.length];
+        for (int c = 0; c < candidates.length; c++) {
+            rescored[c] = new ScoreDoc(candidates[c].doc, 0f, candidates[c].shardIndex);
+        }
+        Arrays.sort(rescored, Comparator.comparingInt(sd -> sd.doc));
+
+        for (Map.Entry<List<String>, List<Integer>> group : groups.entrySet()) {
+            rescore(group.getKey().toArray(new String[0]),
+                    group.getValue().stream().mapToInt(Integer::intValue).toArray(), rescored);
+        }
+
+        //best first, ties by doc as in Lucene
+        Arrays.sort(rescored, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) :
+                Integer.compare(a.doc, b.doc));
+
+        return rescored;
+    }
+
+    /**
+     * Adds to the candidates the FSDM score of a group of fields analyzing the query into the same terms, weighted
+     * by the total weight of the fields of the group. The field models are mixed with their weights within the
+     * group, so with a single group the score is the FSDM score over all the fields.
+     *
+     * @param terms    the terms of the query in the fields of the group
+     * @param group    the indexes of the fields of the group
+     * @param rescored the candidates, in doc order
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    private void rescore(String[] terms, int[] group, ScoreDoc[] rescored) throws IOException {
+
+        final int n = terms.length;
+        final int f = group.length;
+
+        double share = 0;
+        for (int j : group) {
+            share += weights[j];
+        }
+
+        final double[] groupWeights = new double[f];
+        final double[] groupMu = new double[f];
+        for (int g = 0; g < f; g++) {
+            groupWeights[g] = weights[group[g]] / share;
+            groupMu[g] = mu[group[g]];
+        }
+
+        //background probabilities of the terms and of the bigrams in every field
+        final double[][] termProb = new double[n][f];
+        for (int i = 0; i < n; i++) {
+            for (int g = 0; g < f; g++) {
+                if (collectionLength[group[g]] > 0) {
+                    termProb[i][g] = searcher.getIndexReader().totalTermFreq(new Term(fields[group[g]], terms[i]))
+                            / collectionLength[group[g]];
+                }
+            }
+        }
+
+        final double[][] orderedProb = new double[Math.max(n - 1, 0)][f];
+        final double[][] unorderedProb = new double[Math.max(n - 1, 0)][f];
+        for (int i = 0; i < n - 1; i++) {
+            for (int g = 0; g < f; g++) {
+                orderedProb[i][g] = termProb[i][g] * termProb[i + 1][g];
+                unorderedProb[i][g] = orderedProb[i][g] * 2 * (window - 1);
+            }
+        }
+
+        //the interval sources of the bigrams
+        final IntervalsSource[] ordered = new IntervalsSource[Math.max(n - 1, 0)];
+        final IntervalsSource[] unordered = new IntervalsSource[Math.max(n - 1, 0)];
+        for (int i = 0; i < n - 1; i++) {
+            ordered[i] = Intervals.phrase(terms[i], terms[i + 1]);
+            unordered[i] = Intervals.maxwidth(window, Intervals.unordered(Intervals.term(terms[i]),
+                    Intervals.term(terms[i + 1])));
+        }
+
+        final double[] length = new double[f];
+        final int[][] tf = new int[n][f];
+        final int[][] od = new int[Math.max(n - 1, 0)][f];
+        final int[][] uw = new int[Math.max(n - 1, 0)][f];
+
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        int c = 0;
+        for (LeafReaderContext leaf : leaves) {
+            final int leafEnd = leaf.docBase + leaf.reader().maxDoc();
+            if (c >= rescored.length || rescored[c].doc >= leafEnd) {
+                continue;
+            }
+
+            //iterators of the segment
+            final NumericDocValues[] norms = new NumericDocValues[f];
+            final PostingsEnum[][] postings = new PostingsEnum[n][f];
+            final IntervalIterator[][] odIt = new IntervalIterator[Math.max(n - 1, 0)][f];
+            final IntervalIterator[][] uwIt = new IntervalIterator[Math.max(n - 1, 0)][f];
+
+            for (int g = 0; g < f; g++) {
+                final String field = fields[group[g]];
+                norms[g] = leaf.reader().getNormValues(field);
+                final Terms fieldTerms = leaf.reader().terms(field);
+                if (fieldTerms == null) {
+                    continue;
+                }
+                final TermsEnum te = fieldTerms.iterator();
+                for (int i = 0; i < n; i++) {
+                    if (te.seekExact(new BytesRef(terms[i]))) {
+                        postings[i][g] = te.postings(null, PostingsEnum.FREQS);
+                    }
+                }
+                for (int i = 0; i < n - 1; i++) {
+                    if (postings[i][g] != null && postings[i + 1][g] != null) {
+                        odIt[i][g] = ordered[i].intervals(field, leaf);
+                        uwIt[i][g] = unordered[i].intervals(field, leaf);
+                    }
+                }
+            }
+
+            for (; c < rescored.length && rescored[c].doc < leafEnd; c++) {
+                final int doc = rescored[c].doc - leaf.docBase;
+
+                for (int g = 0; g < f; g++) {
+                    length[g] = norms[g] != null && norms[g].advanceExact(doc) ?
+                            SmallFloat.byte4ToInt((byte) norms[g].longValue()) : 0;
+                    for (int i = 0; i < n; i++) {
+                        tf[i][g] = freq(postings[i][g], doc);
+                    }
+                    for (int i = 0; i < n - 1; i++) {
+                        od[i][g] = count(odIt[i][g], doc);
+                        uw[i][g] = count(uwIt[i][g], doc);
+                    }
+                }
+
+                double score = 0;
+                for (int i = 0; i < n; i++) {
+                    score += lambdaT * feature(tf[i], termProb[i], length, groupWeights, groupMu);
+                }
+                for (int i = 0; i < n - 1; i++) {
+                    score += lambdaO * feature(od[i], orderedProb[i], length, groupWeights, groupMu);
+                    score += lambdaU * feature(uw[i], unorderedProb[i], length, groupWeights, groupMu);
+                }
+                rescored[c].score += (float) (share * score);
+            }
+        }
+    }
+
+    /**
+     * @return the logarithm of the mixture of the Dirichlet smoothed field models, 0 if the feature never occurs in
+     * the collection
+     */
+    private static double feature(int[] counts, double[] background, double[] length, double[] weights,
+                                  double[] mu) {
+        double p = 0;
+        for (int j = 0; j < counts.length; j++) {
+            if (background[j] > 0 || counts[j] > 0) {
+                p += weights[j] * (counts[j] + mu[j] * background[j]) / (length[j] + mu[j]);
+            }
+        }
+        return p > 0 ? Math.log(p) : 0;
+    }
+
+    /**
+     * @return the frequency of the term in the document, 0 if the term does not occur in the document
+     */
+    private static int freq(PostingsEnum postings, int doc) throws IOException {
+        if (postings == null) {
+            return 0;
+        }
+        if (postings.docID() < doc) {
+            postings.advance(doc);
+        }
+        return postings.docID() == doc ? postings.freq() : 0;
+    }
+
+    /**
+     * @return the number of intervals in the document
+     */
+    private static int count(IntervalIterator it, int doc) throws IOException {
+        if (it == null) {
+            return 0;
+        }
+        if (it.docID() < doc) {
+            it.advance(doc);
+        }
+        if (it.docID() != doc) {
+            return 0;
+        }
+        int count = 0;
+        while (it.nextInterval() != IntervalIterator.NO_MORE_INTERVALS) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the terms of the query, with the analyzer of the field
+     */
+    private List<String> analyze(String field, String query) throws IOException {
+        final List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(field, query)) {
+            final CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(termAtt.toString());
+            }
+            ts.end();
+        }
+        return terms;
+    }
+}
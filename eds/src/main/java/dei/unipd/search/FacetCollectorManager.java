@@ -0,0 +1,294 @@
+package dei.unipd.search;
+
+import dei.unipd.parse.ParsedDataset;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Collects the top-k hits of a query and, in the same pass, counts the values of some facet fields over all the hits.
+ * <p>
+ * The facets are read from the doc values of the fields, so the stored fields of the hits are never loaded: the
+ * {@code SortedSetDocValues} of the tags and of the author are counted by segment ordinal, and the ordinals are
+ * turned into labels only once per segment, when the counts are reduced; the {@code NumericDocValues} of the
+ * indexable status are counted by value. A field without doc values in a segment, e.g. in an index built before the
+ * facets were added, is not counted in that segment.
+ * <p>
+ * All the hits are counted, so the scorers cannot skip the non-competitive documents as with
+ * {@link TopKCollectorManager}, and the total number of hits is exact. A new manager has to be created for every
+ * search.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class FacetCollectorManager implements CollectorManager<FacetCollectorManager.FacetCollector,
+        FacetCollectorManager.FacetedTopDocs> {
+
+    /**
+     * The facet fields
+     */
+    public static final List<String> FIELDS = List.of(ParsedDataset.FIELDS.TAGS, ParsedDataset.FIELDS.AUTHOR,
+            ParsedDataset.FIELDS.INDEXABLE);
+
+    /**
+     * Default number of values returned for every facet
+     */
+    public static final int DEFAULT_TOP_VALUES = 10;
+
+    /**
+     * The labels of the indexable status, by status
+     */
+    private static final String[] INDEXABLE_LABELS = new String[3];
+
+    static {
+        INDEXABLE_LABELS[ParsedDataset.FIELDS.EMPTY] = "EMPTY";
+        INDEXABLE_LABELS[ParsedDataset.FIELDS.PARTIAL] = "PARTIAL";
+        INDEXABLE_LABELS[ParsedDataset.FIELDS.FULL] = "FULL";
+    }
+
+    /**
+     * The manager of the top-k collectors
+     */
+    private final CollectorManager<TopScoreDocCollector, TopDocs> topK;
+
+    /**
+     * The counted fields
+     */
+    private final List<String> fields;
+
+    /**
+     * Number of values returned for every facet
+     */
+    private final int topValues;
+
+    /**
+     * Creates a new manager counting all the facet fields
+     *
+     * @param k the number of hits to collect
+     * @throws IllegalArgumentException if the number of hits is less than or equal to zero.
+     */
+    public FacetCollectorManager(final int k) {
+        this(k, FIELDS, DEFAULT_TOP_VALUES);
+    }
+
+    /**
+     * Creates a new manager
+     *
+     * @param k         the number of hits to collect
+     * @param fields    the counted fields, among {@link #FIELDS}
+     * @param topValues the number of values returned for every facet, the most frequent first
+     * @throws NullPointerException     if the fields are {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public FacetCollectorManager(final int k, final Collection<String> fields, final int topValues) {
+
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of hits to collect cannot be less than or equal to zero.");
+        }
+
+        if (fields == null) {
+            throw new NullPointerException("Facet fields cannot be null.");
+        }
+
+        for (String field : fields) {
+            if (!FIELDS.contains(field)) {
+                throw new IllegalArgumentException(String.format("Unknown facet field %s; expected one of %s.", field,
+                        FIELDS));
+            }
+        }
+
+        if (topValues <= 0) {
+            throw new IllegalArgumentException("The number of facet values cannot be less than or equal to zero.");
+        }
+
+        //every hit is counted anyway, so the total hits are counted exactly and no document is skipped
+        this.topK = TopScoreDocCollector.createSharedManager(k, null, Integer.MAX_VALUE);
+        this.fields = List.copyOf(new LinkedHashSet<>(fields));
+        this.topValues = topValues;
+    }
+
+    @Override
+    public FacetCollector newCollector() throws IOException {
+        return new FacetCollector(topK.newCollector(), fields);
+    }
+
+    @Override
+    public FacetedTopDocs reduce(final Collection<FacetCollector> collectors) throws IOException {
+
+        final List<TopScoreDocCollector> inner = new ArrayList<>(collectors.size());
+        final Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        for (String field : fields) {
+            counts.put(field, new HashMap<>());
+        }
+
+        for (FacetCollector c : collectors) {
+            inner.add(c.topK);
+            for (SegmentCounts s : c.segments) {
+                s.labelCounts(counts.get(s.field));
+            }
+        }
+
+        final Map<String, List<Facet>> facets = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Long>> e : counts.entrySet()) {
+            facets.put(e.getKey(), e.getValue().entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(topValues)
+                    .map(c -> new Facet(c.getKey(), c.getValue()))
+                    .toList());
+        }
+
+        return new FacetedTopDocs(topK.reduce(inner), facets);
+    }
+
+    /**
+     * @return the label of an indexable status
+     */
+    private static String indexableLabel(long status) {
+        return status >= 0 && status < INDEXABLE_LABELS.length ? INDEXABLE_LABELS[(int) status] : Long.toString(status);
+    }
+
+    /**
+     * A top-k collector counting the facet values of the collected documents. A collector is used by a single thread.
+     */
+    public static final class FacetCollector extends FilterCollector {
+
+        /**
+         * The wrapped top-k collector
+         */
+        private final TopScoreDocCollector topK;
+
+        /**
+         * The counted fields
+         */
+        private final List<String> fields;
+
+        /**
+         * The counts of the collected segments, turned into labels when reduced
+         */
+        private final List<SegmentCounts> segments = new ArrayList<>();
+
+        private FacetCollector(TopScoreDocCollector topK, List<String> fields) {
+            super(topK);
+            this.topK = topK;
+            this.fields = fields;
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+
+            final LeafReader reader = context.reader();
+            final List<SortedSetDocValues> ordValues = new ArrayList<>();
+            final List<long[]> ordCounts = new ArrayList<>();
+            final List<NumericDocValues> numValues = new ArrayList<>();
+            final List<Map<Long, long[]>> numCounts = new ArrayList<>();
+
+            for (String field : fields) {
+                final FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+                if (info == null) {
+                    continue;
+                }
+
+                if (info.getDocValuesType() == DocValuesType.SORTED_SET) {
+                    final SortedSetDocValues values = reader.getSortedSetDocValues(field);
+                    final long[] counts = new long[Math.toIntExact(values.getValueCount())];
+                    ordValues.add(values);
+                    ordCounts.add(counts);
+                    segments.add(new SegmentCounts(field, values, counts, null));
+                } else if (info.getDocValuesType() == DocValuesType.NUMERIC) {
+                    final Map<Long, long[]> counts = new HashMap<>();
+                    numValues.add(reader.getNumericDocValues(field));
+                    numCounts.add(counts);
+                    segments.add(new SegmentCounts(field, null, null, counts));
+                }
+            }
+
+            final SortedSetDocValues[] ords = ordValues.toArray(new SortedSetDocValues[0]);
+            final long[][] ordCount = ordCounts.toArray(new long[0][]);
+            final NumericDocValues[] nums = numValues.toArray(new NumericDocValues[0]);
+            final List<Map<Long, long[]>> numCount = numCounts;
+
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                @Override
+                public void collect(int doc) throws IOException {
+
+                    for (int i = 0; i < ords.length; i++) {
+                        if (ords[i].advanceExact(doc)) {
+                            for (long ord = ords[i].nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS;
+                                 ord = ords[i].nextOrd()) {
+                                ordCount[i][(int) ord]++;
+                            }
+                        }
+                    }
+
+                    for (int i = 0; i < nums.length; i++) {
+                        if (nums[i].advanceExact(doc)) {
+                            numCount.get(i).computeIfAbsent(nums[i].longValue(), v -> new long[1])[0]++;
+                        }
+                    }
+
+                    in.collect(doc);
+                }
+            };
+        }
+    }
+
+    /**
+     * The counts of a field in a segment, either by ordinal of a sorted set field or by value of a numeric field
+     *
+     * @param field       the field
+     * @param values      the values of the sorted set field, used to look up the labels of the ordinals
+     * @param ordCounts   the counts of the sorted set field, by ordinal
+     * @param valueCounts the counts of the numeric field, by value
+     */
+    private record SegmentCounts(String field, SortedSetDocValues values, long[] ordCounts,
+                                 Map<Long, long[]> valueCounts) {
+
+        /**
+         * Adds the counts to the counts of the field, by label
+         */
+        void labelCounts(Map<String, Long> counts) throws IOException {
+            if (ordCounts != null) {
+                for (int ord = 0; ord < ordCounts.length; ord++) {
+                    if (ordCounts[ord] > 0) {
+                        final BytesRef label = values.lookupOrd(ord);
+                        counts.merge(label.utf8ToString(), ordCounts[ord], Long::sum);
+                    }
+                }
+            } else {
+                for (Map.Entry<Long, long[]> e : valueCounts.entrySet()) {
+                    final String label = field.equals(ParsedDataset.FIELDS.INDEXABLE)
+                            ? indexableLabel(e.getKey()) : Long.toString(e.getKey());
+                    counts.merge(label, e.getValue()[0], Long::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * A value of a facet with the number of hits having it
+     *
+     * @param label the value
+     * @param count the number of hits
+     */
+    public record Facet(String label, long count) {
+    }
+
+    /**
+     * The top-k hits of a query together with the facets of all its hits
+     *
+     * @param topDocs the top-k hits, with the exact number of hits
+     * @param facets  the most frequent values of every facet field, by field
+     */
+    public record FacetedTopDocs(TopDocs topDocs, Map<String, List<Facet>> facets) {
+    }
+}
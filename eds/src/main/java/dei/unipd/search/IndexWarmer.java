@@ -0,0 +1,393 @@
+package dei.unipd.search;
+
+import dei.unipd.index.DirectoryFactory;
+import dei.unipd.parse.ParsedDataset;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.codecs.CompoundDirectory;
+import org.apache.lucene.index.*;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Warms up an index just opened, so that the first queries after a restart do not wait for the disk.
+ * <p>
+ * The warm-up has three steps, each one with its own time budget; a step stops when its budget is spent and a step
+ * with no budget is skipped:
+ * <ol>
+ *     <li>preload: the pages of the selected index files (by extension, e.g. the terms dictionaries and the
+ *     postings) are read sequentially, as a memory mapped directory does with preload, so that the page cache is
+ *     filled with large sequential reads instead of the random reads of the queries;</li>
+ *     <li>terms: the terms dictionaries and the norms of the hot fields are walked, so that the blocks of the terms
+ *     actually looked up by the queries are loaded;</li>
+ *     <li>queries: a sample of recent queries is searched, loading the postings of the frequent terms and whatever
+ *     the searcher builds lazily.</li>
+ * </ol>
+ * Every step is logged with the amount of work done, its time and whether it completed within its budget.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class IndexWarmer {
+
+    /**
+     * Default extensions of the preloaded files: terms dictionaries, postings lists, norms and doc values. Positions,
+     * stored fields and term vectors are not needed by most queries.
+     */
+    public static final Set<String> DEFAULT_PRELOAD_EXTENSIONS = Set.of("tim", "tip", "tmd", "doc", "nvd", "nvm",
+            "dvd", "dvm");
+
+    /**
+     * Default time budget of every step, in milliseconds
+     */
+    public static final long DEFAULT_BUDGET_MILLIS = 30_000;
+
+    /**
+     * Size of the pages touched by the preload
+     */
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * Number of items (pages, terms or documents) done between two checks of the budget
+     */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Extensions of the preloaded files
+     */
+    private final Set<String> preloadExtensions;
+
+    /**
+     * The fields whose terms dictionaries are walked
+     */
+    private final List<String> hotFields;
+
+    /**
+     * The queries searched to warm up the searcher
+     */
+    private final List<String> sampleQueries;
+
+    private long preloadBudgetMillis = DEFAULT_BUDGET_MILLIS;
+    private long termsBudgetMillis = DEFAULT_BUDGET_MILLIS;
+    private long queriesBudgetMillis = DEFAULT_BUDGET_MILLIS;
+
+    /**
+     * Creates a new warmer of the files and fields searched by default: the terms dictionaries and the postings
+     * lists of the query fields and of the dataset identifiers
+     *
+     * @param sampleQueries the queries searched to warm up the searcher, possibly empty
+     */
+    public IndexWarmer(final List<String> sampleQueries) {
+        this(DEFAULT_PRELOAD_EXTENSIONS, defaultHotFields(), sampleQueries);
+    }
+
+    /**
+     * Creates a new warmer
+     *
+     * @param preloadExtensions the extensions of the preloaded files, possibly empty
+     * @param hotFields         the fields whose terms dictionaries are walked, possibly empty
+     * @param sampleQueries     the queries searched to warm up the searcher, possibly empty
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public IndexWarmer(final Set<String> preloadExtensions, final List<String> hotFields,
+                       final List<String> sampleQueries) {
+
+        if (preloadExtensions == null) {
+            throw new NullPointerException("Preload extensions cannot be null.");
+        }
+
+        if (hotFields == null) {
+            throw new NullPointerException("Hot fields cannot be null.");
+        }
+
+        if (sampleQueries == null) {
+            throw new NullPointerException("Sample queries cannot be null.");
+        }
+
+        this.preloadExtensions = Set.copyOf(preloadExtensions);
+        this.hotFields = List.copyOf(hotFields);
+        this.sampleQueries = List.copyOf(sampleQueries);
+    }
+
+    /**
+     * @return the query fields and the dataset identifiers
+     */
+    private static List<String> defaultHotFields() {
+        final List<String> fields = new ArrayList<>(Arrays.asList(Constants.queryFields));
+        fields.add(ParsedDataset.FIELDS.ID);
+        return fields;
+    }
+
+    /**
+     * Sets the time budget of the steps, a step with a budget less than or equal to zero is skipped
+     *
+     * @param preloadBudgetMillis the budget of the preload of the files, in milliseconds
+     * @param termsBudgetMillis   the budget of the walk of the terms dictionaries, in milliseconds
+     * @param queriesBudgetMillis the budget of the sample queries, in milliseconds
+     */
+    public void setBudgets(final long preloadBudgetMillis, final long termsBudgetMillis,
+                           final long queriesBudgetMillis) {
+        this.preloadBudgetMillis = preloadBudgetMillis;
+        this.termsBudgetMillis = termsBudgetMillis;
+        this.queriesBudgetMillis = queriesBudgetMillis;
+    }
+
+    /**
+     * Opens the directory of an index as a memory mapped directory, whose files are read by the queries without
+     * copies once they are in the page cache
+     *
+     * @param indexDir the directory of the index
+     * @return the directory
+     * @throws IOException if the directory cannot be opened.
+     */
+    public static Directory openDirectory(final Path indexDir) throws IOException {
+        return DirectoryFactory.open(DirectoryFactory.Type.MMAP, indexDir);
+    }
+
+    /**
+     * Warms up an index
+     *
+     * @param reader the reader of the index
+     * @param runner the search of the sample queries
+     * @return the report of the steps, in order
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public List<Step> warm(final IndexReader reader, final QueryRunner runner) throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (runner == null) {
+            throw new NullPointerException("Query runner cannot be null.");
+        }
+
+        final List<Step> steps = new ArrayList<>(3);
+        steps.add(log(preload(reader)));
+        steps.add(log(terms(reader)));
+        steps.add(log(queries(reader, runner)));
+        return steps;
+    }
+
+    /**
+     * Reads the pages of the selected files of the segments
+     */
+    private Step preload(IndexReader reader) throws IOException {
+
+        final Budget budget = new Budget("preload", preloadBudgetMillis);
+        if (budget.skipped() || preloadExtensions.isEmpty()) {
+            return budget.skip();
+        }
+
+        long files = 0;
+        long bytes = 0;
+        for (LeafReaderContext ctx : reader.leaves()) {
+            if (!(FilterLeafReader.unwrap(ctx.reader()) instanceof SegmentReader segment)) {
+                continue;
+            }
+
+            final SegmentInfo si = segment.getSegmentInfo().info;
+            if (si.getUseCompoundFile()) {
+                //the files inside the compound file
+                try (CompoundDirectory cfs = si.getCodec().compoundFormat().getCompoundReader(si.dir, si,
+                        IOContext.READ)) {
+                    for (String file : cfs.listAll()) {
+                        if (selected(file) && !budget.spent()) {
+                            bytes += touch(cfs, file, budget);
+                            files++;
+                        }
+                    }
+                }
+            } else {
+                for (String file : segment.getSegmentInfo().files()) {
+                    if (selected(file) && !budget.spent()) {
+                        bytes += touch(si.dir, file, budget);
+                        files++;
+                    }
+                }
+            }
+        }
+
+        return budget.done(files, "files", bytes);
+    }
+
+    /**
+     * @return true if the file has to be preloaded
+     */
+    private boolean selected(String file) {
+        final String ext = IndexFileNames.getExtension(file);
+        return ext != null && preloadExtensions.contains(ext);
+    }
+
+    /**
+     * Reads a byte of every page of a file, so that the whole file is loaded in the page cache
+     *
+     * @return the number of bytes loaded
+     */
+    private static long touch(Directory dir, String file, Budget budget) throws IOException {
+        try (IndexInput in = dir.openInput(file, IOContext.READ)) {
+            final long length = in.length();
+            long pos = 0;
+            for (int pages = 0; pos < length; pos += PAGE_SIZE, pages++) {
+                if (pages % CHECK_INTERVAL == 0 && budget.spent()) {
+                    break;
+                }
+                in.seek(pos);
+                in.readByte();
+            }
+            return Math.min(pos, length);
+        }
+    }
+
+    /**
+     * Walks the terms dictionaries and the norms of the hot fields
+     */
+    private Step terms(IndexReader reader) throws IOException {
+
+        final Budget budget = new Budget("terms", termsBudgetMillis);
+        if (budget.skipped() || hotFields.isEmpty()) {
+            return budget.skip();
+        }
+
+        long terms = 0;
+        walk:
+        for (LeafReaderContext ctx : reader.leaves()) {
+            final LeafReader leaf = ctx.reader();
+            for (String field : hotFields) {
+                final Terms t = leaf.terms(field);
+                if (t != null) {
+                    final TermsEnum te = t.iterator();
+                    while (te.next() != null) {
+                        if (++terms % CHECK_INTERVAL == 0 && budget.spent()) {
+                            break walk;
+                        }
+                    }
+                }
+
+                final NumericDocValues norms = leaf.getNormValues(field);
+                if (norms != null) {
+                    while (norms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                        norms.longValue();
+                    }
+                }
+            }
+        }
+
+        return budget.done(terms, "terms", 0);
+    }
+
+    /**
+     * Searches the sample queries
+     */
+    private Step queries(IndexReader reader, QueryRunner runner) throws IOException {
+
+        final Budget budget = new Budget("queries", queriesBudgetMillis);
+        if (budget.skipped() || sampleQueries.isEmpty()) {
+            return budget.skip();
+        }
+
+        long queries = 0;
+        for (String query : sampleQueries) {
+            if (budget.spent()) {
+                break;
+            }
+            try {
+                runner.search(reader, query);
+            } catch (ParseException e) {
+                //a sample query that cannot be parsed is skipped
+            }
+            queries++;
+        }
+
+        return budget.done(queries, "queries", 0);
+    }
+
+    private static Step log(Step step) {
+        System.out.println(step);
+        return step;
+    }
+
+    /**
+     * The search of a sample query
+     */
+    @FunctionalInterface
+    public interface QueryRunner {
+
+        /**
+         * Searches a query
+         *
+         * @param reader the reader of the index being warmed up
+         * @param query  the text of the query
+         * @throws IOException    if something goes wrong while searching.
+         * @throws ParseException if the query cannot be parsed.
+         */
+        void search(IndexReader reader, String query) throws IOException, ParseException;
+    }
+
+    /**
+     * The time budget of a step
+     */
+    private static final class Budget {
+
+        private final String step;
+        private final long budgetMillis;
+        private final long start = System.nanoTime();
+        private final long deadline;
+        private boolean spent = false;
+
+        Budget(String step, long budgetMillis) {
+            this.step = step;
+            this.budgetMillis = budgetMillis;
+            this.deadline = start + budgetMillis * 1_000_000;
+        }
+
+        boolean skipped() {
+            return budgetMillis <= 0;
+        }
+
+        boolean spent() {
+            if (!spent && System.nanoTime() - deadline > 0) {
+                spent = true;
+            }
+            return spent;
+        }
+
+        Step skip() {
+            return new Step(step, 0, "items", 0, 0, 0, false);
+        }
+
+        Step done(long items, String unit, long bytes) {
+            return new Step(step, items, unit, bytes, (System.nanoTime() - start) / 1_000_000, budgetMillis, !spent);
+        }
+    }
+
+    /**
+     * The report of a warm-up step
+     *
+     * @param step         the name of the step
+     * @param items        the number of files, terms or queries done
+     * @param unit         what the items are
+     * @param bytes        the bytes loaded, 0 if not measured
+     * @param millis       the time of the step, in milliseconds
+     * @param budgetMillis the budget of the step, in milliseconds, 0 if the step was skipped
+     * @param complete     true if the step completed within its budget
+     */
+    public record Step(String step, long items, String unit, long bytes, long millis, long budgetMillis,
+                       boolean complete) {
+
+        @Override
+        public String toString() {
+            if (budgetMillis <= 0) {
+                return String.format("Warm-up %s: skipped.", step);
+            }
+            return String.format("Warm-up %s: %d %s%s in %d ms of %d ms budget%s.", step, items, unit,
+                    bytes > 0 ? String.format(" (%d MB)", bytes / (1024 * 1024)) : "", millis, budgetMillis,
+                    complete ? "" : ", budget spent");
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package dei.unipd.search;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+/**
+ * Replays a query workload against the search service and measures its latency and throughput under load.
+ * <p>
+ * The queries come from a query log (one query per line) or from a topics file, optionally sampled. They are sent
+ * to a {@link Target}: the HTTP endpoint of a {@link SearchService} or a service in the same process. Two arrival
+ * models are supported:
+ * <ul>
+ *     <li>closed loop: {@code concurrency} clients, each sending its next query as soon as the previous one is
+ *     answered, so the throughput is the one the service sustains;</li>
+ *     <li>open loop: queries arriving at a given rate (Poisson arrivals), independently of the answers, served by
+ *     {@code concurrency} clients. The latency of a query is measured from its arrival, so the time it waits for a
+ *     free client is included and a slow service is not hidden by a slower arrival rate.</li>
+ * </ul>
+ * Every run reports the throughput, the latency percentiles (p50, p90, p95, p99, p999) and a latency histogram, in
+ * a JSON report with the settings of the run, so that the reports of different versions of the searcher or of the
+ * index can be compared. A replayed query log repeats its queries, so the queries answered by the result cache of
+ * the service are counted and their latency percentiles are reported apart from the ones of the searched queries;
+ * the targets can also bypass the cache, so that only the searcher is measured.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class LoadGenerator {
+
+    /**
+     * How the queries arrive at the service
+     */
+    public enum Arrival {
+        /**
+         * Every client sends its next query when the previous one is answered
+         */
+        CLOSED,
+        /**
+         * Queries arrive at a fixed mean rate
+         */
+        OPEN
+    }
+
+    /**
+     * The searcher under load
+     */
+    @FunctionalInterface
+    public interface Target {
+
+        /**
+         * Searches a query
+         *
+         * @param query the text of the query
+         * @return true if the query was answered by the result cache of the service
+         * @throws Exception if the search fails.
+         */
+        boolean search(String query) throws Exception;
+    }
+
+    /**
+     * The target under load
+     */
+    private final Target target;
+
+    /**
+     * Description of the target in the report
+     */
+    private final String targetName;
+
+    /**
+     * The queries, replayed in order and from the start again when they end
+     */
+    private final List<String> queries;
+
+    /**
+     * Number of queries sent before measuring, to warm up the service
+     */
+    private int warmUpRequests = 0;
+
+    /**
+     * Seed of the arrival times of the open loop
+     */
+    private long seed = 42;
+
+    /**
+     * Creates a new load generator
+     *
+     * @param target     the target under load
+     * @param targetName the description of the target in the report
+     * @param queries    the queries to replay
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if there are no queries.
+     */
+    public LoadGenerator(final Target target, final String targetName, final List<String> queries) {
+
+        if (target == null) {
+            throw new NullPointerException("Target cannot be null.");
+        }
+
+        if (targetName == null) {
+            throw new NullPointerException("Target name cannot be null.");
+        }
+
+        if (queries == null) {
+            throw new NullPointerException("Queries cannot be null.");
+        }
+
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("At least one query is required.");
+        }
+
+        this.target = target;
+        this.targetName = targetName;
+        this.queries = List.copyOf(queries);
+    }
+
+    /**
+     * Sets the number of queries sent before measuring, with the same arrival model as the run
+     *
+     * @param warmUpRequests the number of warm-up queries
+     */
+    public void setWarmUpRequests(final int warmUpRequests) {
+        if (warmUpRequests < 0) {
+            throw new IllegalArgumentException("The number of warm-up queries cannot be negative.");
+        }
+        this.warmUpRequests = warmUpRequests;
+    }
+
+    /**
+     * Sets the seed of the arrival times of the open loop
+     *
+     * @param seed the seed
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Creates a target sending the queries to the {@code /search} endpoint of a {@link SearchService}, through the
+     * result cache of the service
+     *
+     * @param endpoint   the URI of the endpoint, e.g. {@code http://localhost:8080/search}
+     * @param similarity the name of the similarity
+     * @param mode       the retrieval mode
+     * @param k          the number of datasets to retrieve
+     * @return the target
+     */
+    public static Target http(final URI endpoint, final String similarity, final String mode, final int k) {
+        return http(endpoint, similarity, mode, k, true);
+    }
+
+    /**
+     * Creates a target sending the queries to the {@code /search} endpoint of a {@link SearchService}
+     *
+     * @param endpoint   the URI of the endpoint, e.g. {@code http://localhost:8080/search}
+     * @param similarity the name of the similarity
+     * @param mode       the retrieval mode
+     * @param k          the number of datasets to retrieve
+     * @param useCache   false to bypass the result cache of the service
+     * @return the target
+     */
+    public static Target http(final URI endpoint, final String similarity, final String mode, final int k,
+                              final boolean useCache) {
+
+        if (endpoint == null) {
+            throw new NullPointerException("Endpoint cannot be null.");
+        }
+
+        //the JDK HTTP server of the search service does not speak HTTP/2
+        final HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        return query -> {
+            final JsonObject body = new JsonObject();
+            body.addProperty("query", query);
+            body.addProperty("similarity", similarity);
+            body.addProperty("mode", mode);
+            body.addProperty("k", k);
+            body.addProperty("cache", useCache);
+
+            final HttpRequest request = HttpRequest.newBuilder(endpoint)
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                    .build();
+
+            final HttpResponse<String> response = client.send(request,
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() != 200) {
+                throw new IOException(String.format("Search failed with status %d: %s", response.statusCode(),
+                        response.body()));
+            }
+
+            final JsonElement cached = JsonParser.parseString(response.body()).getAsJsonObject().get("cached");
+            return cached != null && cached.getAsBoolean();
+        };
+    }
+
+    /**
+     * Creates a target searching a service in the same process, without the HTTP overhead, through the result
+     * cache of the service
+     *
+     * @param service    the search service
+     * @param similarity the name of the similarity
+     * @param mode       the retrieval mode
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @return the target
+     */
+    public static Target service(final SearchService service, final String similarity, final String mode,
+                                 final Map<String, Float> weights, final int k) {
+        return service(service, similarity, mode, weights, k, true);
+    }
+
+    /**
+     * Creates a target searching a service in the same process, without the HTTP overhead
+     *
+     * @param service    the search service
+     * @param similarity the name of the similarity
+     * @param mode       the retrieval mode
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @param useCache   false to bypass the result cache of the service
+     * @return the target
+     */
+    public static Target service(final SearchService service, final String similarity, final String mode,
+                                 final Map<String, Float> weights, final int k, final boolean useCache) {
+
+        if (service == null) {
+            throw new NullPointerException("Search service cannot be null.");
+        }
+
+        return query -> service.answer(query, similarity, mode, weights, k, false, false, useCache).cached();
+    }
+
+    /**
+     * Reads a query log: one query per line. If a line has tab separated columns, the query is the last one (e.g.
+     * {@code timestamp<TAB>query}). Empty lines are skipped.
+     *
+     * @param path the query log
+     * @return the queries, in the order of the log
+     * @throws IOException if the log cannot be read.
+     */
+    public static List<String> readQueryLog(final Path path) throws IOException {
+
+        final List<String> queries = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String query = line.substring(line.lastIndexOf('\t') + 1).trim();
+                if (!query.isEmpty()) {
+                    queries.add(query);
+                }
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Reads the queries of a topics file, with an optional random sample
+     *
+     * @param path   the topics file
+     * @param sample the number of sampled topics, all the topics in random order if less than or equal to zero or
+     *               greater than the number of topics
+     * @param seed   the seed of the sample
+     * @return the sampled queries
+     * @throws IOException if the topics cannot be read.
+     */
+    public static List<String> readTopics(final Path path, final int sample, final long seed) throws IOException {
+
+        final QualityQuery[] topics;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            topics = new QueriesReader().readQueries(in);
+        }
+
+        final List<String> queries = new ArrayList<>(topics.length);
+        for (QualityQuery t : topics) {
+            queries.add(t.getValue(DatasetSearcher.QUERY_FIELDS.TEXT).trim());
+        }
+        Collections.shuffle(queries, new Random(seed));
+
+        return sample > 0 && sample < queries.size() ? new ArrayList<>(queries.subList(0, sample)) : queries;
+    }
+
+    /**
+     * Runs a closed loop: {@code concurrency} clients send {@code requests} queries, each client sending its next
+     * query as soon as the previous one is answered
+     *
+     * @param concurrency the number of clients
+     * @param requests    the number of measured queries
+     * @return the report of the run
+     * @throws InterruptedException if interrupted while waiting for the clients.
+     */
+    public Report runClosedLoop(final int concurrency, final int requests) throws InterruptedException {
+
+        checkRun(concurrency, requests);
+
+        if (warmUpRequests > 0) {
+            closedLoop(concurrency, warmUpRequests, new Recorder(warmUpRequests));
+        }
+
+        final Recorder recorder = new Recorder(requests);
+        final long elapsed = closedLoop(concurrency, requests, recorder);
+
+        return recorder.report(Arrival.CLOSED, concurrency, 0, elapsed);
+    }
+
+    /**
+     * Runs an open loop: {@code requests} queries arrive at a mean rate of {@code qps} queries per second, with
+     * exponentially distributed inter-arrival times, and are served by {@code concurrency} clients
+     *
+     * @param concurrency the number of clients
+     * @param qps         the mean arrival rate, in queries per second
+     * @param requests    the number of measured queries
+     * @return the report of the run
+     * @throws InterruptedException if interrupted while waiting for the clients.
+     */
+    public Report runOpenLoop(final int concurrency, final double qps, final int requests) throws InterruptedException {
+
+        checkRun(concurrency, requests);
+
+        if (!(qps > 0)) {
+            throw new IllegalArgumentException("The arrival rate must be greater than zero.");
+        }
+
+        final Random random = new Random(seed);
+
+        if (warmUpRequests > 0) {
+            openLoop(concurrency, qps, warmUpRequests, new Recorder(warmUpRequests), random);
+        }
+
+        final Recorder recorder = new Recorder(requests);
+        final long elapsed = openLoop(concurrency, qps, requests, recorder, random);
+
+        return recorder.report(Arrival.OPEN, concurrency, qps, elapsed);
+    }
+
+    private static void checkRun(int concurrency, int requests) {
+
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("The number of clients cannot be less than or equal to zero.");
+        }
+
+        if (requests <= 0) {
+            throw new IllegalArgumentException("The number of queries cannot be less than or equal to zero.");
+        }
+    }
+
+    /**
+     * Sends the queries in a closed loop
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    private long closedLoop(int concurrency, int requests, Recorder recorder) throws InterruptedException {
+
+        final AtomicInteger next = new AtomicInteger();
+        final Thread[] clients = new Thread[concurrency];
+
+        final long start = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            clients[c] = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    send(i, System.nanoTime(), recorder);
+                }
+            }, "load client " + c);
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends the queries in an open loop
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    private long openLoop(int concurrency, double qps, int requests, Recorder recorder, Random random)
+            throws InterruptedException {
+
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        final double meanInterval = 1e9 / qps;
+
+        final long start = System.nanoTime();
+        long arrival = start;
+        try {
+            for (int i = 0; i < requests; i++) {
+                //exponential inter-arrival times
+                arrival += (long) (-Math.log(1 - random.nextDouble()) * meanInterval);
+
+                long wait;
+                while ((wait = arrival - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                final int request = i;
+                final long arrived = arrival;
+                recorder.queued.incrementAndGet();
+                clients.execute(() -> {
+                    recorder.queued.decrementAndGet();
+                    send(request, arrived, recorder);
+                });
+                recorder.maxQueued.accumulateAndGet(recorder.queued.get(), Math::max);
+            }
+        } finally {
+            clients.shutdown();
+            clients.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends a query and records its latency
+     *
+     * @param request  the number of the query
+     * @param sent     the time the query was sent, or arrived in the open loop
+     * @param recorder the recorder of the run
+     */
+    private void send(int request, long sent, Recorder recorder) {
+        try {
+            final boolean cached = target.search(queries.get(request % queries.size()));
+            recorder.record(request, sent, System.nanoTime(), cached);
+        } catch (Exception e) {
+            recorder.record(request, sent, -1, false);
+        }
+    }
+
+    /**
+     * Records the latencies of a run
+     */
+    private final class Recorder {
+
+        /**
+         * Latency of every query in nanoseconds, -1 for the failed ones
+         */
+        private final long[] latencies;
+
+        /**
+         * Whether every query was answered by the result cache of the service
+         */
+        private final boolean[] cached;
+
+        /**
+         * Queries waiting for a client in the open loop
+         */
+        private final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * Maximum number of queries waiting for a client in the open loop
+         */
+        private final AtomicLong maxQueued = new AtomicLong();
+
+        Recorder(int requests) {
+            latencies = new long[requests];
+            cached = new boolean[requests];
+        }
+
+        /**
+         * Records the latency of a query, every query is recorded by a single client
+         */
+        void record(int request, long sent, long answered, boolean cached) {
+            latencies[request] = answered < 0 ? -1 : answered - sent;
+            this.cached[request] = cached;
+        }
+
+        Report report(Arrival arrival, int concurrency, double qps, long elapsedNanos) {
+
+            final long[] ok = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+            final long[] hits = latencies(true);
+            final long[] misses = latencies(false);
+            final long[] histogram = new long[64];
+            long sum = 0;
+            for (long l : ok) {
+                sum += l;
+                //buckets of microseconds in powers of two
+                histogram[63 - Long.numberOfLeadingZeros(Math.max(1, l / 1000))]++;
+            }
+
+            return new Report(targetName, arrival, concurrency, qps, queries.size(), warmUpRequests,
+                    latencies.length, latencies.length - ok.length, elapsedNanos,
+                    ok.length == 0 ? 0 : (double) sum / ok.length, percentiles(ok), histogram, maxQueued.get(),
+                    hits.length, percentiles(hits), percentiles(misses));
+        }
+
+        /**
+         * @return the sorted latencies of the successful queries answered, or not, by the result cache
+         */
+        private long[] latencies(boolean answeredByCache) {
+            return IntStream.range(0, latencies.length)
+                    .filter(i -> latencies[i] >= 0 && cached[i] == answeredByCache)
+                    .mapToLong(i -> latencies[i])
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    /**
+     * The percentiles of the report
+     */
+    private static final double[] PERCENTILES = {0, 50, 90, 95, 99, 99.9, 100};
+
+    /**
+     * @return the percentiles of sorted latencies, with the nearest rank method
+     */
+    private static long[] percentiles(long[] sorted) {
+        final long[] p = new long[PERCENTILES.length];
+        if (sorted.length > 0) {
+            for (int i = 0; i < p.length; i++) {
+                final int rank = (int) Math.ceil(PERCENTILES[i] / 100 * sorted.length);
+                p[i] = sorted[Math.max(0, rank - 1)];
+            }
+        }
+        return p;
+    }
+
+    /**
+     * The report of a run
+     *
+     * @param target          the description of the target
+     * @param arrival         the arrival model
+     * @param concurrency     the number of clients
+     * @param targetQps       the arrival rate of the open loop, 0 for the closed loop
+     * @param queries         the number of distinct queries replayed
+     * @param warmUp          the number of warm-up queries
+     * @param requests        the number of measured queries
+     * @param errors          the number of failed queries
+     * @param elapsedNanos    the duration of the run
+     * @param meanNanos       the mean latency of the successful queries
+     * @param percentiles     the minimum, p50, p90, p95, p99, p999 and maximum latency of the successful queries
+     * @param histogram       the number of queries with latency in [2^i, 2^(i+1)) microseconds
+     * @param maxQueued       the maximum number of queries waiting for a client in the open loop
+     * @param cacheHits       the number of successful queries answered by the result cache of the service
+     * @param hitPercentiles  the percentiles of the latency of the queries answered by the cache
+     * @param missPercentiles the percentiles of the latency of the successful queries searched on the index
+     */
+    public record Report(String target, Arrival arrival, int concurrency, double targetQps, int queries, int warmUp,
+                         int requests, int errors, long elapsedNanos, double meanNanos, long[] percentiles,
+                         long[] histogram, long maxQueued, int cacheHits, long[] hitPercentiles,
+                         long[] missPercentiles) {
+
+        /**
+         * @return the throughput of the run, in answered queries per second
+         */
+        public double qps() {
+            return elapsedNanos == 0 ? 0 : (requests - errors) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the report as JSON, with the latencies in milliseconds
+         */
+        public JsonObject toJson() {
+
+            final JsonObject o = new JsonObject();
+            o.addProperty("timestamp", Instant.now().toString());
+            o.addProperty("target", target);
+            o.addProperty("arrival", arrival.name().toLowerCase());
+            o.addProperty("concurrency", concurrency);
+            if (arrival == Arrival.OPEN) {
+                o.addProperty("target_qps", targetQps);
+                o.addProperty("max_queued", maxQueued);
+            }
+            o.addProperty("distinct_queries", queries);
+            o.addProperty("warm_up", warmUp);
+            o.addProperty("requests", requests);
+            o.addProperty("errors", errors);
+            o.addProperty("duration_ms", elapsedNanos / 1e6);
+            o.addProperty("qps", qps());
+
+            final JsonObject latency = latency(percentiles);
+            latency.addProperty("mean", meanNanos / 1e6);
+            o.add("latency_ms", latency);
+
+            //the queries answered by the result cache are much faster than the searched ones
+            o.addProperty("cache_hits", cacheHits);
+            o.add("cache_hit_latency_ms", latency(hitPercentiles));
+            o.add("cache_miss_latency_ms", latency(missPercentiles));
+
+            final JsonObject h = new JsonObject();
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    h.addProperty((1L << i) + "-" + ((1L << (i + 1)) - 1), histogram[i]);
+                }
+            }
+            o.add("histogram_us", h);
+            return o;
+        }
+
+        /**
+         * @return the percentiles of a latency distribution as JSON, in milliseconds
+         */
+        private static JsonObject latency(long[] percentiles) {
+            final JsonObject latency = new JsonObject();
+            final String[] names = {"min", "p50", "p90", "p95", "p99", "p999", "max"};
+            for (int i = 0; i < names.length; i++) {
+                latency.addProperty(names[i], percentiles[i] / 1e6);
+            }
+            return latency;
+        }
+
+        /**
+         * Writes the report as JSON
+         *
+         * @param out the writer of the report
+         * @throws IOException if the report cannot be written.
+         */
+        public void write(final Writer out) throws IOException {
+            new GsonBuilder().setPrettyPrinting().create().toJson(toJson(), out);
+            out.flush();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s loop, %d clients: %d queries (%d errors) in %.1f s, %.1f QPS, latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, p999 %.2f ms; %d cache hits p50 %.2f ms, p99 %.2f ms; %d cache misses p50 %.2f ms, p99 %.2f ms",
+                    target, arrival.name().toLowerCase(), concurrency, requests, errors, elapsedNanos / 1e9, qps(),
+                    percentiles[1] / 1e6, percentiles[3] / 1e6, percentiles[4] / 1e6, percentiles[5] / 1e6,
+                    cacheHits, hitPercentiles[1] / 1e6, hitPercentiles[4] / 1e6,
+                    requests - errors - cacheHits, missPercentiles[1] / 1e6, missPercentiles[4] / 1e6);
+        }
+    }
+
+    /**
+     * Replays the topics against a running search service
+     *
+     * @param args the endpoint (default {@code http://localhost:8080/search}), the query log or topics file (default
+     *             {@link Constants#queryPath}, read as topics if its lines start with a topic number), the number of
+     *             clients (default 4), the arrival rate in queries per second (default 0, closed loop), the number of
+     *             queries (default 10000), the output file of the report (default in {@link Constants#runPath}) and
+     *             whether the queries go through the result cache of the service (default false: the index is
+     *             searched for every query, so the searcher is measured instead of the cache).
+     * @throws Exception if something goes wrong while running the load.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final URI endpoint = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/search");
+        final Path queryPath = Paths.get(args.length > 1 ? args[1] : Constants.queryPath);
+        final int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final double qps = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        final int requests = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        final Path output = Paths.get(args.length > 5 ? args[5]
+                : Constants.runPath + "/load-" + System.currentTimeMillis() + ".json");
+        final boolean useCache = args.length > 6 && Boolean.parseBoolean(args[6]);
+
+        //a topics file has the topic number before the query
+        final String first;
+        try (BufferedReader in = Files.newBufferedReader(queryPath, StandardCharsets.UTF_8)) {
+            first = Objects.requireNonNullElse(in.readLine(), "");
+        }
+        final List<String> queries = first.matches("\\d+\\s.*")
+                ? readTopics(queryPath, 0, 42) : readQueryLog(queryPath);
+
+        final LoadGenerator generator = new LoadGenerator(http(endpoint, "BM25", "boosted", SearchService.DEFAULT_K, useCache),
+                endpoint.toString(), queries);
+        generator.setWarmUpRequests(Math.min(requests / 10, 1000));
+
+        final Report report = qps > 0
+                ? generator.runOpenLoop(concurrency, qps, requests)
+                : generator.runClosedLoop(concurrency, requests);
+
+        System.out.println(report);
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            report.write(out);
+        }
+        System.out.printf("Report written to %s%n", output);
+    }
+}
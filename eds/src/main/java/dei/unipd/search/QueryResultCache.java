@@ -0,0 +1,408 @@
+package dei.unipd.search;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Cache of the datasets retrieved for a query, so that a repeated query is answered without parsing and scoring it
+ * again.
+ * <p>
+ * The key is made of the normalized text of the query and of everything that changes the ranking: the retrieval
+ * mode, the similarity, the searched fields with their weights and the number of datasets retrieved. The cache is
+ * bounded both in number of results and in (estimated) memory, the least recently used results are evicted first.
+ * <p>
+ * The results are bound to the generation of the index: when the cache is used with a reader over a different
+ * version of the index (e.g. after a reopen) all the cached results are dropped. The cache is thread-safe.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class QueryResultCache {
+
+    /**
+     * Default maximum number of cached results
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    /**
+     * Default maximum memory of the cached results, in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Estimated memory of an entry besides its strings and scores
+     */
+    private static final int ENTRY_OVERHEAD = 200;
+
+    /**
+     * Estimated memory of a string besides its characters
+     */
+    private static final int STRING_OVERHEAD = 56;
+
+    /**
+     * Maximum number of cached results
+     */
+    private final int maxEntries;
+
+    /**
+     * Maximum memory of the cached results
+     */
+    private final long maxBytes;
+
+    /**
+     * The cached results, in access order
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The generation of the index of the cached results, {@code null} if nothing was cached yet
+     */
+    private Object generation;
+
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates a new cache with the default bounds
+     */
+    public QueryResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxEntries maximum number of cached results
+     * @param maxBytes   maximum memory of the cached results, in bytes
+     * @throws IllegalArgumentException if any of the bounds is less than or equal to zero.
+     */
+    public QueryResultCache(final int maxEntries, final long maxBytes) {
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of cached results cannot be less than or equal to zero.");
+        }
+
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum memory of the cached results cannot be less than or equal to zero.");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates the key of a query
+     *
+     * @param mode       the retrieval mode, e.g. {@code boosted} or {@code bm25f}
+     * @param query      the text of the query
+     * @param similarity the similarity of the searcher
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets retrieved
+     * @return the key
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public static Key key(final String mode, final String query, final Similarity similarity,
+                          final Map<String, Float> weights, final int k) {
+
+        if (mode == null) {
+            throw new NullPointerException("Retrieval mode cannot be null.");
+        }
+
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null.");
+        }
+
+        if (similarity == null) {
+            throw new NullPointerException("Similarity cannot be null.");
+        }
+
+        if (weights == null) {
+            throw new NullPointerException("Field weights cannot be null.");
+        }
+
+        //the similarities print their parameters
+        return new Key(mode, normalize(query), similarity.toString(), new TreeMap<>(weights), k);
+    }
+
+    /**
+     * Normalizes the text of a query: leading, trailing and repeated whitespaces are removed.
+     * The case is kept, since the analyzers of the RDF local names split the words on case changes.
+     *
+     * @param query the text of the query
+     * @return the normalized text
+     */
+    static String normalize(String query) {
+        final StringBuilder sb = new StringBuilder(query.length());
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached result of a query
+     *
+     * @param reader the reader the query is searched with
+     * @param key    the key of the query
+     * @return the cached result, {@code null} if the query is not cached
+     */
+    public synchronized Result get(final IndexReader reader, final Key key) {
+
+        checkGeneration(reader);
+
+        final Entry e = entries.get(key);
+        if (e != null)
+            hits++;
+        else
+            misses++;
+
+        return e == null ? null : e.result;
+    }
+
+    /**
+     * Caches the result of a query
+     *
+     * @param reader the reader the query was searched with
+     * @param key    the key of the query
+     * @param result the result of the query
+     */
+    public synchronized void put(final IndexReader reader, final Key key, final Result result) {
+
+        checkGeneration(reader);
+
+        final Entry e = new Entry(result, size(key, result));
+        if (e.bytes > maxBytes) {
+            //the result would evict all the others
+            return;
+        }
+
+        final Entry old = entries.put(key, e);
+        if (old != null) {
+            cachedBytes -= old.bytes;
+        }
+        cachedBytes += e.bytes;
+        evict();
+    }
+
+    /**
+     * Returns the cached result of a query, searching and caching it on a cache miss. The search is done outside
+     * the lock, so the same query can be searched more than once by concurrent threads.
+     *
+     * @param reader the reader the query is searched with
+     * @param key    the key of the query
+     * @param search the search of the query
+     * @return the result of the query
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the query.
+     */
+    public Result get(final IndexReader reader, final Key key, final Search search) throws IOException, ParseException {
+
+        Result result = get(reader, key);
+
+        if (result == null) {
+            result = search.search();
+            put(reader, key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the cached results if the reader is over a different generation of the index
+     */
+    private void checkGeneration(IndexReader reader) {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        final Object g = generation(reader);
+        if (!g.equals(generation)) {
+            if (generation != null && !entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            cachedBytes = 0;
+            generation = g;
+        }
+    }
+
+    /**
+     * @return the generation of the index of the reader: the version of a directory reader, otherwise the identity
+     * of the reader
+     */
+    private static Object generation(IndexReader reader) {
+        if (reader instanceof DirectoryReader dr) {
+            return List.of(dr.directory(), dr.getVersion());
+        }
+        final IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        return helper != null ? helper.getKey() : reader;
+    }
+
+    /**
+     * Removes the least recently used results until the cache is within its bounds
+     */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || cachedBytes > maxBytes) && it.hasNext()) {
+            cachedBytes -= it.next().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return the estimated memory of a cached result
+     */
+    private static long size(Key key, Result result) {
+        long bytes = ENTRY_OVERHEAD + 2L * key.query().length() + (long) key.weights().size() * STRING_OVERHEAD;
+        for (String id : result.ids()) {
+            bytes += STRING_OVERHEAD + 2L * id.length();
+        }
+        for (List<FacetCollectorManager.Facet> facet : result.facets().values()) {
+            for (FacetCollectorManager.Facet f : facet) {
+                bytes += 2 * STRING_OVERHEAD + 2L * f.label().length();
+            }
+        }
+        for (SnippetGenerator.Snippets s : result.snippets()) {
+            for (Map.Entry<String, String> p : s.passages().entrySet()) {
+                bytes += 2 * STRING_OVERHEAD + 2L * (p.getKey().length() + p.getValue().length());
+            }
+        }
+        return bytes + 4L * result.scores().length;
+    }
+
+    /**
+     * Removes all the cached results (statistics are kept)
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of times the cached results were dropped because the index changed
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the fraction of lookups answered by the cache, 0 if no lookup was done
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("QueryResultCache[results=%d/%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d, invalidations=%d, hit ratio=%.2f%%]",
+                entries.size(), maxEntries, cachedBytes, maxBytes, hits, misses, evictions, invalidations,
+                getHitRatio() * 100);
+    }
+
+    /**
+     * Key of a cached result
+     *
+     * @param mode       the retrieval mode
+     * @param query      the normalized text of the query
+     * @param similarity the description of the similarity
+     * @param weights    the searched fields with their weights, sorted by field
+     * @param k          the number of datasets retrieved
+     */
+    public record Key(String mode, String query, String similarity, SortedMap<String, Float> weights, int k) {
+    }
+
+    /**
+     * The datasets retrieved for a query, in rank order. The arrays must not be modified.
+     *
+     * @param ids      the dataset identifiers
+     * @param scores   the scores of the datasets
+     * @param facets   the facets of all the hits of the query, by field, empty if not counted
+     * @param snippets the snippets of the datasets, in rank order, empty if not generated
+     */
+    public record Result(String[] ids, float[] scores, Map<String, List<FacetCollectorManager.Facet>> facets,
+                         List<SnippetGenerator.Snippets> snippets) {
+
+        /**
+         * Creates a result without facets and snippets
+         *
+         * @param ids    the dataset identifiers
+         * @param scores the scores of the datasets
+         */
+        public Result(String[] ids, float[] scores) {
+            this(ids, scores, Map.of());
+        }
+
+        /**
+         * Creates a result without snippets
+         *
+         * @param ids    the dataset identifiers
+         * @param scores the scores of the datasets
+         * @param facets the facets of all the hits of the query, by field, empty if not counted
+         */
+        public Result(String[] ids, float[] scores, Map<String, List<FacetCollectorManager.Facet>> facets) {
+            this(ids, scores, facets, List.of());
+        }
+    }
+
+    /**
+     * The search of a query on a cache miss
+     */
+    @FunctionalInterface
+    public interface Search {
+
+        /**
+         * @return the result of the query
+         * @throws IOException    if something goes wrong while searching.
+         * @throws ParseException if something goes wrong while parsing the query.
+         */
+        Result search() throws IOException, ParseException;
+    }
+
+    /**
+     * A cached result with its estimated memory
+     */
+    private record Entry(Result result, long bytes) {
+    }
+}
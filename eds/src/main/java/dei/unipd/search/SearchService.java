@@ -0,0 +1,1001 @@
+package dei.unipd.search;
+
+import com.google.gson.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.index.DirectoryFactory;
+import dei.unipd.parse.CustomQueryParser;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident search service over HTTP, built on the JDK HTTP server and bound to the loopback interface.
+ * <p>
+ * The index is opened once and shared through a {@link SearcherManager}: every request acquires the current
+ * searcher, so the index can be refreshed while the service is running. The results are cached with a
+ * {@link QueryResultCache}, which is invalidated when the index is refreshed, and the dataset identifiers are read
+ * through a {@link DatasetIdResolver} built once per version of the index. On start, and on every refresh, the
+ * searcher is warmed up with some sample queries, or with an {@link IndexWarmer} that also preloads the index files.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>{@code POST /search}: searches a query, given as a JSON object such as
+ * {@code {"query": "road accidents", "similarity": "BM25", "mode": "boosted", "fields": {"title": 1.0, "tags": 0.6},
+ * "k": 10}}. Only the query is mandatory: by default the datasets are retrieved with BM25 over all the fields,
+ * with the boosting weights of the similarity, and the 10 best datasets are returned. The fields can also be given
+ * as an array, with weight 1. The response contains the ranked dataset identifiers with their scores and, with
+ * {@code "facets": true}, the most frequent tags, authors and indexable status over all the hits, counted in the
+ * same pass as the ranking (see {@link FacetCollectorManager}) and, with {@code "snippets": true}, the passages of
+ * every dataset that match the query (see {@link SnippetGenerator}). With {@code "cache": false} the index is
+ * searched even if the result is cached, e.g. to measure the latency of the searcher; the {@code cached} property
+ * of the response tells whether the result was answered by the cache.</li>
+ * <li>{@code GET /suggest?q=wat&k=5}: as-you-type suggestions of titles and tags completing a prefix, if a
+ * {@link DatasetSuggester} is set. The suggester follows the versions of the index: it is updated in the background
+ * after every refresh of the searcher manager, so the suggestions only read its last built lookup.</li>
+ * <li>{@code GET /stats}: statistics of the service and of the cache.</li>
+ * <li>{@code POST /refresh}: opens the last commit of the index, if it changed.</li>
+ * </ul>
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class SearchService implements Closeable {
+
+    /**
+     * Default number of datasets to retrieve
+     */
+    public static final int DEFAULT_K = 10;
+
+    /**
+     * Maximum number of datasets that can be retrieved by a request
+     */
+    public static final int MAX_K = 1000;
+
+    /**
+     * The similarities that can be requested, by name
+     */
+    private static final Map<String, Similarity> SIMILARITIES = Map.of(
+            "BM25", new BM25Similarity(),
+            "LMD", new LMDirichletSimilarity(),
+            "TFIDF", new ClassicSimilarity());
+
+    /**
+     * The default weights of the fields, by similarity
+     */
+    private static final Map<String, float[]> DEFAULT_WEIGHTS = Map.of(
+            "BM25", Constants.BM25BoostWeights,
+            "LMD", Constants.LMDBoostWeights,
+            "TFIDF", Constants.TFIDFBoostWeights);
+
+    /**
+     * The analyzer of the queries
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The directory of the index, {@code null} if the searcher manager was given
+     */
+    private final Directory directory;
+
+    /**
+     * The manager of the searchers over the index
+     */
+    private final ReferenceManager<IndexSearcher> manager;
+
+    /**
+     * The resolvers of the dataset identifiers, by version of the index
+     */
+    private final Map<IndexReader.CacheKey, DatasetIdResolver> resolvers = new ConcurrentHashMap<>();
+
+    /**
+     * The cache of the results
+     */
+    private final QueryResultCache cache;
+
+    /**
+     * The queries used to warm up the searcher
+     */
+    private final List<String> warmUpQueries;
+
+    /**
+     * The warmer of the new versions of the index, {@code null} if only the warm-up queries are searched
+     */
+    private final IndexWarmer warmer;
+
+    /**
+     * The suggester of titles and tags, {@code null} if the suggestions are disabled
+     */
+    private volatile DatasetSuggester suggester;
+
+    /**
+     * The thread updating the suggester after the refreshes of the index
+     */
+    private final ExecutorService suggesterUpdates = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "suggester update");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The HTTP server
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads serving the requests
+     */
+    private final ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a new search service over an index directory. The service is not started.
+     *
+     * @param analyzer      the analyzer of the queries, the same used to index the datasets
+     * @param indexPath     the directory containing the index
+     * @param port          the port of the service on the loopback interface, 0 for any free port
+     * @param threads       the number of threads serving the requests
+     * @param cache         the cache of the results
+     * @param warmUpQueries the queries used to warm up the searcher, possibly empty
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if the index cannot be opened or the port cannot be bound.
+     */
+    public SearchService(final Analyzer analyzer, final String indexPath, final int port, final int threads,
+                         final QueryResultCache cache, final List<String> warmUpQueries) throws IOException {
+        this(analyzer, openDirectory(indexPath, null), null, port, threads, cache, warmUpQueries, null);
+    }
+
+    /**
+     * Creates a new search service over an index directory, warmed up with an {@link IndexWarmer} when opened and
+     * refreshed. The index is memory mapped. The service is not started.
+     *
+     * @param analyzer  the analyzer of the queries, the same used to index the datasets
+     * @param indexPath the directory containing the index
+     * @param port      the port of the service on the loopback interface, 0 for any free port
+     * @param threads   the number of threads serving the requests
+     * @param cache     the cache of the results
+     * @param warmer    the warmer of the index
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if the index cannot be opened or the port cannot be bound.
+     */
+    public SearchService(final Analyzer analyzer, final String indexPath, final int port, final int threads,
+                         final QueryResultCache cache, final IndexWarmer warmer) throws IOException {
+        this(analyzer, openDirectory(indexPath, Objects.requireNonNull(warmer, "Index warmer cannot be null.")),
+                null, port, threads, cache, List.of(), warmer);
+    }
+
+    /**
+     * Creates a new search service over the searchers of a manager, e.g. a near-real-time manager over the index
+     * being written. The manager is not closed by the service, and the searchers are warmed up only on start.
+     * The service is not started.
+     *
+     * @param analyzer      the analyzer of the queries, the same used to index the datasets
+     * @param manager       the manager of the searchers
+     * @param port          the port of the service on the loopback interface, 0 for any free port
+     * @param threads       the number of threads serving the requests
+     * @param cache         the cache of the results
+     * @param warmUpQueries the queries used to warm up the searcher, possibly empty
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if the port cannot be bound.
+     */
+    public SearchService(final Analyzer analyzer, final ReferenceManager<IndexSearcher> manager, final int port,
+                         final int threads, final QueryResultCache cache, final List<String> warmUpQueries)
+            throws IOException {
+        this(analyzer, null, manager, port, threads, cache, warmUpQueries, null);
+    }
+
+    private SearchService(final Analyzer analyzer, final Directory directory, final ReferenceManager<IndexSearcher> manager,
+                          final int port, final int threads, final QueryResultCache cache,
+                          final List<String> warmUpQueries, final IndexWarmer warmer) throws IOException {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (cache == null) {
+            throw new NullPointerException("Result cache cannot be null.");
+        }
+
+        if (warmUpQueries == null) {
+            throw new NullPointerException("Warm-up queries cannot be null.");
+        }
+
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException(String.format("Invalid port %d.", port));
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        this.analyzer = analyzer;
+        this.cache = cache;
+        this.warmUpQueries = List.copyOf(warmUpQueries);
+        this.warmer = warmer;
+        this.directory = directory;
+
+        if (manager != null) {
+            this.manager = manager;
+        } else {
+            //every new version of the index is warmed up before being used
+            this.manager = new SearcherManager(directory, new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                    IndexSearcher searcher = super.newSearcher(reader, previousReader);
+                    warmUp(reader);
+                    return searcher;
+                }
+            });
+        }
+
+        //the suggester follows also the versions of the index not opened by this service (near-real-time mode)
+        this.manager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh && suggester != null) {
+                    suggesterUpdates.execute(SearchService.this::updateSuggester);
+                }
+            }
+        });
+
+        //responses are small: without TCP_NODELAY every response waits for the delayed ACK of the client
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+
+        server.createContext("/search", exchange -> handle(exchange, "POST", () -> search(readJson(exchange))));
+        server.createContext("/suggest", exchange -> handle(exchange, "GET", () -> suggest(exchange.getRequestURI())));
+        server.createContext("/stats", exchange -> handle(exchange, "GET", this::stats));
+        server.createContext("/refresh", exchange -> handle(exchange, "POST", () -> {
+            JsonObject response = new JsonObject();
+            response.addProperty("refreshed", refresh());
+            return response;
+        }));
+    }
+
+    /**
+     * Opens the directory of the index, with the directory of the warmer if any and the default type of directory
+     * otherwise
+     */
+    private static Directory openDirectory(String indexPath, IndexWarmer warmer) throws IOException {
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (indexPath.isEmpty()) {
+            throw new IllegalArgumentException("Index path cannot be empty.");
+        }
+
+        return warmer != null ? IndexWarmer.openDirectory(Paths.get(indexPath)) : DirectoryFactory.open(Paths.get(indexPath));
+    }
+
+    /**
+     * Sets the suggester of titles and tags served by {@code /suggest}. The suggester is brought up to date with the
+     * current version of the index and then with every new version.
+     *
+     * @param suggester the suggester, {@code null} to disable the suggestions
+     * @throws IOException if the index cannot be read.
+     */
+    public void setSuggester(final DatasetSuggester suggester) throws IOException {
+        if (suggester != null) {
+            final IndexSearcher searcher = manager.acquire();
+            try {
+                suggester.update(searcher.getIndexReader());
+            } finally {
+                manager.release(searcher);
+            }
+        }
+        this.suggester = suggester;
+    }
+
+    /**
+     * Brings the suggester up to date with the current version of the index, in the thread of the suggester updates
+     */
+    private void updateSuggester() {
+
+        final DatasetSuggester s = suggester;
+        if (s == null) {
+            return;
+        }
+
+        try {
+            final IndexSearcher searcher = manager.acquire();
+            try {
+                s.update(searcher.getIndexReader());
+            } finally {
+                manager.release(searcher);
+            }
+        } catch (IOException | RuntimeException e) {
+            //the suggestions of the previous version are kept
+            System.out.printf("Unable to update the suggester: %s.%n", e.getMessage());
+        }
+    }
+
+    /**
+     * Warms up the searcher, if not done yet by the searcher manager, and starts serving the requests
+     *
+     * @throws IOException if something goes wrong while warming up the searcher.
+     */
+    public void start() throws IOException {
+
+        if (directory == null) {
+            IndexSearcher searcher = manager.acquire();
+            try {
+                warmUp(searcher.getIndexReader());
+            } finally {
+                manager.release(searcher);
+            }
+        }
+
+        server.start();
+        System.out.printf("Search service listening on http://%s:%d%n", server.getAddress().getHostString(),
+                server.getAddress().getPort());
+    }
+
+    /**
+     * Opens the last commit of the index, if it changed. The cached results are dropped at the first search over
+     * the new version of the index.
+     *
+     * @return true if a new version of the index was opened
+     * @throws IOException if the index cannot be opened.
+     */
+    public boolean refresh() throws IOException {
+
+        final IndexSearcher before = manager.acquire();
+        try {
+            manager.maybeRefreshBlocking();
+
+            final IndexSearcher after = manager.acquire();
+            try {
+                return after.getIndexReader() != before.getIndexReader();
+            } finally {
+                manager.release(after);
+            }
+        } finally {
+            manager.release(before);
+        }
+    }
+
+    /**
+     * @return the address of the service
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Searches a query
+     *
+     * @param query      the text of the query
+     * @param similarity the name of the similarity: {@code BM25}, {@code LMD} or {@code TFIDF}
+     * @param mode       the retrieval mode: {@code boosted} (sum of the per field scores) or {@code bm25f}
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @return the retrieved datasets, without the duplicated ones
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while searching.
+     * @throws ParseException           if something goes wrong while parsing the query.
+     */
+    public QueryResultCache.Result search(final String query, final String similarity, final String mode,
+                                          final Map<String, Float> weights, final int k)
+            throws IOException, ParseException {
+        return search(query, similarity, mode, weights, k, false);
+    }
+
+    /**
+     * Searches a query, optionally counting the facets of all its hits
+     *
+     * @param query      the text of the query
+     * @param similarity the name of the similarity: {@code BM25}, {@code LMD} or {@code TFIDF}
+     * @param mode       the retrieval mode: {@code boosted} (sum of the per field scores) or {@code bm25f}
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @param facets     true to count the facets of the hits
+     * @return the retrieved datasets, without the duplicated ones, with the facets if counted
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while searching.
+     * @throws ParseException           if something goes wrong while parsing the query.
+     */
+    public QueryResultCache.Result search(final String query, final String similarity, final String mode,
+                                          final Map<String, Float> weights, final int k, final boolean facets)
+            throws IOException, ParseException {
+        return search(query, similarity, mode, weights, k, facets, false);
+    }
+
+    /**
+     * Searches a query, optionally counting the facets of all its hits and generating the snippets of the retrieved
+     * datasets
+     *
+     * @param query      the text of the query
+     * @param similarity the name of the similarity: {@code BM25}, {@code LMD} or {@code TFIDF}
+     * @param mode       the retrieval mode: {@code boosted} (sum of the per field scores) or {@code bm25f}
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @param facets     true to count the facets of the hits
+     * @param snippets   true to generate the snippets of the retrieved datasets
+     * @return the retrieved datasets, without the duplicated ones, with the facets and the snippets if requested
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while searching.
+     * @throws ParseException           if something goes wrong while parsing the query.
+     */
+    public QueryResultCache.Result search(final String query, final String similarity, final String mode,
+                                          final Map<String, Float> weights, final int k, final boolean facets,
+                                          final boolean snippets)
+            throws IOException, ParseException {
+        return answer(query, similarity, mode, weights, k, facets, snippets, true).result();
+    }
+
+    /**
+     * Searches a query as {@link #search(String, String, String, Map, int, boolean, boolean)}, optionally bypassing
+     * the cache of the results, and tells whether the result was answered by the cache
+     *
+     * @param query      the text of the query
+     * @param similarity the name of the similarity: {@code BM25}, {@code LMD} or {@code TFIDF}
+     * @param mode       the retrieval mode: {@code boosted} (sum of the per field scores) or {@code bm25f}
+     * @param weights    the searched fields with their weights
+     * @param k          the number of datasets to retrieve
+     * @param facets     true to count the facets of the hits
+     * @param snippets   true to generate the snippets of the retrieved datasets
+     * @param useCache   false to search the index even if the result is cached, without caching it
+     * @return the retrieved datasets, with whether they were answered by the cache
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while searching.
+     * @throws ParseException           if something goes wrong while parsing the query.
+     */
+    public Answer answer(final String query, final String similarity, final String mode,
+                         final Map<String, Float> weights, final int k, final boolean facets, final boolean snippets,
+                         final boolean useCache)
+            throws IOException, ParseException {
+
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null.");
+        }
+
+        final Similarity sim = SIMILARITIES.get(similarity);
+        if (sim == null) {
+            throw new IllegalArgumentException(String.format("Unknown similarity %s; expected one of %s.", similarity,
+                    new TreeSet<>(SIMILARITIES.keySet())));
+        }
+
+        if (!"boosted".equals(mode) && !"bm25f".equals(mode)) {
+            throw new IllegalArgumentException(String.format("Unknown mode %s; expected boosted or bm25f.", mode));
+        }
+
+        if ("bm25f".equals(mode) && !(sim instanceof BM25Similarity)) {
+            throw new IllegalArgumentException("BM25F requires a BM25 similarity.");
+        }
+
+        if (weights == null || weights.isEmpty()) {
+            throw new IllegalArgumentException("At least one field has to be searched.");
+        }
+
+        for (Map.Entry<String, Float> e : weights.entrySet()) {
+            if (!Arrays.asList(Constants.queryFields).contains(e.getKey())) {
+                throw new IllegalArgumentException(String.format("Unknown field %s; expected one of %s.", e.getKey(),
+                        Arrays.toString(Constants.queryFields)));
+            }
+            if (!(e.getValue() >= 0)) {
+                throw new IllegalArgumentException(String.format("Invalid weight %s for field %s.", e.getValue(), e.getKey()));
+            }
+        }
+
+        if (k <= 0 || k > MAX_K) {
+            throw new IllegalArgumentException(String.format("The number of datasets to retrieve must be between 1 and %d.", MAX_K));
+        }
+
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            final IndexReader reader = searcher.getIndexReader();
+            if (!useCache) {
+                return new Answer(search(reader, query, sim, mode, weights, k, facets, snippets), false);
+            }
+
+            //the results with facets or snippets are cached apart from the ones without
+            final QueryResultCache.Key key = QueryResultCache.key(mode + (facets ? "+facets" : "")
+                    + (snippets ? "+snippets" : ""), query, sim, weights, k);
+            final QueryResultCache.Result cached = cache.get(reader, key);
+            if (cached != null) {
+                return new Answer(cached, true);
+            }
+
+            final QueryResultCache.Result result = search(reader, query, sim, mode, weights, k, facets, snippets);
+            cache.put(reader, key, result);
+            return new Answer(result, false);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    /**
+     * Searches a query on a version of the index, without the cache
+     */
+    private QueryResultCache.Result search(IndexReader reader, String query, Similarity sim, String mode,
+                                           Map<String, Float> weights, int k, boolean facets, boolean snippets)
+            throws IOException, ParseException {
+
+        final CustomQueryParser qp = new CustomQueryParser(weights, analyzer, weights.keySet().iterator().next());
+        final Query q = "bm25f".equals(mode) ? qp.combinedFieldsParse(query) : qp.multipleFieldsParse(query);
+
+        //searchers are cheap to create: one per request, with the requested similarity (k1 follows the scaled
+        //weights of BM25F)
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity("bm25f".equals(mode) ? qp.combinedFieldsSimilarity((BM25Similarity) sim) : sim);
+
+        final TopDocs docs;
+        Map<String, List<FacetCollectorManager.Facet>> counts = Map.of();
+        if (facets) {
+            //the facets are counted while collecting the top-k, with no second pass over the hits
+            final FacetCollectorManager.FacetedTopDocs faceted = searcher.search(CustomQueryParser.flatten(q),
+                    new FacetCollectorManager(k));
+            docs = faceted.topDocs();
+            counts = faceted.facets();
+        } else {
+            docs = searcher.search(CustomQueryParser.flatten(q), new TopKCollectorManager(k, k));
+        }
+        final ScoreDoc[] sd = docs.scoreDocs;
+
+        //the dataset identifiers of the hits, with the duplicated datasets flagged
+        final DatasetIdResolver.ResolvedIds resolved = resolver(reader).resolve(sd);
+
+        final String[] ids = new String[sd.length];
+        final float[] scores = new float[sd.length];
+        final ScoreDoc[] retrieved = new ScoreDoc[sd.length];
+        int n = 0;
+        for (int i = 0; i < sd.length; i++) {
+            if (!resolved.duplicates()[i]) {
+                ids[n] = resolved.ids()[i];
+                scores[n] = sd[i].score;
+                retrieved[n] = sd[i];
+                n++;
+            }
+        }
+
+        //the snippets only for the retrieved datasets; a generator is not thread-safe, so one per request
+        List<SnippetGenerator.Snippets> passages = List.of();
+        if (snippets) {
+            passages = List.of(new SnippetGenerator(searcher, analyzer).snippets(q, Arrays.copyOf(retrieved, n)));
+        }
+
+        return new QueryResultCache.Result(Arrays.copyOf(ids, n), Arrays.copyOf(scores, n), counts, passages);
+    }
+
+    /**
+     * @return the resolver of the dataset identifiers for a version of the index, created at the first use
+     */
+    private DatasetIdResolver resolver(IndexReader reader) throws IOException {
+
+        final IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper == null) {
+            return new DatasetIdResolver(reader);
+        }
+
+        DatasetIdResolver resolver = resolvers.get(helper.getKey());
+        if (resolver == null) {
+            resolver = new DatasetIdResolver(reader);
+            if (resolvers.putIfAbsent(helper.getKey(), resolver) == null) {
+                //the resolver is released together with the reader
+                helper.addClosedListener(resolvers::remove);
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Warms up a version of the index with the warmer, if any, and runs the warm-up queries with all the
+     * similarities, without caching the results
+     */
+    private void warmUp(IndexReader reader) throws IOException {
+
+        final long start = System.currentTimeMillis();
+
+        if (warmer != null) {
+            //the sample queries are searched as the default requests of every similarity
+            warmer.warm(reader, (r, query) -> {
+                for (Map.Entry<String, Similarity> sim : SIMILARITIES.entrySet()) {
+                    search(r, query, sim.getValue(), "boosted", defaultWeights(sim.getKey()), DEFAULT_K, false, false);
+                }
+            });
+        }
+
+        resolver(reader);
+
+        for (String query : warmUpQueries) {
+            for (Map.Entry<String, Similarity> sim : SIMILARITIES.entrySet()) {
+                try {
+                    search(reader, query, sim.getValue(), "boosted", defaultWeights(sim.getKey()), DEFAULT_K, false, false);
+                } catch (ParseException e) {
+                    //the queries are escaped, a warm-up query that cannot be parsed is skipped
+                }
+            }
+        }
+
+        System.out.printf("Searcher warmed up with %d queries in %d ms.%n", warmUpQueries.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return the default weights of the fields for a similarity
+     */
+    private static Map<String, Float> defaultWeights(String similarity) {
+        final float[] w = DEFAULT_WEIGHTS.get(similarity);
+        final Map<String, Float> weights = new LinkedHashMap<>();
+        for (int i = 0; i < Constants.queryFields.length; i++) {
+            weights.put(Constants.queryFields[i], w[i]);
+        }
+        return weights;
+    }
+
+    /**
+     * Searches the query of a request
+     *
+     * @param request the JSON request
+     * @return the JSON response
+     */
+    private JsonObject search(JsonObject request) throws IOException, ParseException {
+
+        final long start = System.nanoTime();
+
+        final String query = getString(request, "query", null);
+        if (query == null) {
+            throw new IllegalArgumentException("Missing query.");
+        }
+
+        final String similarity = getString(request, "similarity", "BM25").toUpperCase(Locale.ROOT);
+        final String mode = getString(request, "mode", "boosted").toLowerCase(Locale.ROOT);
+        final int k = request.has("k") ? request.get("k").getAsInt() : DEFAULT_K;
+        final boolean facets = request.has("facets") && request.get("facets").getAsBoolean();
+        final boolean snippets = request.has("snippets") && request.get("snippets").getAsBoolean();
+        final boolean useCache = !request.has("cache") || request.get("cache").getAsBoolean();
+
+        final Map<String, Float> weights;
+        final JsonElement fields = request.get("fields");
+        if (fields == null || fields.isJsonNull()) {
+            if (!DEFAULT_WEIGHTS.containsKey(similarity)) {
+                throw new IllegalArgumentException(String.format("Unknown similarity %s; expected one of %s.",
+                        similarity, new TreeSet<>(SIMILARITIES.keySet())));
+            }
+            weights = defaultWeights(similarity);
+        } else if (fields.isJsonArray()) {
+            weights = new LinkedHashMap<>();
+            for (JsonElement f : fields.getAsJsonArray()) {
+                weights.put(f.getAsString(), 1f);
+            }
+        } else if (fields.isJsonObject()) {
+            weights = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonElement> f : fields.getAsJsonObject().entrySet()) {
+                weights.put(f.getKey(), f.getValue().getAsFloat());
+            }
+        } else {
+            throw new IllegalArgumentException("The fields must be an array or an object with the weights.");
+        }
+
+        final Answer answer = answer(query, similarity, mode, weights, k, facets, snippets, useCache);
+        final QueryResultCache.Result result = answer.result();
+
+        final JsonArray hits = new JsonArray();
+        for (int i = 0; i < result.ids().length; i++) {
+            JsonObject hit = new JsonObject();
+            hit.addProperty("id", result.ids()[i]);
+            hit.addProperty("score", result.scores()[i]);
+            if (snippets) {
+                final SnippetGenerator.Snippets s = result.snippets().get(i);
+                final JsonObject passages = new JsonObject();
+                for (Map.Entry<String, String> p : s.passages().entrySet()) {
+                    passages.addProperty(p.getKey(), p.getValue());
+                }
+                hit.add("snippets", passages);
+                hit.addProperty("snippetsComplete", s.complete());
+            }
+            hits.add(hit);
+        }
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("query", query);
+        response.addProperty("similarity", similarity);
+        response.addProperty("mode", mode);
+        response.addProperty("k", k);
+        response.addProperty("cached", answer.cached());
+        response.add("hits", hits);
+        if (facets) {
+            final JsonObject f = new JsonObject();
+            for (Map.Entry<String, List<FacetCollectorManager.Facet>> e : result.facets().entrySet()) {
+                final JsonArray values = new JsonArray();
+                for (FacetCollectorManager.Facet facet : e.getValue()) {
+                    final JsonObject value = new JsonObject();
+                    value.addProperty("label", facet.label());
+                    value.addProperty("count", facet.count());
+                    values.add(value);
+                }
+                f.add(e.getKey(), values);
+            }
+            response.add("facets", f);
+        }
+        response.addProperty("tookMicros", (System.nanoTime() - start) / 1000);
+        return response;
+    }
+
+    /**
+     * Suggests the titles and the tags completing the prefix of a request
+     *
+     * @param uri the URI of the request, with the prefix in the {@code q} parameter and optionally the number of
+     *            suggestions in the {@code k} parameter
+     * @return the JSON response
+     */
+    private JsonObject suggest(URI uri) throws IOException {
+
+        final long start = System.nanoTime();
+
+        final DatasetSuggester s = suggester;
+        if (s == null) {
+            throw new IllegalStateException("Suggestions are not enabled.");
+        }
+
+        final Map<String, String> params = new HashMap<>();
+        final String rawQuery = uri.getRawQuery();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        final String prefix = params.get("q");
+        if (prefix == null) {
+            throw new IllegalArgumentException("Missing prefix.");
+        }
+
+        final int k;
+        try {
+            k = Integer.parseInt(params.getOrDefault("k", String.valueOf(DatasetSuggester.DEFAULT_K)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid number of suggestions %s.", params.get("k")));
+        }
+
+        if (k <= 0 || k > MAX_K) {
+            throw new IllegalArgumentException(String.format("The number of suggestions must be between 1 and %d.",
+                    MAX_K));
+        }
+
+        final JsonArray suggestions = new JsonArray();
+        for (DatasetSuggester.Suggestion suggestion : s.lookup(prefix, k)) {
+            final JsonObject o = new JsonObject();
+            o.addProperty("text", suggestion.text());
+            o.addProperty("field", suggestion.field());
+            o.addProperty("weight", suggestion.weight());
+            suggestions.add(o);
+        }
+
+        final JsonObject response = new JsonObject();
+        response.addProperty("prefix", prefix);
+        response.add("suggestions", suggestions);
+        response.addProperty("tookMicros", (System.nanoTime() - start) / 1000);
+        return response;
+    }
+
+    /**
+     * @return the statistics of the service
+     */
+    private JsonObject stats() throws IOException {
+
+        final JsonObject response = new JsonObject();
+
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            response.addProperty("datasets", searcher.getIndexReader().numDocs());
+        } finally {
+            manager.release(searcher);
+        }
+
+        response.addProperty("requests", requests.get());
+        response.addProperty("errors", errors.get());
+
+        final JsonObject c = new JsonObject();
+        c.addProperty("results", cache.size());
+        c.addProperty("bytes", cache.getCachedBytes());
+        c.addProperty("hits", cache.getHits());
+        c.addProperty("misses", cache.getMisses());
+        c.addProperty("evictions", cache.getEvictions());
+        c.addProperty("invalidations", cache.getInvalidations());
+        c.addProperty("hitRatio", cache.getHitRatio());
+        response.add("cache", c);
+
+        return response;
+    }
+
+    /**
+     * Handles a request, replying with the JSON response or with the error
+     *
+     * @param exchange the HTTP exchange
+     * @param method   the accepted HTTP method
+     * @param handler  the handler of the request
+     */
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+
+        requests.incrementAndGet();
+
+        int status;
+        JsonObject response;
+
+        if (!method.equalsIgnoreCase(exchange.getRequestMethod())) {
+            status = 405;
+            response = error(String.format("Method %s not allowed; use %s.", exchange.getRequestMethod(), method));
+        } else {
+            try {
+                response = handler.handle();
+                status = 200;
+            } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException |
+                     JsonParseException | ParseException e) {
+                //invalid requests, JSON syntax errors and values of the wrong type
+                status = 400;
+                response = error(e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                status = 500;
+                response = error(e.getMessage());
+            }
+        }
+
+        if (status != 200) {
+            errors.incrementAndGet();
+        }
+
+        final byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return the body of the request, as a JSON object
+     */
+    private static JsonObject readJson(HttpExchange exchange) throws IOException {
+        try (InputStreamReader in = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            final JsonElement json = JsonParser.parseReader(in);
+            if (!json.isJsonObject()) {
+                throw new IllegalArgumentException("The request must be a JSON object.");
+            }
+            return json.getAsJsonObject();
+        } catch (JsonIOException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static String getString(JsonObject json, String name, String defaultValue) {
+        final JsonElement e = json.get(name);
+        return e == null || e.isJsonNull() ? defaultValue : e.getAsString();
+    }
+
+    private static JsonObject error(String message) {
+        final JsonObject response = new JsonObject();
+        response.addProperty("error", message);
+        return response;
+    }
+
+    /**
+     * Stops the service and closes the index, if opened by the service
+     *
+     * @throws IOException if something goes wrong while closing the index.
+     */
+    @Override
+    public void close() throws IOException {
+
+        server.stop(0);
+        executor.shutdown();
+        suggesterUpdates.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            suggesterUpdates.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (directory != null) {
+            manager.close();
+            directory.close();
+        }
+    }
+
+    /**
+     * Starts the search service and keeps it running until the process is stopped
+     *
+     * @param args the index directory, the port (8080 by default) and the topics used to warm up the searcher
+     *             (optional).
+     * @throws Exception if the service cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String indexPath = args.length > 0 ? args[0] : Constants.indexPathSSD;
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+
+        //a sample of the topics is searched when the index is opened, after the hot files are preloaded
+        final List<String> sampleQueries = args.length > 2
+                ? LoadGenerator.readTopics(Paths.get(args[2]), 200, 42) : List.of();
+        final IndexWarmer warmer = new IndexWarmer(sampleQueries);
+        warmer.setBudgets(60_000, 10_000, 30_000);
+
+        final Analyzer a = LocalNameAnalyzer.forIndex();
+
+        final SearchService service = new SearchService(a, indexPath, port,
+                Runtime.getRuntime().availableProcessors(), new QueryResultCache(), warmer);
+
+        //as-you-type suggestions of titles and tags, weighted by the number of datasets
+        service.setSuggester(new DatasetSuggester());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                service.close();
+            } catch (IOException e) {
+                System.out.printf("Unable to close the index: %s.%n", e.getMessage());
+            }
+        }));
+
+        service.start();
+    }
+
+    /**
+     * The handler of a request
+     */
+    @FunctionalInterface
+    private interface Handler {
+
+        /**
+         * @return the JSON response
+         * @throws IOException    if something goes wrong while searching.
+         * @throws ParseException if something goes wrong while parsing the query.
+         */
+        JsonObject handle() throws IOException, ParseException;
+    }
+
+    /**
+     * The result of a query, with whether it was answered by the cache
+     *
+     * @param result the retrieved datasets
+     * @param cached true if the result was answered by the cache, false if the index was searched
+     */
+    public record Answer(QueryResultCache.Result result, boolean cached) {
+    }
+}
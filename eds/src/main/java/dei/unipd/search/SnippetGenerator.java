@@ -0,0 +1,251 @@
+package dei.unipd.search;
+
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.uhighlight.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Generates the snippets of the search results: for every hit, the passages of the snippet fields that match the
+ * query, with the matching terms highlighted.
+ * <p>
+ * The snippets are built with a {@link UnifiedHighlighter} from the offsets recorded in the postings of the snippet
+ * fields (see {@link dei.unipd.index.DatasetField}), so the stored values are not analyzed again. Only the first
+ * {@code maxLength} characters of a field are considered, since the literals of a dataset can take megabytes. For
+ * indexes built without offsets the highlighter analyzes the stored values, within the same limit.
+ * <p>
+ * The fields of a hit are highlighted in a single pass, so the stored fields of the hit are loaded once. Every hit
+ * has a time budget: the fields are highlighted one after another and, once the budget is spent, the remaining
+ * fields of the hit are skipped and the snippets of the hit are flagged as incomplete.
+ * <p>
+ * A snippet generator is not thread-safe: every thread has to use its own generator.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class SnippetGenerator {
+
+    /**
+     * Default maximum number of passages per field
+     */
+    public static final int DEFAULT_MAX_PASSAGES = 2;
+
+    /**
+     * Default time budget per hit, in milliseconds
+     */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 20;
+
+    /**
+     * Default maximum number of characters of a field considered for the snippets
+     */
+    public static final int DEFAULT_MAX_LENGTH = UnifiedHighlighter.DEFAULT_MAX_LENGTH;
+
+    /**
+     * The highlighter
+     */
+    private final UnifiedHighlighter highlighter;
+
+    /**
+     * The snippet fields
+     */
+    private final String[] fields;
+
+    /**
+     * The maximum number of passages of the snippet fields
+     */
+    private final int[] maxPassages;
+
+    /**
+     * Time budget per hit, in nanoseconds
+     */
+    private final long timeBudgetNanos;
+
+    /**
+     * The time when the budget of the current hit is spent
+     */
+    private long deadline;
+
+    /**
+     * Whether some fields of the current hit were skipped
+     */
+    private boolean skipped;
+
+    /**
+     * Creates a new snippet generator for the snippet fields of {@link Constants#snippetFields}, with the default
+     * limits
+     *
+     * @param searcher the searcher of the hits
+     * @param analyzer the analyzer used to index the datasets
+     */
+    public SnippetGenerator(final IndexSearcher searcher, final Analyzer analyzer) {
+        this(searcher, analyzer, defaultPassages(), DEFAULT_TIME_BUDGET_MILLIS, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Creates a new snippet generator
+     *
+     * @param searcher         the searcher of the hits
+     * @param analyzer         the analyzer used to index the datasets
+     * @param maxPassages      the snippet fields, with their maximum number of passages
+     * @param timeBudgetMillis the time budget per hit, in milliseconds
+     * @param maxLength        the maximum number of characters of a field considered for the snippets
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public SnippetGenerator(final IndexSearcher searcher, final Analyzer analyzer,
+                            final Map<String, Integer> maxPassages, final long timeBudgetMillis, final int maxLength) {
+
+        if (searcher == null) {
+            throw new NullPointerException("Index searcher cannot be null.");
+        }
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (maxPassages == null) {
+            throw new NullPointerException("Passages per field cannot be null.");
+        }
+
+        if (maxPassages.isEmpty()) {
+            throw new IllegalArgumentException("At least one snippet field is required.");
+        }
+
+        for (Map.Entry<String, Integer> e : maxPassages.entrySet()) {
+            if (e.getValue() == null || e.getValue() <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "The number of passages of field %s cannot be less than or equal to zero.", e.getKey()));
+            }
+        }
+
+        if (timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("The time budget per hit cannot be less than or equal to zero.");
+        }
+
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("The maximum length of a field cannot be less than or equal to zero.");
+        }
+
+        this.fields = maxPassages.keySet().toArray(new String[0]);
+        this.maxPassages = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            this.maxPassages[i] = maxPassages.get(fields[i]);
+        }
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000;
+
+        highlighter = new BudgetedHighlighter(searcher, analyzer);
+        highlighter.setMaxLength(maxLength);
+        highlighter.setFormatter(new DefaultPassageFormatter("<b>", "</b>", " ... ", true));
+        //fields without matches get no snippet instead of their first passages
+        highlighter.setMaxNoHighlightPassages(0);
+    }
+
+    /**
+     * @return the snippet fields of {@link Constants#snippetFields}, with the default number of passages
+     */
+    private static Map<String, Integer> defaultPassages() {
+        final Map<String, Integer> passages = new LinkedHashMap<>();
+        for (String field : Constants.snippetFields) {
+            passages.put(field, DEFAULT_MAX_PASSAGES);
+        }
+        return passages;
+    }
+
+    /**
+     * Generates the snippets of some hits
+     *
+     * @param query the query of the hits, the terms of the query are highlighted
+     * @param hits  the hits
+     * @return the snippets of the hits, in the same order
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public Snippets[] snippets(final Query query, final ScoreDoc[] hits) throws IOException {
+
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null.");
+        }
+
+        final Snippets[] snippets = new Snippets[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            snippets[i] = snippets(query, hits[i].doc);
+        }
+        return snippets;
+    }
+
+    /**
+     * Generates the snippets of a hit, within the time budget
+     *
+     * @param query the query of the hit, the terms of the query are highlighted
+     * @param doc   the document of the hit
+     * @return the snippets of the hit
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    public Snippets snippets(final Query query, final int doc) throws IOException {
+
+        deadline = System.nanoTime() + timeBudgetNanos;
+        skipped = false;
+
+        final Map<String, String[]> highlighted = highlighter.highlightFields(fields, query, new int[]{doc},
+                maxPassages);
+
+        final Map<String, String> passages = new LinkedHashMap<>();
+        for (String field : fields) {
+            final String snippet = highlighted.get(field)[0];
+            if (snippet != null && !snippet.isEmpty()) {
+                passages.put(field, snippet);
+            }
+        }
+
+        return new Snippets(doc, passages, !skipped);
+    }
+
+    /**
+     * Unified highlighter whose field highlighters skip the fields once the budget of the hit is spent
+     */
+    private class BudgetedHighlighter extends UnifiedHighlighter {
+
+        BudgetedHighlighter(IndexSearcher searcher, Analyzer analyzer) {
+            super(searcher, analyzer);
+        }
+
+        @Override
+        protected FieldHighlighter getFieldHighlighter(String field, Query query, Set<Term> allTerms, int maxPassages) {
+
+            //the same components as the default field highlighter
+            final UHComponents components = getHighlightComponents(field, query, allTerms);
+            final OffsetSource offsetSource = getOptimizedOffsetSource(components);
+
+            return new FieldHighlighter(field, getOffsetStrategy(offsetSource, components),
+                    new SplittingBreakIterator(getBreakIterator(field), MULTIVAL_SEP_CHAR), getScorer(field),
+                    maxPassages, getMaxNoHighlightPassages(field), getFormatter(field)) {
+
+                @Override
+                public Object highlightFieldForDoc(LeafReader reader, int docId, String content) throws IOException {
+                    if (System.nanoTime() > deadline) {
+                        skipped = true;
+                        return null;
+                    }
+                    return super.highlightFieldForDoc(reader, docId, content);
+                }
+            };
+        }
+    }
+
+    /**
+     * The snippets of a hit
+     *
+     * @param doc      the document of the hit
+     * @param passages the highlighted passages of the fields that match the query, in the order of the fields
+     * @param complete false if some fields were skipped because the time budget was spent
+     */
+    public record Snippets(int doc, Map<String, String> passages, boolean complete) {
+    }
+}
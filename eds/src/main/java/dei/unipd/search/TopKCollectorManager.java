@@ -0,0 +1,115 @@
+package dei.unipd.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects the top-k hits of a query and counts the documents actually scored.
+ * <p>
+ * Once {@code totalHitsThreshold} hits have been counted, the collectors tell the scorers the minimum competitive
+ * score, so a disjunction of term queries skips the blocks of postings whose maximum score cannot enter the top-k
+ * (block-max WAND). The top-k is the same as the exhaustive one, only the total number of hits becomes a lower bound.
+ * <p>
+ * The manager is shared by the slices of a single search: the minimum competitive score is propagated among the
+ * slices searched in parallel. A new manager has to be created for every search.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class TopKCollectorManager implements CollectorManager<TopKCollectorManager.CountingCollector, TopDocs> {
+
+    /**
+     * The manager of the top-k collectors
+     */
+    private final CollectorManager<TopScoreDocCollector, TopDocs> topK;
+
+    /**
+     * Number of documents scored by the reduced collectors
+     */
+    private long scoredDocuments;
+
+    /**
+     * Creates a new manager
+     *
+     * @param k                  the number of hits to collect
+     * @param totalHitsThreshold the number of hits to count exactly before skipping the non-competitive documents
+     * @throws IllegalArgumentException if any of the parameters is less than or equal to zero.
+     */
+    public TopKCollectorManager(final int k, final int totalHitsThreshold) {
+
+        if (k <= 0) {
+            throw new IllegalArgumentException("The number of hits to collect cannot be less than or equal to zero.");
+        }
+
+        if (totalHitsThreshold <= 0) {
+            throw new IllegalArgumentException("The total hits threshold cannot be less than or equal to zero.");
+        }
+
+        topK = TopScoreDocCollector.createSharedManager(k, null, totalHitsThreshold);
+    }
+
+    @Override
+    public CountingCollector newCollector() throws IOException {
+        return new CountingCollector(topK.newCollector());
+    }
+
+    @Override
+    public TopDocs reduce(final Collection<CountingCollector> collectors) throws IOException {
+
+        final List<TopScoreDocCollector> inner = new ArrayList<>(collectors.size());
+        long scored = 0;
+        for (CountingCollector c : collectors) {
+            inner.add(c.topK);
+            scored += c.count;
+        }
+
+        scoredDocuments = scored;
+        return topK.reduce(inner);
+    }
+
+    /**
+     * @return the number of documents scored by the search, available once the search is complete
+     */
+    public long getScoredDocuments() {
+        return scoredDocuments;
+    }
+
+    /**
+     * A top-k collector counting the collected documents. The scorer is passed through, so the minimum competitive
+     * score still reaches it.
+     */
+    public static final class CountingCollector extends FilterCollector {
+
+        /**
+         * The wrapped top-k collector
+         */
+        private final TopScoreDocCollector topK;
+
+        /**
+         * Number of documents collected; a collector is used by a single thread
+         */
+        private long count;
+
+        private CountingCollector(TopScoreDocCollector topK) {
+            super(topK);
+            this.topK = topK;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                @Override
+                public void collect(int doc) throws IOException {
+                    count++;
+                    in.collect(doc);
+                }
+            };
+        }
+    }
+}
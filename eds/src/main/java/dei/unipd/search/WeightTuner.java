@@ -0,0 +1,609 @@
+package dei.unipd.search;
+
+import dei.unipd.analyze.LocalNameAnalyzer;
+import dei.unipd.evaluate.Evaluator;
+import dei.unipd.evaluate.Measure;
+import dei.unipd.evaluate.Qrels;
+import dei.unipd.utils.Constants;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.NumericUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the boost weights of the fields without searching the index for every weight vector.
+ * <p>
+ * The boosted query of {@link DatasetSearcher#searchBoosted()} scores a dataset with the sum of the boosted scores
+ * of the query terms on every field, i.e. with a linear combination {@code w1 * s1 + ... + wn * sn} of the scores
+ * of the query on the single fields. So, for every topic, the query is searched once per field and the field scores
+ * of a pool of candidate datasets (the union of the top {@code poolDepth} datasets of every field) are kept in a
+ * sparse dataset &times; field matrix. Every weight vector is then evaluated with array arithmetic only: the
+ * candidates are scored with the weights, ranked, deduplicated as in {@code searchBoosted()} and the ranking is
+ * evaluated with the given {@link Metric}.
+ * <p>
+ * The rankings are exact for the datasets in the pool: with a pool depth of at least the number of retrieved
+ * datasets, a dataset can be missing from the pool only if it is not in the top {@code poolDepth} of any field.
+ *
+ * @author Manuel Barusco (manuel.barusco@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class WeightTuner {
+
+    /**
+     * The fields whose weights are tuned
+     */
+    private final String[] fields;
+
+    /**
+     * The maximum number of datasets to retrieve
+     */
+    private final int maxDatasetsRetrieved;
+
+    /**
+     * The field scores of the candidate datasets, one matrix per topic in the order of the topics
+     */
+    private final TopicMatrix[] matrices;
+
+    /**
+     * The executor used to evaluate the weight vectors in parallel, can be {@code null}
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new tuner, searching every topic once per field to build the score matrices
+     *
+     * @param analyzer             the {@code Analyzer} to be used in the search phase
+     * @param similarity           the {@code Similarity} to be used.
+     * @param reader               the index reader.
+     * @param idResolver           the resolver of the dataset identifiers for the reader, {@code null} to create one.
+     * @param topics               the queries to search for.
+     * @param fields               the fields whose weights are tuned.
+     * @param poolDepth            the number of datasets retrieved for every field to build the candidate pool.
+     * @param maxDatasetsRetrieved the maximum number of datasets to be retrieved.
+     * @param executor             the executor for the topics and the weight vectors, {@code null} to run on the
+     *                             calling thread
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public WeightTuner(final Analyzer analyzer, final Similarity similarity, final IndexReader reader,
+                       DatasetIdResolver idResolver, final QualityQuery[] topics, final String[] fields,
+                       final int poolDepth, final int maxDatasetsRetrieved, final ExecutorService executor)
+            throws IOException, ParseException {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (similarity == null) {
+            throw new NullPointerException("Similarity cannot be null.");
+        }
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (topics == null) {
+            throw new NullPointerException("Topics cannot be null.");
+        }
+
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("At least one field has to be tuned.");
+        }
+
+        if (maxDatasetsRetrieved <= 0) {
+            throw new IllegalArgumentException("The maximum number of documents to be retrieved cannot be less than or equal to zero.");
+        }
+
+        if (poolDepth < maxDatasetsRetrieved) {
+            throw new IllegalArgumentException("The pool depth cannot be less than the maximum number of documents to be retrieved.");
+        }
+
+        if (idResolver == null) {
+            idResolver = new DatasetIdResolver(reader);
+        }
+
+        this.fields = fields.clone();
+        this.maxDatasetsRetrieved = maxDatasetsRetrieved;
+        this.executor = executor;
+
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(similarity);
+
+        final long start = System.currentTimeMillis();
+
+        final DatasetIdResolver resolver = idResolver;
+        final List<Task<TopicMatrix>> tasks = new ArrayList<>(topics.length);
+        for (QualityQuery t : topics) {
+            tasks.add(() -> score(searcher, resolver, analyzer, t, poolDepth));
+        }
+        this.matrices = runAll(tasks).toArray(new TopicMatrix[0]);
+
+        long entries = 0;
+        int candidates = 0;
+        for (TopicMatrix m : matrices) {
+            candidates += m.docs.length;
+            for (int[] rows : m.rows) {
+                entries += rows.length;
+            }
+        }
+
+        System.out.printf("Scored %d candidate(s) on %d field(s) for %d topic(s) (%d field scores) in %d milliseconds.%n",
+                candidates, fields.length, matrices.length, entries, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Builds the score matrix of a topic
+     */
+    private TopicMatrix score(IndexSearcher searcher, DatasetIdResolver resolver, Analyzer analyzer,
+                              QualityQuery t, int poolDepth) throws IOException, ParseException {
+
+        final String text = QueryParser.escape(t.getValue(DatasetSearcher.QUERY_FIELDS.TEXT));
+
+        //the query of every field and the union of their top datasets
+        final Query[] queries = new Query[fields.length];
+        final Set<Integer> pool = new HashSet<>();
+        for (int f = 0; f < fields.length; f++) {
+            queries[f] = searcher.rewrite(new QueryParser(fields[f], analyzer).parse(text));
+            for (ScoreDoc sd : searcher.search(queries[f], poolDepth).scoreDocs) {
+                pool.add(sd.doc);
+            }
+        }
+
+        //candidates in doc order, so that the rows can be filled with forward only iterators
+        final int[] docs = new int[pool.size()];
+        int n = 0;
+        for (int doc : pool) {
+            docs[n++] = doc;
+        }
+        Arrays.sort(docs);
+
+        final int[][] rows = new int[fields.length][];
+        final float[][] scores = new float[fields.length][];
+
+        for (int f = 0; f < fields.length; f++) {
+            final Weight weight = searcher.createWeight(queries[f], ScoreMode.COMPLETE, 1f);
+
+            int[] fieldRows = new int[Math.min(docs.length, 16)];
+            float[] fieldScores = new float[fieldRows.length];
+            int size = 0;
+
+            int i = 0;
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                final int leafEnd = leaf.docBase + leaf.reader().maxDoc();
+                if (i >= docs.length || docs[i] >= leafEnd) {
+                    continue;
+                }
+
+                final Scorer scorer = weight.scorer(leaf);
+                final DocIdSetIterator it = scorer == null ? null : scorer.iterator();
+
+                for (; i < docs.length && docs[i] < leafEnd; i++) {
+                    if (it == null) {
+                        continue;
+                    }
+                    final int target = docs[i] - leaf.docBase;
+                    if (it.docID() < target) {
+                        it.advance(target);
+                    }
+                    if (it.docID() == target) {
+                        if (size == fieldRows.length) {
+                            fieldRows = Arrays.copyOf(fieldRows, size * 2);
+                            fieldScores = Arrays.copyOf(fieldScores, size * 2);
+                        }
+                        fieldRows[size] = i;
+                        fieldScores[size] = scorer.score();
+                        size++;
+                    }
+                }
+            }
+
+            rows[f] = Arrays.copyOf(fieldRows, size);
+            scores[f] = Arrays.copyOf(fieldScores, size);
+        }
+
+        //the dataset identifiers, and a dense number per identifier to detect the duplicated datasets
+        final ScoreDoc[] hits = new ScoreDoc[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            hits[i] = new ScoreDoc(docs[i], 0f);
+        }
+        final String[] ids = resolver.resolve(hits).ids();
+
+        final Map<String, Integer> numbers = new HashMap<>();
+        final int[] idNumbers = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            idNumbers[i] = ids[i] == null ? -1 : numbers.computeIfAbsent(ids[i], k -> numbers.size());
+        }
+
+        return new TopicMatrix(t.getQueryID(), docs, ids, idNumbers, rows, scores);
+    }
+
+    /**
+     * Evaluates the given weight vectors
+     *
+     * @param weights the weight vectors, with the weights in the order of the fields
+     * @param metric  the metric used to evaluate the rankings
+     * @return the results, from the best to the worst weight vector
+     * @throws IOException if the evaluation is interrupted.
+     */
+    public List<Result> tune(final List<float[]> weights, final Metric metric) throws IOException {
+
+        if (metric == null) {
+            throw new NullPointerException("Metric cannot be null.");
+        }
+
+        for (float[] w : weights) {
+            if (w.length != fields.length) {
+                throw new IllegalArgumentException(String.format("Expected %d weights; %d found instead.",
+                        fields.length, w.length));
+            }
+        }
+
+        final long start = System.currentTimeMillis();
+
+        //split the vectors in chunks, every chunk reuses its buffers
+        final int chunks = executor == null ? 1 : Math.min(weights.size(), 4 * Runtime.getRuntime().availableProcessors());
+        final List<Task<List<Result>>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final List<float[]> chunk = weights.subList(c * weights.size() / chunks, (c + 1) * weights.size() / chunks);
+            tasks.add(() -> {
+                final VectorEvaluator evaluator = new VectorEvaluator();
+                final List<Result> results = new ArrayList<>(chunk.size());
+                for (float[] w : chunk) {
+                    results.add(new Result(w.clone(), evaluator.evaluate(w, metric)));
+                }
+                return results;
+            });
+        }
+
+        final List<Result> results = new ArrayList<>(weights.size());
+        try {
+            for (List<Result> r : runAll(tasks)) {
+                results.addAll(r);
+            }
+        } catch (ParseException e) {
+            //the evaluation does not parse any query
+            throw new IllegalStateException(e);
+        }
+
+        //best first, ties in the order of the vectors
+        results.sort((r1, r2) -> Double.compare(r2.score(), r1.score()));
+
+        System.out.printf("Evaluated %d weight vector(s) in %d milliseconds.%n", weights.size(),
+                System.currentTimeMillis() - start);
+
+        return results;
+    }
+
+    /**
+     * Evaluates the weight vectors of the grid
+     *
+     * @param values the values tried for every weight
+     * @param metric the metric used to evaluate the rankings
+     * @return the results, from the best to the worst weight vector
+     * @throws IOException if the evaluation is interrupted.
+     */
+    public List<Result> tune(final float[] values, final Metric metric) throws IOException {
+        return tune(grid(values, fields.length), metric);
+    }
+
+    /**
+     * Returns all the weight vectors whose weights take the given values. The rankings do not change if all the
+     * weights are multiplied by the same factor, so every vector is scaled to have the greatest value as its largest
+     * weight and the vectors equal after scaling are tried once. The vectors with all the weights equal to zero are
+     * skipped.
+     *
+     * @param values the values tried for every weight
+     * @param size   the number of weights
+     * @return the weight vectors, in the order of their first combination
+     */
+    public static List<float[]> grid(final float[] values, final int size) {
+
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("At least one weight value is needed.");
+        }
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("The number of weights cannot be less than or equal to zero.");
+        }
+
+        float max = values[0];
+        for (float v : values) {
+            if (!(v >= 0)) {
+                throw new IllegalArgumentException(String.format("Invalid weight value %s.", v));
+            }
+            max = Math.max(max, v);
+        }
+
+        final List<float[]> grid = new ArrayList<>();
+        //the scaled vectors already in the grid, rounded to absorb the floating point errors of the scaling
+        final Set<List<Long>> seen = new HashSet<>();
+        final int[] index = new int[size];
+
+        while (true) {
+            float largest = 0;
+            for (int i = 0; i < size; i++) {
+                largest = Math.max(largest, values[index[i]]);
+            }
+
+            if (largest > 0) {
+                final float[] w = new float[size];
+                final List<Long> rounded = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    w[i] = values[index[i]] / largest * max;
+                    rounded.add(Math.round(w[i] * 1e5));
+                }
+                if (seen.add(rounded)) {
+                    grid.add(w);
+                }
+            }
+
+            //next combination, the last weight changes fastest
+            int i = size - 1;
+            while (i >= 0 && ++index[i] == values.length) {
+                index[i] = 0;
+                i--;
+            }
+            if (i < 0) {
+                return grid;
+            }
+        }
+    }
+
+    /**
+     * @return the fields whose weights are tuned
+     */
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * Runs the tasks on the executor, or on the calling thread if there is no executor
+     *
+     * @return the results of the tasks, in the order of the tasks
+     */
+    private <T> List<T> runAll(List<Task<T>> tasks) throws IOException, ParseException {
+
+        final List<T> results = new ArrayList<>(tasks.size());
+
+        if (executor == null) {
+            for (Task<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Task<T> task : tasks) {
+            futures.add(executor.submit(task::call));
+        }
+
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while tuning the weights.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            if (e.getCause() instanceof ParseException pe) {
+                throw pe;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Ranks the candidates of every topic with a weight vector and evaluates the rankings. The buffers are reused
+     * among the vectors, so an evaluator cannot be shared among threads.
+     */
+    private class VectorEvaluator {
+
+        private float[] combined = new float[0];
+        private final long[] heap = new long[maxDatasetsRetrieved];
+        private final String[] ranking = new String[maxDatasetsRetrieved];
+        private final BitSet seen = new BitSet();
+
+        /**
+         * @return the mean of the metric over the evaluated topics
+         */
+        double evaluate(float[] w, Metric metric) {
+
+            double sum = 0;
+            int evaluated = 0;
+
+            for (TopicMatrix m : matrices) {
+                final int n = m.docs.length;
+                if (combined.length < n) {
+                    combined = new float[n];
+                }
+
+                Arrays.fill(combined, 0, n, 0f);
+                for (int f = 0; f < w.length; f++) {
+                    final float wf = w[f];
+                    if (wf == 0f) {
+                        continue;
+                    }
+                    final int[] rows = m.rows[f];
+                    final float[] scores = m.scores[f];
+                    for (int j = 0; j < rows.length; j++) {
+                        combined[rows[j]] += wf * scores[j];
+                    }
+                }
+
+                //higher scores first, then lower docs first as in Lucene: the candidates are in doc order, so the
+                //smaller the key the better the candidate. The best candidates are selected with a bounded max heap
+                final int cut = Math.min(n, maxDatasetsRetrieved);
+                for (int i = 0; i < n; i++) {
+                    final long key = ((long) ~NumericUtils.floatToSortableInt(combined[i]) << 32) | i;
+                    if (i < cut) {
+                        heap[i] = key;
+                        if (i == cut - 1) {
+                            for (int j = cut / 2 - 1; j >= 0; j--) {
+                                siftDown(j, cut);
+                            }
+                        }
+                    } else if (key < heap[0]) {
+                        heap[0] = key;
+                        siftDown(0, cut);
+                    }
+                }
+                Arrays.sort(heap, 0, cut);
+
+                //cut at the retrieved datasets and skip the duplicated ones, as in searchBoosted()
+                seen.clear();
+                int size = 0;
+                for (int r = 0; r < cut; r++) {
+                    final int i = (int) heap[r];
+                    final int number = m.idNumbers[i];
+                    if (number >= 0) {
+                        if (seen.get(number)) {
+                            continue;
+                        }
+                        seen.set(number);
+                    }
+                    ranking[size++] = m.ids[i];
+                }
+
+                final double value = metric.evaluate(m.topicID, Arrays.copyOf(ranking, size));
+                if (!Double.isNaN(value)) {
+                    sum += value;
+                    evaluated++;
+                }
+            }
+
+            return evaluated == 0 ? 0 : sum / evaluated;
+        }
+
+        /**
+         * Moves down the key at the given position of the max heap
+         */
+        private void siftDown(int i, int size) {
+            final long key = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= key) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+    }
+
+    /**
+     * The field scores of the candidate datasets of a topic, stored by field: {@code scores[f][j]} is the score on
+     * field {@code f} of the candidate {@code rows[f][j]}. Only the candidates matching the field are stored.
+     *
+     * @param topicID   the identifier of the topic
+     * @param docs      the candidates, in doc order
+     * @param ids       the dataset identifiers of the candidates
+     * @param idNumbers a dense number per dataset identifier, -1 for the candidates without identifier
+     * @param rows      the candidates matching every field
+     * @param scores    the scores of the candidates matching every field
+     */
+    private record TopicMatrix(String topicID, int[] docs, String[] ids, int[] idNumbers, int[][] rows,
+                               float[][] scores) {
+    }
+
+    /**
+     * The evaluation of a weight vector
+     *
+     * @param weights the weights, in the order of the fields
+     * @param score   the mean of the metric over the evaluated topics
+     */
+    public record Result(float[] weights, double score) {
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < weights.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(weights[i]).append('f');
+            }
+            return sb.append("} ").append(String.format(Locale.ENGLISH, "%.4f", score)).toString();
+        }
+    }
+
+    /**
+     * A metric that evaluates the ranking of a topic
+     */
+    @FunctionalInterface
+    public interface Metric {
+
+        /**
+         * @param topicID the identifier of the topic
+         * @param ranking the dataset identifiers, from the first to the last retrieved
+         * @return the value of the metric for the topic, {@code NaN} if the topic has not to be evaluated
+         */
+        double evaluate(String topicID, String[] ranking);
+    }
+
+    /**
+     * A task of the tuner
+     */
+    @FunctionalInterface
+    private interface Task<T> {
+        T call() throws IOException, ParseException;
+    }
+
+    /**
+     * Tunes the BM25 weights of all the fields and prints the best weight vectors by nDCG@10
+     *
+     * @param args the qrels file.
+     * @throws Exception if something goes wrong while tuning.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final String qrelsFile = args.length > 0 ? args[0] : "/home/manuel/Tesi/ACORDAR/Data/qrels.txt";
+
+        final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        final Analyzer analyzer = LocalNameAnalyzer.forIndex();
+
+        try (IndexReader reader = DatasetSearcher.openIndex(Constants.indexPathSSD)) {
+
+            final WeightTuner tuner = new WeightTuner(analyzer, new BM25Similarity(), reader, null,
+                    DatasetSearcher.readTopics(Constants.queryPath, 50), Constants.queryFields, 1000, 100, pool);
+
+            final Evaluator evaluator = new Evaluator(Qrels.read(qrelsFile), Measure.ndcg(10));
+            final Metric metric = (topicID, ranking) -> evaluator.evaluate(topicID, ranking, Measure.ndcg(10));
+            System.out.println("Current weights: " + tuner.tune(List.of(Constants.BM25BoostWeights), metric).get(0));
+
+            final List<Result> results = tuner.tune(new float[]{0.1f, 0.3f, 0.6f, 1.0f}, metric);
+            for (Result r : results.subList(0, Math.min(10, results.size()))) {
+                System.out.println(r);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -43,6 +43,16 @@ public class Constants {
      */
     public static final String queryPath = "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
 
+    /**
+     * Stop list of the analyzers of the index and of the queries
+     */
+    public static final String stopListPath = "/home/manuel/Tesi/EDS/EDS/eds/src/main/resources/stoplists/nltk-stopwords.txt";
+
+    /**
+     * Whether the analyzers of the index and of the queries stem the terms, through a cache of the stems
+     */
+    public static final boolean stemming = false;
+
     /**
      * Runs directory path
      */
@@ -1,15 +1,13 @@
 package dei.unipd.utils;
 
 import com.ctc.wstx.shaded.msv_core.verifier.jarv.Const;
-import dei.unipd.analyze.AnalyzerUtil;
+import dei.unipd.analyze.LocalNameAnalyzer;
 import dei.unipd.index.DatasetIndexer;
 import dei.unipd.search.DatasetSearcher;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.en.EnglishMinimalStemFilter;
 import org.apache.lucene.analysis.en.KStemFilter;
 import org.apache.lucene.analysis.en.PorterStemFilter;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
@@ -54,8 +52,7 @@ public class Main {
 
         final int expectedTopics = 50; //TODO: to be modified
 
-        CharArraySet cas = AnalyzerUtil.loadStopList("nltk-stopwords.txt");
-        final Analyzer analyzer = new StandardAnalyzer(cas);
+        final Analyzer analyzer = LocalNameAnalyzer.forIndex();
 
         Similarity similarity = new BM25Similarity();
 